@@ -0,0 +1,71 @@
+package net.toyknight.aeii.analytics;
+
+/**
+ * @author agent 10/19/2026.
+ */
+public class AnalyticsConfiguration {
+
+    public static final String USAGE = "Options:\n" +
+            "  --records <directory>     directory scanned for .rec and .rec.gz records (required)\n" +
+            "  --output <directory>      directory the csv files are written to (default analytics)\n" +
+            "  --threads <count>         threads replaying the records (default: available processors)\n" +
+            "  --pending <count>         records loaded but not replayed yet (default: 4 per thread)\n" +
+            "  --report-interval <s>     delay between two progress reports (default 10)";
+
+    private String record_directory = null;
+
+    private String output_directory = "analytics";
+
+    private int thread_count = Runtime.getRuntime().availableProcessors();
+
+    private int pending_count = -1;
+
+    private long report_interval = 10 * 1000;
+
+    public void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            }
+            String value = args[++i];
+            if (option.equals("--records")) {
+                record_directory = value;
+            } else if (option.equals("--output")) {
+                output_directory = value;
+            } else if (option.equals("--threads")) {
+                thread_count = Math.max(1, Integer.parseInt(value));
+            } else if (option.equals("--pending")) {
+                pending_count = Math.max(1, Integer.parseInt(value));
+            } else if (option.equals("--report-interval")) {
+                report_interval = Long.parseLong(value) * 1000;
+            } else {
+                throw new IllegalArgumentException("Undefined option " + option);
+            }
+        }
+        if (record_directory == null) {
+            throw new IllegalArgumentException("Missing option --records");
+        }
+    }
+
+    public String getRecordDirectory() {
+        return record_directory;
+    }
+
+    public String getOutputDirectory() {
+        return output_directory;
+    }
+
+    public int getThreadCount() {
+        return thread_count;
+    }
+
+    public int getPendingCount() {
+        return pending_count > 0 ? pending_count : thread_count * 4;
+    }
+
+    public long getReportInterval() {
+        return report_interval;
+    }
+
+}
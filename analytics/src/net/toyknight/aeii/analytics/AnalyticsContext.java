@@ -0,0 +1,225 @@
+package net.toyknight.aeii.analytics;
+
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.AEIIException;
+import net.toyknight.aeii.GameContext;
+import net.toyknight.aeii.manager.CheatingException;
+import net.toyknight.aeii.record.FastForwardEngine;
+import net.toyknight.aeii.record.GameRecord;
+import net.toyknight.aeii.utils.MD5Converter;
+import net.toyknight.aeii.utils.MapFactory;
+import net.toyknight.aeii.utils.TileFactory;
+import net.toyknight.aeii.utils.UnitFactory;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a directory for records and replays them on a pool of threads. The records are loaded by the replaying
+ * threads and the scan blocks while enough of them are pending, so only a bounded number of records is in memory
+ * at a time. A line describing each record is written to records.csv as soon as it is replayed, the aggregated
+ * statistics are written once every record is done.
+ *
+ * @author agent 10/19/2026.
+ */
+public class AnalyticsContext {
+
+    private static final String TAG = "ANALYTICS";
+
+    private final Object RECORD_LOCK = new Object();
+
+    private final AnalyticsConfiguration configuration;
+
+    private final ReplayStatistics statistics;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService reporter;
+
+    private String v_string;
+
+    private File output_directory;
+
+    private PrintWriter record_writer;
+
+    public AnalyticsContext(AnalyticsConfiguration configuration) {
+        this.configuration = configuration;
+        this.statistics = new ReplayStatistics(UnitFactory.getUnitCount());
+        this.executor = new ThreadPoolExecutor(
+                configuration.getThreadCount(), configuration.getThreadCount(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(configuration.getPendingCount()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.reporter = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public AnalyticsConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    public ReplayStatistics getStatistics() {
+        return statistics;
+    }
+
+    public String getVerificationString() {
+        return v_string;
+    }
+
+    public void initialize() throws AEIIException {
+        String V_STRING = TileFactory.getVerificationString() + UnitFactory.getVerificationString()
+                + GameContext.INTERNAL_VERSION;
+        v_string = new MD5Converter().toMD5(V_STRING);
+        if (!new File(getConfiguration().getRecordDirectory()).isDirectory()) {
+            throw new AEIIException("Record directory " + getConfiguration().getRecordDirectory() + " not found");
+        }
+        output_directory = new File(getConfiguration().getOutputDirectory());
+        if (!output_directory.isDirectory() && !output_directory.mkdirs()) {
+            throw new AEIIException("Can not create output directory " + output_directory.getPath());
+        }
+        try {
+            record_writer = new PrintWriter(new FileWriter(new File(output_directory, "records.csv")));
+            record_writer.println("file,format,status,events,turns,finished,winner_alliance,map");
+        } catch (IOException ex) {
+            throw new AEIIException("Can not create records.csv", ex);
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        long start_time = System.currentTimeMillis();
+        long interval = getConfiguration().getReportInterval();
+        if (interval > 0) {
+            reporter.scheduleAtFixedRate(new ReportingTask(), interval, interval, TimeUnit.MILLISECONDS);
+        }
+        scan(new File(getConfiguration().getRecordDirectory()));
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        reporter.shutdownNow();
+        record_writer.close();
+        getStatistics().write(output_directory);
+        Log.info(TAG, String.format("Replayed in %d ms\n%s",
+                System.currentTimeMillis() - start_time, getStatistics().createReport()));
+    }
+
+    private void scan(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    scan(file);
+                } else if (RecordLoader.isRecord(file)) {
+                    getStatistics().increase(ReplayStatistics.SCANNED);
+                    //blocks by running the task when enough records are pending
+                    executor.execute(new ReplayTask(file));
+                }
+            }
+        }
+    }
+
+    private void writeRecord(File file, String status, int events, int turns, boolean finished,
+                             int winner_alliance, String map_hash) {
+        synchronized (RECORD_LOCK) {
+            record_writer.printf("%s,%s,%s,%d,%d,%b,%d,%s\n",
+                    ReplayStatistics.quote(file.getPath()), RecordLoader.getFormat(file), status,
+                    events, turns, finished, winner_alliance, map_hash);
+        }
+    }
+
+    private class ReplayTask implements Runnable {
+
+        private final File file;
+
+        public ReplayTask(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            GameRecord record;
+            try {
+                record = RecordLoader.load(file);
+            } catch (IOException ex) {
+                record = null;
+                Log.error(TAG, String.format("Error loading record %s", file.getPath()), ex);
+            } catch (GdxRuntimeException ex) {
+                record = null;
+                Log.error(TAG, String.format("Error loading record %s", file.getPath()), ex);
+            } catch (KryoException ex) {
+                record = null;
+                Log.error(TAG, String.format("Broken record %s", file.getPath()), ex);
+            } catch (JSONException ex) {
+                record = null;
+                Log.error(TAG, String.format("Broken record %s", file.getPath()), ex);
+            }
+            if (record == null) {
+                getStatistics().increase(ReplayStatistics.UNREADABLE);
+                writeRecord(file, ReplayStatistics.UNREADABLE, 0, 0, false, -1, "");
+                return;
+            }
+            String map_hash = MapFactory.getContentHash(record.getGame().getMap());
+            if (!getVerificationString().equals(record.getVerificationString())) {
+                //played with other rules, the events may not be valid here
+                getStatistics().increase(ReplayStatistics.VERSION_MISMATCH);
+                writeRecord(file, ReplayStatistics.VERSION_MISMATCH,
+                        record.getEvents().size, record.getTurnCount(), false, -1, map_hash);
+                return;
+            }
+            FastForwardEngine engine = new FastForwardEngine();
+            engine.setRecord(record);
+            ReplayCollector collector = new ReplayCollector(engine.getGame());
+            engine.setListener(collector);
+            try {
+                engine.forwardToEnd();
+            } catch (CheatingException ex) {
+                getStatistics().increase(ReplayStatistics.INVALID);
+                writeRecord(file, ReplayStatistics.INVALID,
+                        engine.getEventIndex(), record.getTurnCount(), false, -1, map_hash);
+                return;
+            } catch (JSONException ex) {
+                getStatistics().increase(ReplayStatistics.INVALID);
+                writeRecord(file, ReplayStatistics.INVALID,
+                        engine.getEventIndex(), record.getTurnCount(), false, -1, map_hash);
+                return;
+            } catch (RuntimeException ex) {
+                Log.error(TAG, String.format("Error replaying record %s", file.getPath()), ex);
+                getStatistics().increase(ReplayStatistics.INVALID);
+                writeRecord(file, ReplayStatistics.INVALID,
+                        engine.getEventIndex(), record.getTurnCount(), false, -1, map_hash);
+                return;
+            }
+            boolean finished = engine.getGame().isGameOver();
+            int turns = record.getTurn(engine.getEventIndex()) + 1;
+            getStatistics().merge(
+                    map_hash, record.getGame().getMap().getAuthor(), record.getGame().getMap(),
+                    finished, turns, collector);
+            getStatistics().increase(ReplayStatistics.REPLAYED);
+            getStatistics().add(ReplayStatistics.EVENTS, engine.getEventIndex());
+            if (finished) {
+                getStatistics().increase(ReplayStatistics.FINISHED);
+            }
+            writeRecord(file, ReplayStatistics.REPLAYED,
+                    engine.getEventIndex(), turns, finished, collector.getWinnerAlliance(), map_hash);
+        }
+
+    }
+
+    private class ReportingTask implements Runnable {
+
+        @Override
+        public void run() {
+            Log.info(TAG, "Progress\n" + getStatistics().createReport());
+        }
+
+    }
+
+}
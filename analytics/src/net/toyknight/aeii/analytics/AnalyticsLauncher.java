@@ -0,0 +1,45 @@
+package net.toyknight.aeii.analytics;
+
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.AEIIException;
+import net.toyknight.aeii.utils.TileFactory;
+import net.toyknight.aeii.utils.UnitFactory;
+
+import java.io.IOException;
+
+/**
+ * @author agent 10/19/2026.
+ */
+public class AnalyticsLauncher {
+
+    private static final String TAG = "ANALYTICS";
+
+    public static void main(String[] args) {
+        AnalyticsConfiguration configuration = new AnalyticsConfiguration();
+        try {
+            configuration.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            System.out.println(AnalyticsConfiguration.USAGE);
+            System.exit(-1);
+        }
+        try {
+            UnitFactory.loadUnitData();
+            TileFactory.loadTileData();
+            AnalyticsContext context = new AnalyticsContext(configuration);
+            context.initialize();
+            context.run();
+            System.exit(0);
+        } catch (AEIIException ex) {
+            Log.error(TAG, "Failed launching the analytics", ex);
+            System.exit(-1);
+        } catch (IOException ex) {
+            Log.error(TAG, "Failed writing the statistics", ex);
+            System.exit(-1);
+        } catch (InterruptedException ex) {
+            Log.error(TAG, "Analytics interrupted", ex);
+            System.exit(-1);
+        }
+    }
+
+}
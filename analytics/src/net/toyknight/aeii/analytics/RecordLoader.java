@@ -0,0 +1,94 @@
+package net.toyknight.aeii.analytics;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.KryoException;
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.manager.GameEvent;
+import net.toyknight.aeii.network.PacketCodec;
+import net.toyknight.aeii.record.GameRecord;
+import net.toyknight.aeii.utils.GameToolkit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads the records written by the game, in the JSON or the streaming format, and the match files written by the
+ * server, whose frames are read into a record the same way.
+ *
+ * @author agent 10/19/2026.
+ */
+public class RecordLoader {
+
+    public static final String RECORD_SUFFIX = ".rec";
+
+    public static final String MATCH_SUFFIX = ".rec.gz";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private RecordLoader() {
+    }
+
+    public static boolean isRecord(File file) {
+        String name = file.getName();
+        return file.isFile() && (name.endsWith(RECORD_SUFFIX) || name.endsWith(MATCH_SUFFIX));
+    }
+
+    public static String getFormat(File file) {
+        return file.getName().endsWith(MATCH_SUFFIX) ? "match" : "record";
+    }
+
+    /**
+     * Load a record file.
+     *
+     * @param file the file
+     * @return the record, or null if the file is not a record
+     */
+    public static GameRecord load(File file) throws IOException, JSONException, KryoException {
+        if (file.getName().endsWith(MATCH_SUFFIX)) {
+            return loadMatch(file);
+        } else {
+            return GameToolkit.readRecord(new FileHandle(file).readBytes());
+        }
+    }
+
+    private static GameRecord loadMatch(File file) throws IOException, JSONException {
+        DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE));
+        try {
+            JSONObject header = readFrame(input);
+            GameRecord record = new GameRecord(header.getString("v_string"));
+            record.setGame(new GameCore(header.getJSONObject("game")));
+            Array<GameEvent> events = new Array<GameEvent>();
+            try {
+                while (true) {
+                    events.add(new GameEvent().read(readFrame(input)));
+                }
+            } catch (EOFException ignored) {
+                //the end of the match, or the last member cut off by a crash of the server
+            }
+            record.setEvents(events);
+            return record;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static JSONObject readFrame(DataInputStream input) throws IOException, JSONException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Broken frame length " + length);
+        }
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return PacketCodec.decode(data);
+    }
+
+}
@@ -0,0 +1,139 @@
+package net.toyknight.aeii.analytics;
+
+import com.badlogic.gdx.utils.IntArray;
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.entity.Unit;
+import net.toyknight.aeii.manager.GameEvent;
+import net.toyknight.aeii.record.FastForwardListener;
+import net.toyknight.aeii.utils.UnitFactory;
+import org.json.JSONException;
+
+/**
+ * Collects the statistics of one replayed record while the fast forward engine executes its events. Nothing is
+ * shared between collectors, the results are merged into the {@link ReplayStatistics} once the replay ends.
+ *
+ * @author agent 10/19/2026.
+ */
+public class ReplayCollector implements FastForwardListener {
+
+    private final int unit_count = UnitFactory.getUnitCount();
+
+    private final boolean[] teams = new boolean[4];
+
+    private final int[] alliances = new int[4];
+
+    //the unit types each team has had on the map
+    private final boolean[][] fielded = new boolean[4][unit_count];
+
+    private final int[][] attack_counts = new int[unit_count][unit_count];
+
+    private final long[][] attack_damages = new long[unit_count][unit_count];
+
+    //the income of every turn of each team
+    private final IntArray[] incomes = new IntArray[4];
+
+    private final int[] income_before = new int[4];
+
+    private int attacker_index;
+
+    private int defender_index;
+
+    private int winner_alliance = -1;
+
+    public ReplayCollector(GameCore game) {
+        for (int team = 0; team < 4; team++) {
+            teams[team] = game.isTeamAlive(team);
+            alliances[team] = game.getAlliance(team);
+            incomes[team] = new IntArray();
+        }
+        for (Unit unit : game.getMap().getUnits()) {
+            fielded[unit.getTeam()][unit.getIndex()] = true;
+        }
+    }
+
+    @Override
+    public void onEventExecuting(GameCore game, GameEvent event) {
+        try {
+            switch (event.getType()) {
+                case GameEvent.ATTACK:
+                    Unit attacker = game.getMap().getUnit(event.getValue(0), event.getValue(1));
+                    Unit defender = game.getMap().getUnit(event.getValue(2), event.getValue(3));
+                    attacker_index = attacker == null ? -1 : attacker.getIndex();
+                    defender_index = defender == null ? -1 : defender.getIndex();
+                    break;
+                case GameEvent.NEXT_TURN:
+                    for (int team = 0; team < 4; team++) {
+                        income_before[team] = game.getStatistics().getIncome(team);
+                    }
+                    break;
+            }
+        } catch (JSONException ignored) {
+            //the event has been checked by the executor
+        }
+    }
+
+    @Override
+    public void onEventExecuted(GameCore game, GameEvent event) {
+        try {
+            switch (event.getType()) {
+                case GameEvent.ATTACK:
+                    int damage = event.getValue(4);
+                    if (attacker_index >= 0 && defender_index >= 0 && damage >= 0) {
+                        attack_counts[attacker_index][defender_index]++;
+                        attack_damages[attacker_index][defender_index] += damage;
+                    }
+                    break;
+                case GameEvent.BUY:
+                    fielded[event.getValue(1)][event.getValue(0)] = true;
+                    break;
+                case GameEvent.NEXT_TURN:
+                    int team = game.getCurrentTeam();
+                    incomes[team].add(game.getStatistics().getIncome(team) - income_before[team]);
+                    break;
+            }
+        } catch (JSONException ignored) {
+            //the event has been checked by the executor
+        }
+        if (game.isGameOver() && winner_alliance < 0) {
+            for (int team = 0; team < 4; team++) {
+                if (game.isTeamAlive(team)) {
+                    winner_alliance = game.getAlliance(team);
+                    break;
+                }
+            }
+        }
+    }
+
+    public int getUnitCount() {
+        return unit_count;
+    }
+
+    public boolean isPlaying(int team) {
+        return teams[team];
+    }
+
+    public boolean isFielded(int team, int index) {
+        return fielded[team][index];
+    }
+
+    public int getAttackCount(int attacker_index, int defender_index) {
+        return attack_counts[attacker_index][defender_index];
+    }
+
+    public long getAttackDamage(int attacker_index, int defender_index) {
+        return attack_damages[attacker_index][defender_index];
+    }
+
+    public IntArray getIncomes(int team) {
+        return incomes[team];
+    }
+
+    public int getWinnerAlliance() {
+        return winner_alliance;
+    }
+
+    public boolean isWinner(int team) {
+        return winner_alliance >= 0 && alliances[team] == winner_alliance;
+    }
+
+}
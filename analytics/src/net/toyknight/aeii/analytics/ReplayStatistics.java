@@ -0,0 +1,288 @@
+package net.toyknight.aeii.analytics;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.badlogic.gdx.utils.ObjectMap;
+import net.toyknight.aeii.entity.Map;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The statistics aggregated over every replayed record. Only the totals are kept, so the memory used does not grow
+ * with the number of records, except for one entry per distinct map.
+ *
+ * @author agent 10/19/2026.
+ */
+public class ReplayStatistics {
+
+    public static final String SCANNED = "scanned";
+    public static final String REPLAYED = "replayed";
+    public static final String FINISHED = "finished";
+    public static final String UNREADABLE = "unreadable";
+    public static final String VERSION_MISMATCH = "version mismatch";
+    public static final String INVALID = "invalid";
+    public static final String EVENTS = "events";
+
+    private final Object AGGREGATE_LOCK = new Object();
+
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final int unit_count;
+
+    //finished games of a team that had the unit type, and the ones won
+    private final long[] unit_games;
+    private final long[] unit_wins;
+
+    private final long[][] attack_counts;
+    private final long[][] attack_damages;
+
+    //indexed by the turn of a team
+    private final LongArray income_samples = new LongArray();
+    private final LongArray income_totals = new LongArray();
+    private final LongArray winner_income_samples = new LongArray();
+    private final LongArray winner_income_totals = new LongArray();
+    private final LongArray loser_income_samples = new LongArray();
+    private final LongArray loser_income_totals = new LongArray();
+
+    private final ObjectMap<String, MapStatistics> maps = new ObjectMap<String, MapStatistics>();
+
+    public ReplayStatistics(int unit_count) {
+        this.unit_count = unit_count;
+        this.unit_games = new long[unit_count];
+        this.unit_wins = new long[unit_count];
+        this.attack_counts = new long[unit_count][unit_count];
+        this.attack_damages = new long[unit_count][unit_count];
+    }
+
+    public void increase(String name) {
+        add(name, 1);
+    }
+
+    public void add(String name, long value) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(value);
+    }
+
+    public long get(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Merge the statistics of a replayed record.
+     *
+     * @param map_hash  the content hash of the initial map
+     * @param map_label the name of the map
+     * @param map       the initial map
+     * @param finished  whether the record ends with the game over
+     * @param turns     the number of turns played
+     * @param collector the statistics of the record
+     */
+    public void merge(String map_hash, String map_label, Map map, boolean finished, int turns,
+                      ReplayCollector collector) {
+        synchronized (AGGREGATE_LOCK) {
+            for (int team = 0; team < 4; team++) {
+                if (collector.isPlaying(team)) {
+                    boolean winner = collector.isWinner(team);
+                    if (finished) {
+                        for (int index = 0; index < unit_count; index++) {
+                            if (collector.isFielded(team, index)) {
+                                unit_games[index]++;
+                                if (winner) {
+                                    unit_wins[index]++;
+                                }
+                            }
+                        }
+                    }
+                    IntArray incomes = collector.getIncomes(team);
+                    for (int turn = 0; turn < incomes.size; turn++) {
+                        addSample(income_samples, income_totals, turn, incomes.get(turn));
+                        if (finished) {
+                            if (winner) {
+                                addSample(winner_income_samples, winner_income_totals, turn, incomes.get(turn));
+                            } else {
+                                addSample(loser_income_samples, loser_income_totals, turn, incomes.get(turn));
+                            }
+                        }
+                    }
+                }
+            }
+            for (int attacker = 0; attacker < unit_count; attacker++) {
+                for (int defender = 0; defender < unit_count; defender++) {
+                    attack_counts[attacker][defender] += collector.getAttackCount(attacker, defender);
+                    attack_damages[attacker][defender] += collector.getAttackDamage(attacker, defender);
+                }
+            }
+            MapStatistics map_statistics = maps.get(map_hash);
+            if (map_statistics == null) {
+                map_statistics = new MapStatistics(map_label, map.getWidth(), map.getHeight());
+                maps.put(map_hash, map_statistics);
+            }
+            map_statistics.games++;
+            map_statistics.turns += turns;
+            if (finished) {
+                map_statistics.finished++;
+                for (int team = 0; team < 4; team++) {
+                    if (collector.isPlaying(team) && collector.isWinner(team)) {
+                        map_statistics.wins[team]++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addSample(LongArray samples, LongArray totals, int turn, int value) {
+        while (samples.size <= turn) {
+            samples.add(0);
+            totals.add(0);
+        }
+        samples.incr(turn, 1);
+        totals.incr(turn, value);
+    }
+
+    public String createReport() {
+        StringBuilder report = new StringBuilder();
+        for (java.util.Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            report.append(String.format("  %-24s %d\n", entry.getKey(), entry.getValue().get()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Write the unit, matchup, income and map statistics as csv files.
+     *
+     * @param directory the output directory
+     */
+    public void write(File directory) throws IOException {
+        synchronized (AGGREGATE_LOCK) {
+            writeUnits(new File(directory, "units.csv"));
+            writeMatchups(new File(directory, "matchups.csv"));
+            writeIncomes(new File(directory, "incomes.csv"));
+            writeMaps(new File(directory, "maps.csv"));
+        }
+    }
+
+    private void writeUnits(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("unit,games,wins,win_rate");
+            for (int index = 0; index < unit_count; index++) {
+                writer.printf("%d,%d,%d,%s\n",
+                        index, unit_games[index], unit_wins[index], ratio(unit_wins[index], unit_games[index]));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeMatchups(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("attacker,defender,attacks,damage,average_damage");
+            for (int attacker = 0; attacker < unit_count; attacker++) {
+                for (int defender = 0; defender < unit_count; defender++) {
+                    long count = attack_counts[attacker][defender];
+                    if (count > 0) {
+                        long damage = attack_damages[attacker][defender];
+                        writer.printf("%d,%d,%d,%d,%s\n", attacker, defender, count, damage, ratio(damage, count));
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeIncomes(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("turn,samples,average_income,winner_samples,winner_average_income," +
+                    "loser_samples,loser_average_income");
+            for (int turn = 0; turn < income_samples.size; turn++) {
+                long winner_samples = get(winner_income_samples, turn);
+                long loser_samples = get(loser_income_samples, turn);
+                writer.printf("%d,%d,%s,%d,%s,%d,%s\n",
+                        turn + 1,
+                        income_samples.get(turn), ratio(income_totals.get(turn), income_samples.get(turn)),
+                        winner_samples, ratio(get(winner_income_totals, turn), winner_samples),
+                        loser_samples, ratio(get(loser_income_totals, turn), loser_samples));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeMaps(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("map,name,width,height,games,finished,average_turns," +
+                    "team_0_wins,team_1_wins,team_2_wins,team_3_wins");
+            Array<String> hashes = maps.keys().toArray();
+            hashes.sort();
+            for (String hash : hashes) {
+                MapStatistics map = maps.get(hash);
+                writer.printf("%s,%s,%d,%d,%d,%d,%s,%d,%d,%d,%d\n",
+                        hash, quote(map.label), map.width, map.height, map.games, map.finished,
+                        ratio(map.turns, map.games), map.wins[0], map.wins[1], map.wins[2], map.wins[3]);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static long get(LongArray array, int index) {
+        return index < array.size ? array.get(index) : 0;
+    }
+
+    public static String ratio(long value, long total) {
+        return total > 0 ? String.format(Locale.US, "%.4f", (double) value / total) : "";
+    }
+
+    public static String quote(String value) {
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        } else {
+            return value;
+        }
+    }
+
+    private static class MapStatistics {
+
+        private final String label;
+
+        private final int width;
+
+        private final int height;
+
+        private final long[] wins = new long[4];
+
+        private long games;
+
+        private long finished;
+
+        private long turns;
+
+        public MapStatistics(String label, int width, int height) {
+            this.label = label;
+            this.width = width;
+            this.height = height;
+        }
+
+    }
+
+}
@@ -34,7 +34,7 @@ public class GameContext extends Game implements GameManagerListener {
 
     public static final Object RENDER_LOCK = new Object();
 
-    public static final String INTERNAL_VERSION = "23";
+    public static final String INTERNAL_VERSION = "24";
     public static final String EXTERNAL_VERSION = "1.2.0";
     private static final String TAG = "Main";
 
@@ -296,8 +296,9 @@ public class GameContext extends Game implements GameManagerListener {
             getGameManager().setGame(game);
         } else {
             game.initialize();
-            getGameManager().setGame(game);
+            //gained before the game is set, so the record starts with it
             int income = game.gainIncome(game.getCurrentTeam());
+            getGameManager().setGame(game);
             if (game.getType() == GameCore.SKIRMISH) {
                 getGameManager().getAnimationDispatcher().submitMessageAnimation(
                         Language.getText("LB_CURRENT_TURN") + ": " + game.getCurrentTurn(),
@@ -10,6 +10,7 @@ import net.toyknight.aeii.campaign.tutorial.TutorialCampaign;
 import net.toyknight.aeii.campaign.warroom.WarroomCampaign;
 import net.toyknight.aeii.entity.*;
 import net.toyknight.aeii.manager.GameEvent;
+import net.toyknight.aeii.manager.GameEventExecutor;
 import net.toyknight.aeii.manager.GameManager;
 import net.toyknight.aeii.utils.UnitToolkit;
 import org.json.JSONArray;
@@ -164,7 +165,8 @@ public class CampaignContext {
                 message_json.put("message", message.getMessage());
                 message_list.put(message_json);
             }
-            getContext().getGameManager().getGameEventExecutor().submitGameEvent(GameEvent.CAMPAIGN_MESSAGE, message_list);
+            getContext().getGameManager().getGameEventExecutor().submitGameEvent(
+                    GameEvent.create(GameEvent.CAMPAIGN_MESSAGE, message_list));
         }
 
         public void reinforce(int team, Reinforcement... reinforcements) {
@@ -182,7 +184,7 @@ public class CampaignContext {
                 json_reinforcements.put(json_reinforcement);
             }
             getContext().getGameManager().getGameEventExecutor().submitGameEvent(
-                    GameEvent.CAMPAIGN_REINFORCE, team, from_x, from_y, json_reinforcements);
+                    GameEvent.create(GameEvent.CAMPAIGN_REINFORCE, team, from_x, from_y, json_reinforcements));
         }
 
         public int count_unit(int team) {
@@ -371,14 +373,9 @@ public class CampaignContext {
         public void hp_change(int x, int y, int change) {
             Unit target = getContext().getGame().getMap().getUnit(x, y);
             if (target != null) {
-                JSONArray hp_changes = new JSONArray();
-                JSONObject hp_change = new JSONObject();
+                GameEventExecutor executor = getContext().getGameManager().getGameEventExecutor();
                 change = UnitToolkit.validateHpChange(target, change);
-                hp_change.put("x", x);
-                hp_change.put("y", y);
-                hp_change.put("change", change);
-                hp_changes.put(hp_change);
-                getContext().getGameManager().getGameEventExecutor().submitGameEvent(GameEvent.HP_CHANGE, hp_changes);
+                executor.submitGameEvent(executor.obtainGameEvent(GameEvent.HP_CHANGE).addHpChange(x, y, change));
             }
         }
 
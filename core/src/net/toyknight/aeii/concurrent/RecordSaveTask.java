@@ -1,32 +1,24 @@
 package net.toyknight.aeii.concurrent;
 
 import com.badlogic.gdx.files.FileHandle;
-import com.esotericsoftware.kryo.io.Output;
-import net.toyknight.aeii.record.GameRecord;
-import net.toyknight.aeii.utils.FileProvider;
-import net.toyknight.aeii.utils.GameToolkit;
 
 /**
  * @author toyknight 5/9/2016.
  */
 public class RecordSaveTask extends AsyncTask<Void> {
 
-    private final GameRecord record;
+    private final FileHandle record_file;
 
-    public RecordSaveTask(GameRecord record) {
-        this.record = record;
+    private final byte[] data;
+
+    public RecordSaveTask(FileHandle record_file, byte[] data) {
+        this.record_file = record_file;
+        this.data = data;
     }
 
     @Override
     public Void doTask() throws Exception {
-        String filename = GameToolkit.createFilename(GameToolkit.RECORD);
-        FileHandle record_file = FileProvider.getUserFile("save/" + filename);
-        Output output = new Output(record_file.write(false));
-        String content = record.toJson().toString();
-        output.writeInt(GameToolkit.RECORD);
-        output.writeString(content);
-        output.flush();
-        output.close();
+        record_file.writeBytes(data, true);
         return null;
     }
 
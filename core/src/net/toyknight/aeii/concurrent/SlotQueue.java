@@ -0,0 +1,141 @@
+package net.toyknight.aeii.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded queue of reusable slots that any thread may fill and a single thread takes from, without locks. A
+ * producer claims the next free slot, fills it in place and publishes it, the consumer reads the oldest published
+ * slot and releases it. A slot is created the first time its position is claimed and reused afterwards, so nothing
+ * is allocated once the queue has been as full as it gets.
+ * <p>
+ * Every slot carries a sequence number telling whether it is free for the position a producer claims, or published
+ * for the position the consumer takes. The publication and the release are ordered stores, so the contents of a
+ * slot are visible to the thread that sees its sequence number.
+ *
+ * @author agent 10/19/2026.
+ */
+public abstract class SlotQueue<T> {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final Object[] slots;
+
+    private final AtomicLongArray sequences;
+
+    //the next position claimed by producers
+    private final AtomicLong tail = new AtomicLong();
+
+    //the next position taken by the consumer, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity the number of slots, a power of two
+     */
+    public SlotQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    protected abstract T newSlot();
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Claim the next free slot. The slot has to be published by {@link #publish(long)} once it is filled, the
+     * consumer waits for it meanwhile.
+     *
+     * @return the position of the slot, or -1 if the queue is full
+     */
+    public long claim() {
+        while (true) {
+            long position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (sequence < position) {
+                return -1;
+            }
+            //another producer has claimed the position
+        }
+    }
+
+    /**
+     * Must be called by the producer that has claimed the position.
+     *
+     * @param position the claimed position
+     * @return the slot to fill
+     */
+    @SuppressWarnings("unchecked")
+    public T getSlot(long position) {
+        int index = (int) position & mask;
+        if (slots[index] == null) {
+            //published along with the contents of the slot
+            slots[index] = newSlot();
+        }
+        return (T) slots[index];
+    }
+
+    public void publish(long position) {
+        sequences.lazySet((int) position & mask, position + 1);
+    }
+
+    /**
+     * Must be called by the consumer.
+     *
+     * @return the oldest published slot, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        long position = head.get();
+        if (sequences.get((int) position & mask) == position + 1) {
+            return (T) slots[(int) position & mask];
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Release the slot returned by {@link #peek()}, must be called by the consumer.
+     */
+    public void release() {
+        long position = head.get();
+        sequences.lazySet((int) position & mask, position + capacity);
+        head.lazySet(position + 1);
+    }
+
+    /**
+     * Whether the consumer has nothing to take. A slot claimed and still being filled does not count until it is
+     * published. It may be read by any thread.
+     *
+     * @return true if the oldest slot is not published
+     */
+    public boolean isEmpty() {
+        long position = head.get();
+        return sequences.get((int) position & mask) != position + 1;
+    }
+
+    /**
+     * Release every published slot, must be called by the consumer.
+     */
+    public void clear() {
+        while (peek() != null) {
+            release();
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+
 /**
  * @author toyknight 4/3/2015.
  */
@@ -37,12 +38,22 @@ public class GameCore implements Serializable {
 
     protected boolean initialized;
 
+    //the random numbers of a game are drawn in the order the events are executed, so every peer draws the same ones
+    protected long random_seed;
+
+    protected int random_count;
+
     public GameCore(JSONObject json) throws JSONException {
         this(new Map(json.getJSONObject("map")), new Rule(json.getJSONObject("rule")), 0, json.getInt("type"));
         setCurrentTurn(json.getInt("current_turn"));
         setCurrentTeam(json.getInt("current_team"));
         setGameOver(json.getBoolean("game_over"));
         setInitialized(json.getBoolean("initialized"));
+        //games saved before the seed was added play with the seed 0
+        if (json.has("random_seed")) {
+            random_seed = json.getLong("random_seed");
+            random_count = json.getInt("random_count");
+        }
         JSONArray players = json.getJSONArray("players");
         JSONArray commanders = json.getJSONArray("commanders");
         JSONArray team_destroy = json.getJSONArray("team_destroy");
@@ -75,6 +86,8 @@ public class GameCore implements Serializable {
         game_over = game.game_over;
         statistics = new Statistics(game.statistics);
         initialized = game.initialized;
+        random_seed = game.random_seed;
+        random_count = game.random_count;
 
         for (int team = 0; team < 4; team++) {
             if (game.players[team] != null) {
@@ -98,6 +111,8 @@ public class GameCore implements Serializable {
         this.game_over = false;
         this.statistics = new Statistics();
         this.initialized = false;
+        this.random_seed = 0;
+        this.random_count = 0;
         for (Unit unit : getMap().getUnits()) {
             if (unit.isCommander()) {
                 commanders[unit.getTeam()] = unit;
@@ -614,6 +629,44 @@ public class GameCore implements Serializable {
         return new Position(-1, -1);
     }
 
+    public long getRandomSeed() {
+        return random_seed;
+    }
+
+    /**
+     * Set the seed of the random numbers, the same seed gives the same outcomes for the same events.
+     *
+     * @param random_seed the seed
+     */
+    public void setRandomSeed(long random_seed) {
+        this.random_seed = random_seed;
+        this.random_count = 0;
+    }
+
+    public int getRandomCount() {
+        return random_count;
+    }
+
+    /**
+     * Get the next random number without drawing it. The number is only drawn by {@link #drawRandom()} when the
+     * event it decides is executed.
+     *
+     * @param bound the bound of the number
+     * @return a number from 0 to bound - 1
+     */
+    public int getRandom(int bound) {
+        //split mix over the number of draws, so the state is only the seed and the count
+        long z = random_seed + (random_count + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int) ((z >>> 1) % bound);
+    }
+
+    public void drawRandom() {
+        random_count++;
+    }
+
     public void nextTurn() {
         ObjectMap.Values<Unit> units = getMap().getUnits();
         for (Unit unit : units) {
@@ -654,6 +707,8 @@ public class GameCore implements Serializable {
         json.put("game_over", isGameOver());
         json.put("statistics", getStatistics().toJson());
         json.put("initialized", initialized());
+        json.put("random_seed", getRandomSeed());
+        json.put("random_count", getRandomCount());
         return json;
     }
 
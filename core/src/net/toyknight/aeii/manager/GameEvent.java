@@ -1,13 +1,19 @@
 package net.toyknight.aeii.manager;
 
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Pool;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
+ * A game event with typed parameters. The integer parameters are kept in a fixed array, move paths and hp changes
+ * in int arrays, so executing local and robot events allocates nothing once the events are pooled. The JSON form,
+ * an object with the type and an array of parameters, is only created for the network and the records.
+ *
  * @author toyknight 4/3/2015.
  */
-public class GameEvent {
+public class GameEvent implements Pool.Poolable {
 
     public static final int STANDBY_FINISH = -1;
 
@@ -45,6 +51,210 @@ public class GameEvent {
     public static final int CAMPAIGN_HAVENS_FURY = 0x30;
     public static final int CAMPAIGN_TILE_DESTROY = 0x31;
 
+    //the most integer parameters an event has
+    public static final int MAX_VALUES = 6;
+
+    private final int[] values = new int[MAX_VALUES];
+
+    //x and y of every step
+    private final IntArray path = new IntArray();
+
+    //x, y and change of every hp change
+    private final IntArray hp_changes = new IntArray();
+
+    private int type;
+
+    private int value_count;
+
+    //received from the server, so it is not sent back
+    private boolean remote;
+
+    //the array parameter of the campaign script events
+    private JSONArray payload;
+
+    public GameEvent setType(int type) {
+        this.type = type;
+        return this;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    public GameEvent add(int value) {
+        if (value_count < MAX_VALUES) {
+            values[value_count++] = value;
+        }
+        return this;
+    }
+
+    public int getValueCount() {
+        return value_count;
+    }
+
+    public int getValue(int index) throws JSONException {
+        if (index < value_count) {
+            return values[index];
+        } else {
+            throw new JSONException("Missing parameter " + index + " of event " + type);
+        }
+    }
+
+    public GameEvent addPathStep(int x, int y) {
+        path.add(x);
+        path.add(y);
+        return this;
+    }
+
+    public IntArray getPath() {
+        return path;
+    }
+
+    public GameEvent addHpChange(int x, int y, int change) {
+        hp_changes.add(x);
+        hp_changes.add(y);
+        hp_changes.add(change);
+        return this;
+    }
+
+    public IntArray getHpChanges() {
+        return hp_changes;
+    }
+
+    public GameEvent setPayload(JSONArray payload) {
+        this.payload = payload;
+        return this;
+    }
+
+    public boolean hasPayload() {
+        return payload != null;
+    }
+
+    public JSONArray getPayload() throws JSONException {
+        if (payload == null) {
+            throw new JSONException("Missing payload of event " + type);
+        }
+        return payload;
+    }
+
+    /**
+     * Copy another event, the payload is shared.
+     *
+     * @param event the event
+     * @return this event
+     */
+    public GameEvent set(GameEvent event) {
+        reset();
+        setType(event.type);
+        System.arraycopy(event.values, 0, values, 0, event.value_count);
+        value_count = event.value_count;
+        path.addAll(event.path);
+        hp_changes.addAll(event.hp_changes);
+        payload = event.payload;
+        remote = event.remote;
+        return this;
+    }
+
+    /**
+     * Read an event in the JSON form, along with its remote flag.
+     *
+     * @param event the event
+     * @return this event
+     */
+    public GameEvent read(JSONObject event) throws JSONException {
+        reset();
+        setType(event.getInt("type"));
+        remote = event.has("remote") && event.getBoolean("remote");
+        JSONArray parameters = event.getJSONArray("parameters");
+        for (int i = 0; i < parameters.length(); i++) {
+            Object parameter = parameters.get(i);
+            if (parameter instanceof Boolean) {
+                add((Boolean) parameter ? 1 : 0);
+            } else if (parameter instanceof JSONArray) {
+                readArray((JSONArray) parameter);
+            } else {
+                add(parameters.getInt(i));
+            }
+        }
+        return this;
+    }
+
+    private void readArray(JSONArray array) throws JSONException {
+        switch (type) {
+            case MOVE:
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject step = array.getJSONObject(i);
+                    addPathStep(step.getInt("x"), step.getInt("y"));
+                }
+                break;
+            case HP_CHANGE:
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject change = array.getJSONObject(i);
+                    addHpChange(change.getInt("x"), change.getInt("y"), change.getInt("change"));
+                }
+                break;
+            default:
+                payload = array;
+        }
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject event = new JSONObject();
+        event.put("type", type);
+        JSONArray parameters = new JSONArray();
+        for (int i = 0; i < value_count; i++) {
+            //the counter flag of attacks is a boolean
+            if (type == ATTACK && i == 5) {
+                parameters.put(values[i] != 0);
+            } else {
+                parameters.put(values[i]);
+            }
+        }
+        switch (type) {
+            case MOVE:
+                JSONArray move_path = new JSONArray();
+                for (int i = 0; i < path.size; i += 2) {
+                    JSONObject step = new JSONObject();
+                    step.put("x", path.get(i));
+                    step.put("y", path.get(i + 1));
+                    move_path.put(step);
+                }
+                parameters.put(move_path);
+                break;
+            case HP_CHANGE:
+                JSONArray changes = new JSONArray();
+                for (int i = 0; i < hp_changes.size; i += 3) {
+                    JSONObject change = new JSONObject();
+                    change.put("x", hp_changes.get(i));
+                    change.put("y", hp_changes.get(i + 1));
+                    change.put("change", hp_changes.get(i + 2));
+                    changes.put(change);
+                }
+                parameters.put(changes);
+                break;
+            default:
+                if (payload != null) {
+                    parameters.put(payload);
+                }
+        }
+        event.put("parameters", parameters);
+        return event;
+    }
+
+    @Override
+    public void reset() {
+        type = 0;
+        value_count = 0;
+        path.clear();
+        hp_changes.clear();
+        payload = null;
+        remote = false;
+    }
+
     public static JSONObject create(int type, Object... params) throws JSONException {
         JSONObject event = new JSONObject();
         event.put("type", type);
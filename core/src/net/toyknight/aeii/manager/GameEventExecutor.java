@@ -1,9 +1,12 @@
 package net.toyknight.aeii.manager;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ObjectMap;
 import com.badlogic.gdx.utils.ObjectSet;
+import com.badlogic.gdx.utils.Pool;
 import net.toyknight.aeii.campaign.Message;
+import net.toyknight.aeii.concurrent.SlotQueue;
 import net.toyknight.aeii.entity.*;
 import net.toyknight.aeii.utils.Language;
 import net.toyknight.aeii.utils.TileValidator;
@@ -13,23 +16,41 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
 /**
  * @author toyknight 11/1/2015.
  */
 public class GameEventExecutor {
 
+    //marks an event that could not be read, it is rejected when its turn to execute comes
+    private static final int INVALID_EVENT = Integer.MIN_VALUE;
+
     private final GameManager manager;
 
-    private final Queue<JSONObject> event_queue;
+    public static final int QUEUE_CAPACITY = 4096;
+
+    //filled by the game and the network, taken by the thread updating the game
+    private final SlotQueue<GameEvent> event_queue;
+
+    private final Pool<GameEvent> event_pool;
+
+    private final GameEvent current_event = new GameEvent();
 
     private boolean check_event_value = false;
 
     public GameEventExecutor(GameManager manager) {
         this.manager = manager;
-        this.event_queue = new LinkedList<JSONObject>();
+        this.event_queue = new SlotQueue<GameEvent>(QUEUE_CAPACITY) {
+            @Override
+            protected GameEvent newSlot() {
+                return new GameEvent();
+            }
+        };
+        this.event_pool = new Pool<GameEvent>() {
+            @Override
+            protected GameEvent newObject() {
+                return new GameEvent();
+            }
+        };
     }
 
     public GameManager getManager() {
@@ -53,26 +74,70 @@ public class GameEventExecutor {
     }
 
     public boolean isProcessing() {
-        return event_queue.size() > 0;
+        return !event_queue.isEmpty();
+    }
+
+    /**
+     * Get a cleared event from the pool. It returns to the pool once it is submitted, so it must be obtained and
+     * submitted by the same thread.
+     *
+     * @param type the type of the event
+     * @return the event
+     */
+    public GameEvent obtainGameEvent(int type) {
+        return event_pool.obtain().setType(type);
+    }
+
+    public void submitGameEvent(GameEvent event) {
+        long position = claim();
+        event_queue.getSlot(position).set(event);
+        event_queue.publish(position);
+        event_pool.free(event);
     }
 
     public void submitGameEvent(JSONObject event) {
-        event_queue.add(event);
+        long position = claim();
+        GameEvent game_event = event_queue.getSlot(position);
+        try {
+            game_event.read(event);
+        } catch (JSONException ex) {
+            game_event.reset();
+            game_event.setType(INVALID_EVENT);
+        }
+        event_queue.publish(position);
     }
 
-    public void submitGameEvent(int type, Object... params) {
-        JSONObject event = GameEvent.create(type, params);
-        submitGameEvent(event);
+    public void submitGameEvent(int type, int... values) {
+        long position = claim();
+        GameEvent event = event_queue.getSlot(position);
+        event.reset();
+        event.setType(type);
+        for (int value : values) {
+            event.add(value);
+        }
+        event_queue.publish(position);
+    }
+
+    private long claim() {
+        long position = event_queue.claim();
+        if (position < 0) {
+            throw new IllegalStateException("Game event queue is full");
+        }
+        return position;
     }
 
     public void dispatchGameEvents() throws CheatingException {
         if (getGame().isGameOver()) {
             getManager().onGameEventFinished();
         } else {
-            if (event_queue.size() > 0) {
+            GameEvent queued_event = event_queue.peek();
+            if (queued_event != null) {
+                //released before executing, so the event may submit others
+                GameEvent event = current_event.set(queued_event);
+                queued_event.reset();
+                event_queue.release();
                 try {
-                    JSONObject event = event_queue.poll();
-                    if (event.getInt("type") >= 0x16 && getGame().getType() != GameCore.CAMPAIGN) {
+                    if (!isAllowed(event)) {
                         throw new CheatingException("Invalid game event!", getGame().getCurrentTeam());
                     } else {
                         executeGameEvent(event);
@@ -88,130 +153,134 @@ public class GameEventExecutor {
         }
     }
 
-    public void executeGameEvent(JSONObject event) throws JSONException, CheatingException {
-        switch (event.getInt("type")) {
+    //campaign script events are only allowed in campaigns
+    public boolean isAllowed(GameEvent event) {
+        return event.getType() != INVALID_EVENT
+                && (event.getType() < 0x16 || getGame().getType() == GameCore.CAMPAIGN);
+    }
+
+    public void executeGameEvent(GameEvent event) throws JSONException, CheatingException {
+        switch (event.getType()) {
             case GameEvent.STANDBY_FINISH:
-                int target_x = event.getJSONArray("parameters").getInt(0);
-                int target_y = event.getJSONArray("parameters").getInt(1);
+                int target_x = event.getValue(0);
+                int target_y = event.getValue(1);
                 getManager().fireUnitStandbyEvent(target_x, target_y);
                 getManager().fireStateChangeEvent();
                 break;
             case GameEvent.MANAGER_STATE_SYNC:
-                int manager_state = event.getJSONArray("parameters").getInt(0);
+                int manager_state = event.getValue(0);
                 getManager().syncState(manager_state, -1, -1);
                 break;
             case GameEvent.ATTACK:
-                int attacker_x = event.getJSONArray("parameters").getInt(0);
-                int attacker_y = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
-                int attack_damage = event.getJSONArray("parameters").getInt(4);
-                boolean counter = event.getJSONArray("parameters").getBoolean(5);
+                int attacker_x = event.getValue(0);
+                int attacker_y = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
+                int attack_damage = event.getValue(4);
+                boolean counter = event.getValue(5) != 0;
                 onAttack(attacker_x, attacker_y, target_x, target_y, attack_damage, counter);
                 break;
             case GameEvent.BUY:
-                int index = event.getJSONArray("parameters").getInt(0);
-                int team = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
+                int index = event.getValue(0);
+                int team = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
                 onBuy(index, team, target_x, target_y);
                 break;
             case GameEvent.NEXT_TURN:
                 onNextTurn();
                 break;
             case GameEvent.HEAL:
-                int healer_x = event.getJSONArray("parameters").getInt(0);
-                int healer_y = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
-                int heal = event.getJSONArray("parameters").getInt(4);
+                int healer_x = event.getValue(0);
+                int healer_y = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
+                int heal = event.getValue(4);
                 onHeal(healer_x, healer_y, target_x, target_y, heal);
                 break;
             case GameEvent.MOVE:
-                int unit_x = event.getJSONArray("parameters").getInt(0);
-                int unit_y = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
-                int movement_point = event.getJSONArray("parameters").getInt(4);
-                JSONArray move_path = event.getJSONArray("parameters").getJSONArray(5);
-                onMove(unit_x, unit_y, target_x, target_y, movement_point, move_path);
+                int unit_x = event.getValue(0);
+                int unit_y = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
+                int movement_point = event.getValue(4);
+                onMove(unit_x, unit_y, target_x, target_y, movement_point, event.getPath());
                 break;
             case GameEvent.OCCUPY:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
-                team = event.getJSONArray("parameters").getInt(2);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
+                team = event.getValue(2);
                 onOccupy(target_x, target_y, team);
                 break;
             case GameEvent.REPAIR:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
                 onRepair(target_x, target_y);
                 break;
             case GameEvent.REVERSE:
-                unit_x = event.getJSONArray("parameters").getInt(0);
-                unit_y = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
+                unit_x = event.getValue(0);
+                unit_y = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
                 onReverse(unit_x, unit_y, target_x, target_y);
                 break;
             case GameEvent.SELECT:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
                 onSelect(target_x, target_y);
                 break;
             case GameEvent.STANDBY:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
                 onStandby(target_x, target_y);
                 break;
             case GameEvent.SUMMON:
-                int summoner_x = event.getJSONArray("parameters").getInt(0);
-                int summoner_y = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
+                int summoner_x = event.getValue(0);
+                int summoner_y = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
                 onSummon(summoner_x, summoner_y, target_x, target_y);
                 break;
             case GameEvent.HP_CHANGE:
-                JSONArray changes = event.getJSONArray("parameters").getJSONArray(0);
-                onHpChange(changes);
+                onHpChange(event.getHpChanges());
                 break;
             case GameEvent.TILE_DESTROY:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
                 onTileDestroy(target_x, target_y);
                 break;
             case GameEvent.UNIT_DESTROY:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
-                int destroyer_team = event.getJSONArray("parameters").getInt(2);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
+                int destroyer_team = event.getValue(2);
                 onUnitDestroy(target_x, target_y, destroyer_team);
                 break;
             case GameEvent.GAIN_EXPERIENCE:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
-                int experience = event.getJSONArray("parameters").getInt(2);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
+                int experience = event.getValue(2);
                 onUnitGainExperience(target_x, target_y, experience);
                 break;
             case GameEvent.CAMPAIGN_REINFORCE:
-                team = event.getJSONArray("parameters").getInt(0);
-                int from_x = event.getJSONArray("parameters").getInt(1);
-                int from_y = event.getJSONArray("parameters").getInt(2);
-                JSONArray reinforcements = event.getJSONArray("parameters").getJSONArray(3);
+                team = event.getValue(0);
+                int from_x = event.getValue(1);
+                int from_y = event.getValue(2);
+                JSONArray reinforcements = event.getPayload();
                 onCampaignReinforce(team, from_x, from_y, reinforcements);
                 break;
             case GameEvent.CAMPAIGN_MESSAGE:
-                JSONArray messages = event.getJSONArray("parameters").getJSONArray(0);
+                JSONArray messages = event.getPayload();
                 onCampaignMessage(messages);
                 break;
             case GameEvent.CAMPAIGN_ATTACK:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
-                attack_damage = event.getJSONArray("parameters").getInt(2);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
+                attack_damage = event.getValue(2);
                 onCampaignAttack(target_x, target_y, attack_damage);
                 break;
             case GameEvent.CAMPAIGN_FOCUS:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
                 getManager().fireMapFocusEvent(target_x, target_y, true);
                 break;
             case GameEvent.CAMPAIGN_CLEAR:
@@ -224,72 +293,90 @@ public class GameEventExecutor {
                 getManager().getAnimationDispatcher().submitMessageAnimation(Language.getText("LB_STAGE_FAIL"), 1.0f);
                 break;
             case GameEvent.CAMPAIGN_CRYSTAL_STEAL:
-                int map_x = event.getJSONArray("parameters").getInt(0);
-                int map_y = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
+                int map_x = event.getValue(0);
+                int map_y = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
                 onCampaignCrystalSteal(map_x, map_y, target_x, target_y);
                 break;
             case GameEvent.CAMPAIGN_CREATE_UNIT:
-                index = event.getJSONArray("parameters").getInt(0);
-                team = event.getJSONArray("parameters").getInt(1);
-                map_x = event.getJSONArray("parameters").getInt(2);
-                map_y = event.getJSONArray("parameters").getInt(3);
+                index = event.getValue(0);
+                team = event.getValue(1);
+                map_x = event.getValue(2);
+                map_y = event.getValue(3);
                 onCampaignCreateUnit(index, team, map_x, map_y);
                 break;
             case GameEvent.CAMPAIGN_MOVE_UNIT:
-                unit_x = event.getJSONArray("parameters").getInt(0);
-                unit_y = event.getJSONArray("parameters").getInt(1);
-                target_x = event.getJSONArray("parameters").getInt(2);
-                target_y = event.getJSONArray("parameters").getInt(3);
+                unit_x = event.getValue(0);
+                unit_y = event.getValue(1);
+                target_x = event.getValue(2);
+                target_y = event.getValue(3);
                 onCampaignMoveUnit(unit_x, unit_y, target_x, target_y);
                 break;
             case GameEvent.CAMPAIGN_REMOVE_UNIT:
-                unit_x = event.getJSONArray("parameters").getInt(0);
-                unit_y = event.getJSONArray("parameters").getInt(1);
+                unit_x = event.getValue(0);
+                unit_y = event.getValue(1);
                 onCampaignRemoveUnit(unit_x, unit_y);
                 break;
             case GameEvent.CAMPAIGN_CHANGE_TEAM:
-                unit_x = event.getJSONArray("parameters").getInt(0);
-                unit_y = event.getJSONArray("parameters").getInt(1);
-                team = event.getJSONArray("parameters").getInt(2);
+                unit_x = event.getValue(0);
+                unit_y = event.getValue(1);
+                team = event.getValue(2);
                 onCampaignChangeTeam(unit_x, unit_y, team);
                 break;
             case GameEvent.CAMPAIGN_FLY_OVER:
-                index = event.getJSONArray("parameters").getInt(0);
-                team = event.getJSONArray("parameters").getInt(1);
-                int start_x = event.getJSONArray("parameters").getInt(2);
-                int start_y = event.getJSONArray("parameters").getInt(3);
-                target_x = event.getJSONArray("parameters").getInt(4);
-                target_y = event.getJSONArray("parameters").getInt(5);
+                index = event.getValue(0);
+                team = event.getValue(1);
+                int start_x = event.getValue(2);
+                int start_y = event.getValue(3);
+                target_x = event.getValue(4);
+                target_y = event.getValue(5);
                 onCampaignFlyOver(index, team, start_x, start_y, target_x, target_y);
                 break;
             case GameEvent.CAMPAIGN_CARRY_UNIT:
-                int carrier_x = event.getJSONArray("parameters").getInt(0);
-                int carrier_y = event.getJSONArray("parameters").getInt(1);
-                int target_index = event.getJSONArray("parameters").getInt(2);
-                int target_team = event.getJSONArray("parameters").getInt(3);
-                int dest_x = event.getJSONArray("parameters").getInt(4);
-                int dest_y = event.getJSONArray("parameters").getInt(5);
+                int carrier_x = event.getValue(0);
+                int carrier_y = event.getValue(1);
+                int target_index = event.getValue(2);
+                int target_team = event.getValue(3);
+                int dest_x = event.getValue(4);
+                int dest_y = event.getValue(5);
                 onCampaignCarryUnit(carrier_x, carrier_y, target_index, target_team, dest_x, dest_y);
                 break;
             case GameEvent.CAMPAIGN_SHOW_OBJECTIVES:
                 getManager().fireCampaignObjectiveRequestEvent();
                 break;
             case GameEvent.CAMPAIGN_HAVENS_FURY:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
                 onCampaignHavensFury(target_x, target_y);
                 break;
             case GameEvent.CAMPAIGN_TILE_DESTROY:
-                target_x = event.getJSONArray("parameters").getInt(0);
-                target_y = event.getJSONArray("parameters").getInt(1);
-                short destroyed_index = (short) event.getJSONArray("parameters").getInt(2);
+                target_x = event.getValue(0);
+                target_y = event.getValue(1);
+                short destroyed_index = (short) event.getValue(2);
                 onCampaignTileDestroy(target_x, target_y, destroyed_index);
                 break;
             default:
                 //do nothing
         }
+        if (isStateChanging(event.getType())) {
+            getManager().getValidationCache().invalidate();
+        }
+    }
+
+    //the events that leave the units, tiles and gold as they are
+    private boolean isStateChanging(int type) {
+        switch (type) {
+            case GameEvent.SELECT:
+            case GameEvent.STANDBY_FINISH:
+            case GameEvent.MANAGER_STATE_SYNC:
+            case GameEvent.CAMPAIGN_MESSAGE:
+            case GameEvent.CAMPAIGN_FOCUS:
+            case GameEvent.CAMPAIGN_SHOW_OBJECTIVES:
+                return false;
+            default:
+                return true;
+        }
     }
 
     private void onAttack(int attacker_x, int attacker_y, int target_x, int target_y, int attack_damage, boolean counter)
@@ -303,6 +390,7 @@ public class GameEventExecutor {
                 getAnimationDispatcher().submitUnitAttackAnimation(attacker, target_x, target_y);
             } else {
                 if (attack_damage >= 0) {
+                    getGame().drawRandom();
                     defender.changeCurrentHp(-attack_damage);
                     UnitToolkit.attachAttackStatus(attacker, defender);
                     getAnimationDispatcher().submitUnitAttackAnimation(attacker, defender, attack_damage);
@@ -321,12 +409,14 @@ public class GameEventExecutor {
         Unit defender = getGame().getMap().getUnit(target_x, target_y);
         boolean base_check = getGame().canAttack(attacker, target_x, target_y);
         if (getGame().getCurrentPlayer().getType() == Player.REMOTE && check_event_value) {
-            if (attacker != null && defender != null) {
-                int expected_damage = getManager().getUnitToolkit().getDamage(attacker, defender, false);
-                return base_check && Math.abs(attack_damage - expected_damage) <= 2;
-            } else {
-                return base_check;
+            long start_time = System.nanoTime();
+            boolean valid = base_check;
+            if (base_check && attacker != null && defender != null) {
+                //the random offset is drawn from the game, so the damage can be recomputed exactly
+                valid = attack_damage == getManager().getUnitToolkit().getDamage(attacker, defender, true);
             }
+            getManager().getValidationCache().recordValidation(System.nanoTime() - start_time);
+            return valid;
         } else {
             return base_check;
         }
@@ -350,7 +440,10 @@ public class GameEventExecutor {
 
     private boolean canBuy(int index, int team, int map_x, int map_y) {
         if (getGame().getCurrentPlayer().getType() == Player.REMOTE && check_event_value) {
-            return getManager().canBuy(index, team, map_x, map_y);
+            long start_time = System.nanoTime();
+            boolean valid = getManager().getValidationCache().canBuy(index, team, map_x, map_y);
+            getManager().getValidationCache().recordValidation(System.nanoTime() - start_time);
+            return valid;
         } else {
             return getGame().canBuy(index, team);
         }
@@ -393,15 +486,14 @@ public class GameEventExecutor {
         return getGame().canHeal(healer, target_x, target_y);
     }
 
-    private void onMove(int unit_x, int unit_y, int target_x, int target_y, int movement_point, JSONArray move_path)
-            throws JSONException, CheatingException {
+    private void onMove(int unit_x, int unit_y, int target_x, int target_y, int movement_point, IntArray move_path)
+            throws CheatingException {
         if (canMove(unit_x, unit_y, target_x, target_y)) {
             getManager().fireMapFocusEvent(target_x, target_y, false);
 
             Array<Position> path = new Array<Position>();
-            for (int i = 0; i < move_path.length(); i++) {
-                JSONObject step = move_path.getJSONObject(i);
-                path.add(getGame().getMap().getPosition(step.getInt("x"), step.getInt("y")));
+            for (int i = 0; i < move_path.size; i += 2) {
+                path.add(getGame().getMap().getPosition(move_path.get(i), move_path.get(i + 1)));
             }
 
             Unit unit = getGame().getMap().getUnit(unit_x, unit_y);
@@ -418,11 +510,13 @@ public class GameEventExecutor {
 
     private boolean canMove(int unit_x, int unit_y, int target_x, int target_y) {
         Unit unit = getGame().getMap().getUnit(unit_x, unit_y);
-        Position destination = getGame().getMap().getPosition(target_x, target_y);
         boolean base_check = unit != null && getGame().canUnitMove(unit, target_x, target_y);
         if (getGame().getCurrentPlayer().getType() == Player.REMOTE && check_event_value) {
-            ObjectSet<Position> movable_positions = getManager().getPositionGenerator().createMovablePositions(unit);
-            return base_check && movable_positions.contains(destination);
+            long start_time = System.nanoTime();
+            boolean valid = base_check
+                    && getManager().getValidationCache().isMovablePosition(unit, target_x, target_y);
+            getManager().getValidationCache().recordValidation(System.nanoTime() - start_time);
+            return valid;
         } else {
             return base_check;
         }
@@ -517,21 +611,25 @@ public class GameEventExecutor {
             }
 
             //deal with auras
-            ObjectSet<Position> aura_positions =
-                    getManager().getPositionGenerator().createPositionsWithinRange(target_x, target_y, 0, 2);
-
-            for (Position target_position : aura_positions) {
-                Unit target = getGame().getMap().getUnit(target_position);
-                if (target != null) {
-                    if (unit.hasAbility(Ability.ATTACK_AURA) && !getGame().isEnemy(unit, target)) {
-                        target.attachStatus(new Status(Status.INSPIRED, 0));
-                    }
-                    if (unit.hasAbility(Ability.SLOWING_AURA) && !target.hasAbility(Ability.SLOWING_AURA)
-                            && getGame().isEnemy(unit, target)) {
-                        target.attachStatus(new Status(Status.SLOWED, 1));
-                    }
-                    if (unit.hasAbility(Ability.REFRESH_AURA) && getGame().canClean(unit, target)) {
-                        target.clearStatus();
+            if (unit.hasAbility(Ability.ATTACK_AURA)
+                    || unit.hasAbility(Ability.SLOWING_AURA)
+                    || unit.hasAbility(Ability.REFRESH_AURA)) {
+                ObjectSet<Position> aura_positions =
+                        getManager().getPositionGenerator().createPositionsWithinRange(target_x, target_y, 0, 2);
+
+                for (Position target_position : aura_positions) {
+                    Unit target = getGame().getMap().getUnit(target_position);
+                    if (target != null) {
+                        if (unit.hasAbility(Ability.ATTACK_AURA) && !getGame().isEnemy(unit, target)) {
+                            target.attachStatus(new Status(Status.INSPIRED, 0));
+                        }
+                        if (unit.hasAbility(Ability.SLOWING_AURA) && !target.hasAbility(Ability.SLOWING_AURA)
+                                && getGame().isEnemy(unit, target)) {
+                            target.attachStatus(new Status(Status.SLOWED, 1));
+                        }
+                        if (unit.hasAbility(Ability.REFRESH_AURA) && getGame().canClean(unit, target)) {
+                            target.clearStatus();
+                        }
                     }
                 }
             }
@@ -778,19 +876,16 @@ public class GameEventExecutor {
         }
     }
 
-    private void onHpChange(JSONArray changes) throws JSONException {
-        if (changes.length() > 0) {
+    private void onHpChange(IntArray changes) {
+        if (changes.size > 0) {
             ObjectMap<Position, Integer> change_map = new ObjectMap<Position, Integer>();
             ObjectSet<Unit> units = new ObjectSet<Unit>();
-            for (int i = 0; i < changes.length(); i++) {
-                JSONObject change = changes.getJSONObject(i);
-                int x = change.getInt("x");
-                int y = change.getInt("y");
-                Position position = getGame().getMap().getPosition(x, y);
+            for (int i = 0; i < changes.size; i += 3) {
+                Position position = getGame().getMap().getPosition(changes.get(i), changes.get(i + 1));
                 Unit target = getGame().getMap().getUnit(position);
                 if (target != null) {
-                    target.changeCurrentHp(change.getInt("change"));
-                    change_map.put(position, change.getInt("change"));
+                    target.changeCurrentHp(changes.get(i + 2));
+                    change_map.put(position, changes.get(i + 2));
                     units.add(target);
                 }
             }
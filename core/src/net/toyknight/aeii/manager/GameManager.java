@@ -13,7 +13,6 @@ import net.toyknight.aeii.record.GameRecorder;
 import net.toyknight.aeii.robot.Robot;
 import net.toyknight.aeii.utils.UnitFactory;
 import net.toyknight.aeii.utils.UnitToolkit;
-import org.json.JSONObject;
 
 import java.util.LinkedList;
 
@@ -32,6 +31,9 @@ public class GameManager implements AnimationListener {
     public static final int STATE_PREVIEW = 0x8;
     public static final int STATE_BUY = 0x9;
 
+    //the time a frame may spend executing events and operations that play no animation
+    public static final long DEFAULT_FRAME_BUDGET = 4000000L;
+
     private final GameContext context;
     private final GameRecorder game_recorder;
     private final GameEventExecutor event_executor;
@@ -40,6 +42,8 @@ public class GameManager implements AnimationListener {
 
     private final PositionGenerator position_generator;
 
+    private final ValidationCache validation_cache;
+
     private final Robot robot;
 
     private GameCore game;
@@ -56,6 +60,12 @@ public class GameManager implements AnimationListener {
 
     private final LinkedList<Message> campaign_messages;
 
+    private long frame_budget = DEFAULT_FRAME_BUDGET;
+
+    private int frame_event_count;
+
+    private int max_frame_event_count;
+
     public GameManager() {
         this(null, new EmptyAnimationManager());
     }
@@ -66,6 +76,7 @@ public class GameManager implements AnimationListener {
         this.animation_dispatcher.setListener(this);
         this.game_recorder = new GameRecorder(context);
         this.position_generator = new PositionGenerator(this);
+        this.validation_cache = new ValidationCache(this);
         this.operation_executor = new OperationExecutor(this);
         this.event_executor = new GameEventExecutor(this);
 
@@ -85,6 +96,9 @@ public class GameManager implements AnimationListener {
         getOperationExecutor().reset();
         getAnimationDispatcher().reset();
         getPositionGenerator().reset();
+        getValidationCache().invalidate();
+        this.frame_event_count = 0;
+        this.max_frame_event_count = 0;
 
         getRobot().initialize();
         getGameRecorder().prepare(getGame());
@@ -119,6 +133,10 @@ public class GameManager implements AnimationListener {
         return position_generator;
     }
 
+    public ValidationCache getValidationCache() {
+        return validation_cache;
+    }
+
     public UnitToolkit getUnitToolkit() {
         return unit_toolkit;
     }
@@ -166,9 +184,15 @@ public class GameManager implements AnimationListener {
         }
     }
 
-    public void onGameEventExecuted(JSONObject event) {
-        if (NetworkManager.isConnected()) {
-            NetworkManager.submitGameEvent(event);
+    /**
+     * The event is reused by the executor for the next one, so it is only read here. It is encoded for the network
+     * unless it was received from the server, and written by the recorder before returning.
+     *
+     * @param event the executed event
+     */
+    public void onGameEventExecuted(GameEvent event) {
+        if (NetworkManager.isConnected() && !event.isRemote()) {
+            NetworkManager.submitGameEvent(event.toJson());
         }
         getGameRecorder().submitGameEvent(event);
     }
@@ -220,13 +244,10 @@ public class GameManager implements AnimationListener {
     public void update(float delta) throws CheatingException {
         if (campaign_messages.isEmpty()) {
             if (getAnimationDispatcher().isAnimating()) {
+                frame_event_count = 0;
                 getAnimationDispatcher().updateAnimation(delta);
             } else {
-                if (getGameEventExecutor().isProcessing()) {
-                    getGameEventExecutor().dispatchGameEvents();
-                } else {
-                    getOperationExecutor().operate();
-                }
+                dispatch();
             }
         }
         if (canRobotCalculate()) {
@@ -234,6 +255,46 @@ public class GameManager implements AnimationListener {
         }
     }
 
+    //executes events and operations until one of them plays an animation or the frame budget runs out
+    private void dispatch() throws CheatingException {
+        long start_time = System.nanoTime();
+        frame_event_count = 0;
+        while (isProcessing()) {
+            if (getGameEventExecutor().isProcessing()) {
+                getGameEventExecutor().dispatchGameEvents();
+            } else {
+                getOperationExecutor().operate();
+            }
+            frame_event_count++;
+            if (isAnimating()
+                    || !campaign_messages.isEmpty()
+                    || getGame().isGameOver()
+                    || System.nanoTime() - start_time >= frame_budget) {
+                break;
+            }
+        }
+        max_frame_event_count = Math.max(max_frame_event_count, frame_event_count);
+    }
+
+    public void setFrameBudget(long frame_budget) {
+        this.frame_budget = frame_budget;
+    }
+
+    public long getFrameBudget() {
+        return frame_budget;
+    }
+
+    /**
+     * @return the number of events and operations executed in the last frame
+     */
+    public int getFrameEventCount() {
+        return frame_event_count;
+    }
+
+    public int getMaxFrameEventCount() {
+        return max_frame_event_count;
+    }
+
     private boolean canRobotCalculate() {
         return !isAnimating() &&
                 !isProcessing() &&
@@ -486,9 +547,7 @@ public class GameManager implements AnimationListener {
                 sample.setX(map_x);
                 sample.setY(map_y);
                 getGame().resetUnit(sample);
-                getPositionGenerator().reset();
-                ObjectSet<Position> movable_positions = getPositionGenerator().createMovablePositions(sample);
-                return movable_positions.size > 0 && getGame().canBuy(index, team);
+                return getGame().canBuy(index, team) && getPositionGenerator().hasMovablePosition(sample);
             } else {
                 return false;
             }
@@ -23,19 +23,67 @@ public class Operation {
     public static final int NEXT_TURN = 0x15;
     public static final int TURN_STARTED = 0x16;
 
-    private final int type;
+    public static final int MAX_PARAMETERS = 4;
 
-    private final int[] parameters;
+    private final int[] parameters = new int[MAX_PARAMETERS];
+
+    private int type;
+
+    private int parameter_count;
+
+    public Operation() {
+    }
 
     public Operation(int type, int... parameters) {
+        set(type, parameters);
+    }
+
+    public Operation set(int type, int... parameters) {
         this.type = type;
-        this.parameters = parameters;
+        System.arraycopy(parameters, 0, this.parameters, 0, parameters.length);
+        this.parameter_count = parameters.length;
+        return this;
+    }
+
+    public Operation set(int type) {
+        this.type = type;
+        this.parameter_count = 0;
+        return this;
+    }
+
+    public Operation set(int type, int p0, int p1) {
+        this.type = type;
+        this.parameters[0] = p0;
+        this.parameters[1] = p1;
+        this.parameter_count = 2;
+        return this;
+    }
+
+    public Operation set(int type, int p0, int p1, int p2, int p3) {
+        this.type = type;
+        this.parameters[0] = p0;
+        this.parameters[1] = p1;
+        this.parameters[2] = p2;
+        this.parameters[3] = p3;
+        this.parameter_count = 4;
+        return this;
+    }
+
+    public Operation set(Operation operation) {
+        this.type = operation.type;
+        System.arraycopy(operation.parameters, 0, parameters, 0, operation.parameter_count);
+        this.parameter_count = operation.parameter_count;
+        return this;
     }
 
     public int getType() {
         return type;
     }
 
+    public int getParameterCount() {
+        return parameter_count;
+    }
+
     public int getParameter(int index) {
         return parameters[index];
     }
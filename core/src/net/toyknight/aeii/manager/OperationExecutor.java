@@ -3,28 +3,32 @@ package net.toyknight.aeii.manager;
 import static net.toyknight.aeii.entity.Rule.Entry.*;
 
 import com.badlogic.gdx.utils.ObjectSet;
+import net.toyknight.aeii.concurrent.SlotQueue;
 import net.toyknight.aeii.entity.*;
 import net.toyknight.aeii.utils.UnitToolkit;
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.util.LinkedList;
-import java.util.Queue;
 
 /**
  * @author toyknight 1/28/2016.
  */
 public class OperationExecutor {
 
-    private final Object OPERATION_LOCK = new Object();
+    public static final int QUEUE_CAPACITY = 256;
 
     private final GameManager manager;
 
-    private final Queue<Operation> operation_queue;
+    //filled by the robot and the input, taken by the thread updating the game
+    private final SlotQueue<Operation> operation_queue;
+
+    private final Operation current_operation = new Operation();
 
     public OperationExecutor(GameManager manager) {
         this.manager = manager;
-        this.operation_queue = new LinkedList<Operation>();
+        this.operation_queue = new SlotQueue<Operation>(QUEUE_CAPACITY) {
+            @Override
+            protected Operation newSlot() {
+                return new Operation();
+            }
+        };
     }
 
     public GameCore getGame() {
@@ -36,38 +40,68 @@ public class OperationExecutor {
     }
 
     public void reset() {
-        synchronized (OPERATION_LOCK) {
-            operation_queue.clear();
-        }
+        operation_queue.clear();
     }
 
     public void operate() throws CheatingException {
-        synchronized (OPERATION_LOCK) {
-            if (operation_queue.size() > 0) {
-                Operation operation;
-                if ((operation = operation_queue.poll()) != null) {
-                    executeOperation(operation);
-                }
-                if (operation_queue.size() == 0) {
-                    getManager().onOperationFinished();
-                }
+        Operation operation = operation_queue.peek();
+        if (operation != null) {
+            //released before executing, so the operation may submit others
+            current_operation.set(operation);
+            operation_queue.release();
+            executeOperation(current_operation);
+            if (operation_queue.isEmpty()) {
+                getManager().onOperationFinished();
             }
         }
     }
 
     public boolean isOperating() {
-        return operation_queue.size() > 0;
+        return !operation_queue.isEmpty();
+    }
+
+    public void submitOperation(int type) {
+        long position = claim();
+        operation_queue.getSlot(position).set(type);
+        operation_queue.publish(position);
+    }
+
+    public void submitOperation(int type, int p0, int p1) {
+        long position = claim();
+        operation_queue.getSlot(position).set(type, p0, p1);
+        operation_queue.publish(position);
+    }
+
+    public void submitOperation(int type, int p0, int p1, int p2, int p3) {
+        long position = claim();
+        operation_queue.getSlot(position).set(type, p0, p1, p2, p3);
+        operation_queue.publish(position);
     }
 
     public void submitOperation(int type, int... parameters) {
-        synchronized (OPERATION_LOCK) {
-            Operation operation = new Operation(type, parameters);
-            operation_queue.add(operation);
+        long position = claim();
+        operation_queue.getSlot(position).set(type, parameters);
+        operation_queue.publish(position);
+    }
+
+    private long claim() {
+        long position = operation_queue.claim();
+        if (position < 0) {
+            throw new IllegalStateException("Operation queue is full");
         }
+        return position;
+    }
+
+    private void submitGameEvent(int type, int... values) {
+        getManager().getGameEventExecutor().submitGameEvent(type, values);
+    }
+
+    private void submitGameEvent(GameEvent event) {
+        getManager().getGameEventExecutor().submitGameEvent(event);
     }
 
-    private void submitGameEvent(int type, Object... params) {
-        getManager().getGameEventExecutor().submitGameEvent(type, params);
+    private GameEvent obtainGameEvent(int type) {
+        return getManager().getGameEventExecutor().obtainGameEvent(type);
     }
 
     private void executeOperation(Operation operation) throws CheatingException {
@@ -199,15 +233,16 @@ public class OperationExecutor {
         Unit defender = getGame().getMap().getUnit(target_x, target_y);
         if (getGame().canAttack(attacker, target_x, target_y)) {
             if (defender == null) {
-                submitGameEvent(GameEvent.ATTACK, attacker_x, attacker_y, target_x, target_y, -1, false);
+                submitGameEvent(GameEvent.ATTACK, attacker_x, attacker_y, target_x, target_y, -1, 0);
                 submitGameEvent(GameEvent.TILE_DESTROY, target_x, target_y);
                 submitGameEvent(
                         GameEvent.GAIN_EXPERIENCE,
                         attacker_x, attacker_y,
                         getGame().getRule().getInteger(ATTACK_EXPERIENCE));
             } else {
+                //the random offset is the next number of the game, drawn by every peer executing the attack
                 int attack_damage = getManager().getUnitToolkit().getDamage(attacker, defender, true);
-                submitGameEvent(GameEvent.ATTACK, attacker_x, attacker_y, target_x, target_y, attack_damage, false);
+                submitGameEvent(GameEvent.ATTACK, attacker_x, attacker_y, target_x, target_y, attack_damage, 0);
                 if (attack_damage < defender.getCurrentHp()) {
                     submitGameEvent(
                             GameEvent.GAIN_EXPERIENCE,
@@ -233,7 +268,7 @@ public class OperationExecutor {
         Unit defender = getGame().getMap().getUnit(target_x, target_y);
         if (getGame().canCounter(attacker, defender)) {
             int counter_damage = getManager().getUnitToolkit().getDamage(defender, attacker, true);
-            submitGameEvent(GameEvent.ATTACK, target_x, target_y, attacker_x, attacker_y, counter_damage, true);
+            submitGameEvent(GameEvent.ATTACK, target_x, target_y, attacker_x, attacker_y, counter_damage, 1);
             if (counter_damage < attacker.getCurrentHp()) {
                 submitGameEvent(
                         GameEvent.GAIN_EXPERIENCE,
@@ -255,7 +290,7 @@ public class OperationExecutor {
         //calculate hp change at turn start
         int next_team = getGame().getNextTeam();
 
-        JSONArray hp_changes = new JSONArray();
+        GameEvent hp_changes = obtainGameEvent(GameEvent.HP_CHANGE);
         ObjectSet<Unit> destroyed_units = new ObjectSet<Unit>();
 
         for (Unit unit : getGame().getMap().getUnits()) {
@@ -288,17 +323,13 @@ public class OperationExecutor {
                 }
             }
             if (change != 0) {
-                JSONObject hp_change = new JSONObject();
-                hp_change.put("x", unit.getX());
-                hp_change.put("y", unit.getY());
-                hp_change.put("change", change);
-                hp_changes.put(hp_change);
+                hp_changes.addHpChange(unit.getX(), unit.getY(), change);
                 if (unit.getCurrentHp() + change <= 0) {
                     destroyed_units.add(unit);
                 }
             }
         }
-        submitGameEvent(GameEvent.HP_CHANGE, hp_changes);
+        submitGameEvent(hp_changes);
         for (Unit unit : destroyed_units) {
             submitGameEvent(GameEvent.UNIT_DESTROY, unit.getX(), unit.getY(), -1);
         }
@@ -329,14 +360,12 @@ public class OperationExecutor {
         int movement_point = getManager().getPositionGenerator().getMovementPointRemains(unit, target_x, target_y);
 
         if (getGame().canUnitMove(unit, target_x, target_y) && movement_point >= 0) {
-            JSONArray move_path = new JSONArray();
+            GameEvent event = obtainGameEvent(GameEvent.MOVE)
+                    .add(unit_x).add(unit_y).add(target_x).add(target_y).add(movement_point);
             for (Position position : getManager().getPositionGenerator().createMovePath(unit, target_x, target_y)) {
-                JSONObject step = new JSONObject();
-                step.put("x", position.x);
-                step.put("y", position.y);
-                move_path.put(step);
+                event.addPathStep(position.x, position.y);
             }
-            submitGameEvent(GameEvent.MOVE, unit_x, unit_y, target_x, target_y, movement_point, move_path);
+            submitGameEvent(event);
         }
     }
 
@@ -424,16 +453,12 @@ public class OperationExecutor {
             ObjectSet<Position> aura_positions =
                     getManager().getPositionGenerator().createPositionsWithinRange(unit_x, unit_y, 0, 2);
 
-            JSONArray hp_changes = new JSONArray();
+            GameEvent hp_changes = obtainGameEvent(GameEvent.HP_CHANGE);
             ObjectSet<Unit> destroyed_units = new ObjectSet<Unit>();
 
             if (unit.getCurrentHp() > unit.getMaxHp()) {
                 int change = unit.getMaxHp() - unit.getCurrentHp();
-                JSONObject hp_change = new JSONObject();
-                hp_change.put("x", unit.getX());
-                hp_change.put("y", unit.getY());
-                hp_change.put("change", change);
-                hp_changes.put(hp_change);
+                hp_changes.addHpChange(unit.getX(), unit.getY(), change);
             }
 
             for (Position target_position : aura_positions) {
@@ -442,18 +467,14 @@ public class OperationExecutor {
                     int heal = UnitToolkit.getRefresherHeal(unit, target);
                     int change = UnitToolkit.validateHpChange(target, heal);
                     if (change != 0) {
-                        JSONObject hp_change = new JSONObject();
-                        hp_change.put("x", target.getX());
-                        hp_change.put("y", target.getY());
-                        hp_change.put("change", change);
-                        hp_changes.put(hp_change);
+                        hp_changes.addHpChange(target.getX(), target.getY(), change);
                         if (target.getCurrentHp() + change <= 0) {
                             destroyed_units.add(target);
                         }
                     }
                 }
             }
-            submitGameEvent(GameEvent.HP_CHANGE, hp_changes);
+            submitGameEvent(hp_changes);
             for (Unit destroyed_unit : destroyed_units) {
                 submitGameEvent(GameEvent.UNIT_DESTROY, destroyed_unit.getX(), destroyed_unit.getY(), unit.getTeam());
             }
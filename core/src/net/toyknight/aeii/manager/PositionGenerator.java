@@ -1,11 +1,13 @@
 package net.toyknight.aeii.manager;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ObjectSet;
 import net.toyknight.aeii.entity.*;
 import net.toyknight.aeii.utils.UnitFactory;
 import net.toyknight.aeii.utils.UnitToolkit;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -26,6 +28,13 @@ public class PositionGenerator {
 
     private int[][] move_mark_map;
 
+    //used by the searches, so the movable positions created before are kept
+    private int[][] search_mark_map;
+
+    private IntArray current_search_steps = new IntArray();
+
+    private IntArray next_search_steps = new IntArray();
+
     public PositionGenerator(GameManager manager) {
         this.manager = manager;
         this.move_path = new Array<Position>();
@@ -115,6 +124,79 @@ public class PositionGenerator {
         }
     }
 
+    /**
+     * Check whether a position is one of the movable positions of a unit. The positions are visited in the same
+     * order as they are when the movable positions are created, but the search stops as soon as the position is
+     * visited.
+     *
+     * @param unit   the unit
+     * @param dest_x the x of the position, or -1 for any position
+     * @param dest_y the y of the position, or -1 for any position
+     * @return whether the unit can move to the position
+     */
+    public boolean isMovablePosition(Unit unit, int dest_x, int dest_y) {
+        if (unit == null) {
+            return false;
+        }
+        initializeSearchMarkMap();
+        current_search_steps.clear();
+        current_search_steps.addAll(unit.getX(), unit.getY(), unit.getCurrentMovementPoint());
+        while (current_search_steps.size > 0) {
+            next_search_steps.clear();
+            for (int i = 0; i < current_search_steps.size; i += 3) {
+                int step_x = current_search_steps.get(i);
+                int step_y = current_search_steps.get(i + 1);
+                int current_movement_point = current_search_steps.get(i + 2);
+                if (current_movement_point > search_mark_map[step_x][step_y]) {
+                    search_mark_map[step_x][step_y] = current_movement_point;
+                    if (dest_x < 0) {
+                        if (getGame().canUnitMove(unit, step_x, step_y)) {
+                            return true;
+                        }
+                    } else if (step_x == dest_x && step_y == dest_y) {
+                        //only the first visit of a position decides whether it is movable
+                        return getGame().canUnitMove(unit, step_x, step_y);
+                    }
+                }
+                for (int j = 0; j < 4; j++) {
+                    int next_x = step_x + x_dir[j];
+                    int next_y = step_y + y_dir[j];
+                    if (getGame().getMap().isWithinMap(next_x, next_y)) {
+                        Tile next_tile = getGame().getMap().getTile(next_x, next_y);
+                        int movement_point_cost = UnitToolkit.getMovementPointCost(unit, next_tile);
+                        int movement_point_left = current_movement_point - movement_point_cost;
+                        if (movement_point_cost <= current_movement_point
+                                && movement_point_left > search_mark_map[next_x][next_y]) {
+                            Unit target_unit = getGame().getMap().getUnit(next_x, next_y);
+                            if (getGame().canMoveThrough(unit, target_unit)) {
+                                next_search_steps.addAll(next_x, next_y, movement_point_left);
+                            }
+                        }
+                    }
+                }
+            }
+            IntArray steps = current_search_steps;
+            current_search_steps = next_search_steps;
+            next_search_steps = steps;
+        }
+        return false;
+    }
+
+    public boolean hasMovablePosition(Unit unit) {
+        return isMovablePosition(unit, -1, -1);
+    }
+
+    private void initializeSearchMarkMap() {
+        int width = getGame().getMap().getWidth();
+        int height = getGame().getMap().getHeight();
+        if (search_mark_map == null || search_mark_map.length != width || search_mark_map[0].length != height) {
+            search_mark_map = new int[width][height];
+        }
+        for (int x = 0; x < width; x++) {
+            Arrays.fill(search_mark_map[x], Integer.MIN_VALUE);
+        }
+    }
+
     public Array<Position> createMovePath(Unit unit, int dest_x, int dest_y) {
         checkIdentity(unit);
         move_path.clear();
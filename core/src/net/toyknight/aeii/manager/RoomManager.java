@@ -39,6 +39,10 @@ public class RoomManager {
         this.started = setting.started;
         this.host = setting.host;
         this.game = setting.game;
+        //no number is drawn before the game starts, so the seed of the room is taken as it is
+        if (!setting.started) {
+            game.setRandomSeed(setting.random_seed);
+        }
         this.players = setting.players;
         this.allocation = setting.allocation;
         this.start_gold = setting.start_gold;
@@ -201,6 +205,22 @@ public class RoomManager {
         this.host = host;
     }
 
+    public void onPlayerResume(int previous_id, int id) {
+        for (PlayerSnapshot player : getPlayers()) {
+            if (player.id == previous_id) {
+                player.id = id;
+            }
+        }
+        for (int team = 0; team < 4; team++) {
+            if (allocation[team] == previous_id) {
+                allocation[team] = id;
+            }
+        }
+        if (host == previous_id) {
+            host = id;
+        }
+    }
+
     public void onAllocationUpdate(int[] alliance, int[] allocation, int[] types) {
         System.arraycopy(allocation, 0, this.allocation, 0, allocation.length);
         if (!isStarted()) {
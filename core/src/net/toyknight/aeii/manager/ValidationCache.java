@@ -0,0 +1,118 @@
+package net.toyknight.aeii.manager;
+
+import com.badlogic.gdx.utils.IntIntMap;
+import net.toyknight.aeii.entity.Unit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoises the results of validating remote events against the current state of the game. The results are kept
+ * until the state changes, when the event executor invalidates them, so a burst of events validated against the
+ * same state is answered by lookups. The counters may be read from other threads for the metrics.
+ *
+ * @author agent 10/19/2026.
+ */
+public class ValidationCache {
+
+    private static final int UNKNOWN = -1;
+
+    private final GameManager manager;
+
+    private final AtomicLong validation_count = new AtomicLong();
+
+    private final AtomicLong hit_count = new AtomicLong();
+
+    private final AtomicLong validation_time = new AtomicLong();
+
+    //the unit the movable positions are memoised for
+    private Unit movable_unit;
+
+    private int movable_unit_x;
+
+    private int movable_unit_y;
+
+    private int movable_unit_movement_point;
+
+    private final IntIntMap movable_positions = new IntIntMap();
+
+    private final IntIntMap buyable_positions = new IntIntMap();
+
+    public ValidationCache(GameManager manager) {
+        this.manager = manager;
+    }
+
+    public GameManager getManager() {
+        return manager;
+    }
+
+    public void invalidate() {
+        movable_unit = null;
+        movable_positions.clear();
+        buyable_positions.clear();
+    }
+
+    public boolean isMovablePosition(Unit unit, int dest_x, int dest_y) {
+        if (unit == null || !getManager().getGame().getMap().isWithinMap(dest_x, dest_y)) {
+            return false;
+        }
+        if (movable_unit != unit
+                || movable_unit_x != unit.getX()
+                || movable_unit_y != unit.getY()
+                || movable_unit_movement_point != unit.getCurrentMovementPoint()) {
+            movable_unit = unit;
+            movable_unit_x = unit.getX();
+            movable_unit_y = unit.getY();
+            movable_unit_movement_point = unit.getCurrentMovementPoint();
+            movable_positions.clear();
+        }
+        int key = getKey(dest_x, dest_y);
+        int result = movable_positions.get(key, UNKNOWN);
+        if (result == UNKNOWN) {
+            boolean movable = getManager().getPositionGenerator().isMovablePosition(unit, dest_x, dest_y);
+            movable_positions.put(key, movable ? 1 : 0);
+            return movable;
+        } else {
+            hit_count.incrementAndGet();
+            return result == 1;
+        }
+    }
+
+    public boolean canBuy(int index, int team, int map_x, int map_y) {
+        if (!getManager().getGame().getMap().isWithinMap(map_x, map_y)) {
+            return false;
+        }
+        int map_size = getManager().getGame().getMap().getWidth() * getManager().getGame().getMap().getHeight();
+        int key = (index * 4 + team) * map_size + getKey(map_x, map_y);
+        int result = buyable_positions.get(key, UNKNOWN);
+        if (result == UNKNOWN) {
+            boolean buyable = getManager().canBuy(index, team, map_x, map_y);
+            buyable_positions.put(key, buyable ? 1 : 0);
+            return buyable;
+        } else {
+            hit_count.incrementAndGet();
+            return result == 1;
+        }
+    }
+
+    private int getKey(int map_x, int map_y) {
+        return map_x * getManager().getGame().getMap().getHeight() + map_y;
+    }
+
+    public void recordValidation(long nanos) {
+        validation_count.incrementAndGet();
+        validation_time.addAndGet(nanos);
+    }
+
+    public long getValidationCount() {
+        return validation_count.get();
+    }
+
+    public long getHitCount() {
+        return hit_count.get();
+    }
+
+    public long getValidationTime() {
+        return validation_time.get();
+    }
+
+}
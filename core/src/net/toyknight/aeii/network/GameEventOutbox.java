@@ -0,0 +1,169 @@
+package net.toyknight.aeii.network;
+
+import com.badlogic.gdx.utils.Array;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The game events submitted by this client and not acknowledged by the server yet. Every event is numbered when it
+ * is submitted, the numbers start over for every room. The events are sent in batches cut at the end of each
+ * chain of events, so that a turn ending is never separated from the events it causes. A batch stays here until
+ * the server acknowledges it so that it can be sent again after a reconnection. The server drops the events it
+ * has already accepted.
+ *
+ * @author agent 10/19/2026.
+ */
+public class GameEventOutbox {
+
+    private final Object OUTBOX_LOCK = new Object();
+
+    //the events sent and not acknowledged, then the ones not sent yet, in the order of their sequence numbers
+    private final Array<JSONObject> events = new Array<JSONObject>();
+
+    //the number of events kept that belong to a finished chain
+    private int sealed_count;
+
+    //the sequence number of the first event kept
+    private long first_sequence = 1;
+
+    //the number of events kept that have been sent
+    private int sent_count;
+
+    public void reset() {
+        synchronized (OUTBOX_LOCK) {
+            events.clear();
+            first_sequence = 1;
+            sent_count = 0;
+            sealed_count = 0;
+        }
+    }
+
+    public void submit(JSONObject event) {
+        synchronized (OUTBOX_LOCK) {
+            events.add(event);
+        }
+    }
+
+    /**
+     * Close the chain of the events submitted so far, the events are only sent once their chain is closed.
+     */
+    public void seal() {
+        synchronized (OUTBOX_LOCK) {
+            sealed_count = events.size;
+        }
+    }
+
+    /**
+     * @return the number of events submitted since the last chain was closed
+     */
+    public int getUnsealedCount() {
+        synchronized (OUTBOX_LOCK) {
+            return events.size - sealed_count;
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (OUTBOX_LOCK) {
+            return sealed_count - sent_count;
+        }
+    }
+
+    public int getUnacknowledgedCount() {
+        synchronized (OUTBOX_LOCK) {
+            return events.size;
+        }
+    }
+
+    /**
+     * Take the events of the closed chains not sent yet.
+     *
+     * @return the notification carrying the events, or null if there is nothing to send
+     */
+    public JSONObject createBatch() throws JSONException {
+        synchronized (OUTBOX_LOCK) {
+            if (sealed_count > sent_count) {
+                JSONObject batch = createBatch(sent_count, sealed_count);
+                sent_count = sealed_count;
+                return batch;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Take every event of the closed chains not acknowledged yet, the ones sent before included.
+     *
+     * @return the notification carrying the events, or null if there is nothing to send
+     */
+    public JSONObject createRetransmission() throws JSONException {
+        synchronized (OUTBOX_LOCK) {
+            if (sealed_count > 0) {
+                JSONObject batch = createBatch(0, sealed_count);
+                sent_count = sealed_count;
+                return batch;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    private JSONObject createBatch(int start, int end) throws JSONException {
+        JSONArray batch_events = new JSONArray();
+        for (int i = start; i < end; i++) {
+            batch_events.put(events.get(i));
+        }
+        JSONObject batch = new JSONObject();
+        batch.put("type", NetworkConstants.NOTIFICATION);
+        batch.put("operation", NetworkConstants.GAME_EVENT);
+        batch.put("first_sequence", first_sequence + start);
+        batch.put("events", batch_events);
+        return batch;
+    }
+
+    /**
+     * Drop the events the server has accepted.
+     *
+     * @param sequence the sequence number of the last event accepted
+     */
+    public void acknowledge(long sequence) {
+        synchronized (OUTBOX_LOCK) {
+            int count = (int) Math.min(events.size, Math.max(0, sequence - first_sequence + 1));
+            if (count > 0) {
+                events.removeRange(0, count - 1);
+                first_sequence += count;
+                sent_count = Math.max(0, sent_count - count);
+                sealed_count = Math.max(0, sealed_count - count);
+            }
+        }
+    }
+
+    /**
+     * Drop the events kept, the numbering goes on.
+     */
+    public void clear() {
+        synchronized (OUTBOX_LOCK) {
+            first_sequence += events.size;
+            events.clear();
+            sent_count = 0;
+            sealed_count = 0;
+        }
+    }
+
+    /**
+     * Drop the events the server has not accepted after a reconnection, they are not going to be accepted any more.
+     * The events submitted afterwards are numbered following the last one accepted.
+     *
+     * @param sequence the sequence number of the last event accepted
+     */
+    public void restart(long sequence) {
+        synchronized (OUTBOX_LOCK) {
+            events.clear();
+            first_sequence = sequence + 1;
+            sent_count = 0;
+            sealed_count = 0;
+        }
+    }
+
+}
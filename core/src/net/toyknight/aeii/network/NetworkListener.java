@@ -17,8 +17,15 @@ public interface NetworkListener {
 
     void onGameStart();
 
+    /**
+     * Called on the network thread without the render lock, the event may only be queued.
+     *
+     * @param event the received event
+     */
     void onReceiveGameEvent(JSONObject event);
 
     void onReceiveMessage(String username, String message);
 
+    void onRoomListUpdate();
+
 }
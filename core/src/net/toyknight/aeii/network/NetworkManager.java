@@ -2,6 +2,8 @@ package net.toyknight.aeii.network;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.ObjectMap;
 import com.esotericsoftware.kryonet.Client;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
@@ -12,13 +14,18 @@ import net.toyknight.aeii.entity.Map;
 import net.toyknight.aeii.manager.GameEvent;
 import net.toyknight.aeii.network.entity.MapSnapshot;
 import net.toyknight.aeii.network.entity.PlayerSnapshot;
+import net.toyknight.aeii.network.entity.ResumeSetting;
 import net.toyknight.aeii.network.entity.RoomSetting;
 import net.toyknight.aeii.network.entity.RoomSnapshot;
+import net.toyknight.aeii.utils.MapFactory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.*;
+import java.util.Comparator;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * @author toyknight 8/25/2015.
@@ -27,18 +34,54 @@ public class NetworkManager {
 
     public static final String TAG = "Network";
 
+    private static final int RESUME_ATTEMPTS = 10;
+
+    private static final long RESUME_RETRY_DELAY = 3000;
+
+    public static final long REQUEST_TIMEOUT = 10000;
+
     private static NetworkListener listener;
 
     private static Client client;
 
-    private static final Object RESPONSE_LOCK = new Object();
+    private static final Object PENDING_LOCK = new Object();
 
-    private static JSONObject response;
+    private static final IntMap<PendingRequest> pending_requests = new IntMap<PendingRequest>();
 
-    private static JSONArray event_queue;
+    private static int request_count;
+
+    private static Timer request_timer;
+
+    private static final GameEventOutbox event_outbox = new GameEventOutbox();
 
     private static int service_id;
 
+    private static PacketChannel channel;
+
+    private static final Object SESSION_LOCK = new Object();
+
+    private static ServerConfiguration server;
+
+    private static String username;
+
+    private static String v_string;
+
+    private static String session_token;
+
+    private static long room_id = -1;
+
+    private static long event_sequence;
+
+    private static boolean resuming;
+
+    private static final Array<JSONObject> deferred_events = new Array<JSONObject>();
+
+    private static final Object ROOM_LIST_LOCK = new Object();
+
+    private static final ObjectMap<Long, RoomSnapshot> room_list = new ObjectMap<Long, RoomSnapshot>();
+
+    private static long room_list_version = -1;
+
     private NetworkManager() {
     }
 
@@ -56,10 +99,20 @@ public class NetworkManager {
 
     public static boolean connect(ServerConfiguration server, String username, String v_string)
             throws AEIIException, IOException, JSONException {
-        client = new Client(90 * 1024, 90 * 1024);
+        client = new Client(PacketChannel.BUFFER_SIZE, PacketChannel.BUFFER_SIZE);
+        PacketCodec.register(client.getKryo());
+        channel = new PacketChannel(client);
+        session_token = null;
+        NetworkManager.server = server;
+        NetworkManager.username = username;
+        NetworkManager.v_string = v_string;
         client.addListener(new Listener() {
             @Override
             public void disconnected(Connection connection) {
+                //a connection replaced by a reconnection does not fail the requests of the new one
+                if (connection == client) {
+                    failPendingRequests();
+                }
                 if (listener != null) {
                     synchronized (GameContext.RENDER_LOCK) {
                         listener.onDisconnect();
@@ -71,6 +124,15 @@ public class NetworkManager {
             public void received(Connection connection, Object object) {
                 onReceive(object);
             }
+
+            @Override
+            public void idle(Connection connection) {
+                //the write buffer is nearly empty, continue with the pending chunks
+                PacketChannel current = channel;
+                if (current != null && current.getConnection() == connection) {
+                    current.drain();
+                }
+            }
         });
         client.start();
         client.connect(5000, server.getAddress(), server.getPort());
@@ -82,14 +144,24 @@ public class NetworkManager {
     }
 
     public static void disconnect() {
+        synchronized (SESSION_LOCK) {
+            //an intended disconnection is never resumed
+            session_token = null;
+            room_id = -1;
+            resuming = false;
+            deferred_events.clear();
+        }
         if (isConnected()) {
             client.close();
         }
+        synchronized (ROOM_LIST_LOCK) {
+            room_list.clear();
+            room_list_version = -1;
+        }
         client = null;
+        channel = null;
         service_id = -1;
-        synchronized (RESPONSE_LOCK) {
-            RESPONSE_LOCK.notifyAll();
-        }
+        failPendingRequests();
     }
 
     public static boolean isConnected() {
@@ -98,14 +170,11 @@ public class NetworkManager {
 
     public static void onReceive(Object object) {
         try {
-            if (object instanceof String) {
-                JSONObject packet = new JSONObject((String) object);
+            JSONObject packet = channel == null ? null : channel.receive(object);
+            if (packet != null) {
                 switch (packet.getInt("type")) {
                     case NetworkConstants.RESPONSE:
-                        synchronized (RESPONSE_LOCK) {
-                            response = packet;
-                            RESPONSE_LOCK.notifyAll();
-                        }
+                        onReceiveResponse(packet);
                         break;
                     case NetworkConstants.NOTIFICATION:
                         onReceiveNotification(packet);
@@ -161,14 +230,13 @@ public class NetworkManager {
                 }
                 break;
             case NetworkConstants.GAME_EVENT:
-                JSONObject event = notification.getJSONObject("game_event");
-                event.put("remote", true);
-                if (listener != null) {
-                    synchronized (GameContext.RENDER_LOCK) {
-                        listener.onReceiveGameEvent(event);
-                    }
+                if (!deferGameEvent(notification)) {
+                    onReceiveGameEvent(notification);
                 }
                 break;
+            case NetworkConstants.GAME_EVENT_ACK:
+                event_outbox.acknowledge(notification.getLong("sequence"));
+                break;
             case NetworkConstants.MESSAGE:
                 username = notification.getString("username");
                 String message = notification.getString("message");
@@ -178,33 +246,134 @@ public class NetworkManager {
                     }
                 }
                 break;
+            case NetworkConstants.ROOM_LIST_UPDATING:
+                onRoomListUpdating(notification);
+                break;
             default:
                 //do nothing
         }
     }
 
-    private static JSONObject sendRequest(JSONObject request) throws JSONException {
-        response = null;
-        client.sendTCP(request.toString());
-        synchronized (RESPONSE_LOCK) {
-            if (response == null) {
-                try {
-                    RESPONSE_LOCK.wait(10000);
-                } catch (InterruptedException ignored) {
+    private static void onReceiveGameEvent(JSONObject notification) throws JSONException {
+        JSONObject event = notification.getJSONObject("game_event");
+        event.put("remote", true);
+        if (notification.has("sequence")) {
+            synchronized (SESSION_LOCK) {
+                event_sequence = notification.getLong("sequence");
+            }
+        }
+        NetworkListener listener = NetworkManager.listener;
+        if (listener != null) {
+            //only queued for the render thread, so the frame is not waited for
+            listener.onReceiveGameEvent(event);
+        }
+    }
+
+    private static boolean deferGameEvent(JSONObject notification) {
+        synchronized (SESSION_LOCK) {
+            if (resuming) {
+                deferred_events.add(notification);
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    //the shared room listing answers the oldest pending listing request, and a server that numbers no response
+    //answers the oldest pending request, responses reach a client in the order of its requests
+    private static void onReceiveResponse(JSONObject response) throws JSONException {
+        PendingRequest request;
+        synchronized (PENDING_LOCK) {
+            int request_id = -1;
+            if (response.has("request_id")) {
+                request_id = response.getInt("request_id");
+            } else {
+                int operation = response.has("operation") ? response.getInt("operation") : -1;
+                for (IntMap.Entry<PendingRequest> entry : pending_requests.entries()) {
+                    if ((operation < 0 || entry.value.operation == operation)
+                            && (request_id < 0 || entry.key < request_id)) {
+                        request_id = entry.key;
+                    }
                 }
             }
+            request = pending_requests.remove(request_id);
+        }
+        if (request != null) {
+            //a request the server refuses to handle completes as if it had no response
+            boolean rejected = response.has("rejected") && response.getBoolean("rejected");
+            request.complete(rejected ? null : response);
         }
-        return isConnected() ? response : null;
+    }
+
+    private static void failPendingRequests() {
+        Array<PendingRequest> requests;
+        synchronized (PENDING_LOCK) {
+            requests = pending_requests.values().toArray();
+            pending_requests.clear();
+        }
+        for (PendingRequest request : requests) {
+            request.complete(null);
+        }
+    }
+
+    private static void expireRequest(int request_id) {
+        PendingRequest request;
+        synchronized (PENDING_LOCK) {
+            request = pending_requests.remove(request_id);
+        }
+        if (request != null) {
+            request.complete(null);
+        }
+    }
+
+    /**
+     * Send a request without waiting for its response. Any number of requests may be in flight at once, and
+     * each is answered by its own response, or by null once its timeout elapses or the connection is lost.
+     *
+     * @param request  the request
+     * @param timeout  the timeout in ms
+     * @param callback the callback run when the request completes, see {@link ResponseCallback}, may be null
+     * @return the pending request
+     */
+    public static PendingRequest submitRequest(JSONObject request, long timeout, ResponseCallback callback)
+            throws JSONException {
+        PendingRequest pending;
+        synchronized (PENDING_LOCK) {
+            int request_id = ++request_count;
+            request.put("request_id", request_id);
+            pending = new PendingRequest(request.getInt("operation"), callback);
+            pending_requests.put(request_id, pending);
+            if (request_timer == null) {
+                request_timer = new Timer("request-timeout", true);
+            }
+            request_timer.schedule(new RequestExpiringTask(request_id), timeout);
+        }
+        if (isConnected()) {
+            sendPacket(request);
+        } else {
+            expireRequest(request.getInt("request_id"));
+        }
+        return pending;
+    }
+
+    private static JSONObject sendRequest(JSONObject request) throws JSONException {
+        return submitRequest(request, REQUEST_TIMEOUT, null).await();
     }
 
     private static void sendNotification(JSONObject notification) throws JSONException {
-        client.sendTCP(notification.toString());
+        sendPacket(notification);
+    }
+
+    private static void sendPacket(JSONObject packet) throws JSONException {
+        channel.send(packet);
     }
 
     public static boolean requestAuthentication(String username, String v_string) throws JSONException, AEIIException {
         JSONObject request = createRequest(NetworkConstants.AUTHENTICATION);
         request.put("username", username);
         request.put("v_string", v_string);
+        request.put("protocol", PacketCodec.PROTOCOL_COMPRESSED);
         JSONObject response = sendRequest(request);
         if (response == null) {
             throw new AEIIException("Connection timeout");
@@ -212,6 +381,9 @@ public class NetworkManager {
             boolean approved = response.getBoolean("approved");
             if (approved) {
                 service_id = response.getInt("service_id");
+                channel.setProtocol(
+                        response.has("protocol") ? response.getInt("protocol") : PacketCodec.PROTOCOL_JSON);
+                session_token = response.has("session_token") ? response.getString("session_token") : null;
             }
             return approved;
         }
@@ -219,15 +391,74 @@ public class NetworkManager {
 
     public static Array<RoomSnapshot> requestRoomList() throws JSONException, AEIIException {
         JSONObject request = createRequest(NetworkConstants.LIST_ROOMS);
+        synchronized (ROOM_LIST_LOCK) {
+            request.put("version", room_list_version);
+        }
+        request.put("subscribe", true);
         JSONObject response = sendRequest(request);
         if (response == null) {
             throw new AEIIException("Connection timeout");
         } else {
-            Array<RoomSnapshot> snapshots = new Array<RoomSnapshot>();
-            for (int i = 0; i < response.getJSONArray("rooms").length(); i++) {
-                snapshots.add(new RoomSnapshot(response.getJSONArray("rooms").getJSONObject(i)));
+            if (!response.has("not_modified")) {
+                synchronized (ROOM_LIST_LOCK) {
+                    room_list.clear();
+                    JSONArray rooms = response.getJSONArray("rooms");
+                    for (int i = 0; i < rooms.length(); i++) {
+                        RoomSnapshot snapshot = new RoomSnapshot(rooms.getJSONObject(i));
+                        room_list.put(snapshot.room_number, snapshot);
+                    }
+                    room_list_version = response.has("version") ? response.getLong("version") : -1;
+                }
+            }
+            return getRoomList();
+        }
+    }
+
+    public static Array<RoomSnapshot> getRoomList() {
+        Array<RoomSnapshot> snapshots = new Array<RoomSnapshot>();
+        synchronized (ROOM_LIST_LOCK) {
+            for (RoomSnapshot snapshot : room_list.values()) {
+                snapshots.add(snapshot);
+            }
+        }
+        snapshots.sort(new Comparator<RoomSnapshot>() {
+            @Override
+            public int compare(RoomSnapshot a, RoomSnapshot b) {
+                return a.room_number < b.room_number ? -1 : (a.room_number == b.room_number ? 0 : 1);
+            }
+        });
+        return snapshots;
+    }
+
+    public static boolean isRoomListValid() {
+        synchronized (ROOM_LIST_LOCK) {
+            return room_list_version >= 0;
+        }
+    }
+
+    private static void onRoomListUpdating(JSONObject notification) throws JSONException {
+        synchronized (ROOM_LIST_LOCK) {
+            //the changes can only be applied on top of the list they were made against
+            if (room_list_version >= 0 && room_list_version >= notification.getLong("previous_version")) {
+                JSONArray removed = notification.getJSONArray("removed");
+                for (int i = 0; i < removed.length(); i++) {
+                    room_list.remove(removed.getLong(i));
+                }
+                JSONArray rooms = notification.getJSONArray("rooms");
+                for (int i = 0; i < rooms.length(); i++) {
+                    RoomSnapshot snapshot = new RoomSnapshot(rooms.getJSONObject(i));
+                    room_list.put(snapshot.room_number, snapshot);
+                }
+                room_list_version = Math.max(room_list_version, notification.getLong("version"));
+            } else {
+                room_list.clear();
+                room_list_version = -1;
+            }
+        }
+        if (listener != null) {
+            synchronized (GameContext.RENDER_LOCK) {
+                listener.onRoomListUpdate();
             }
-            return snapshots;
         }
     }
 
@@ -263,7 +494,7 @@ public class NetworkManager {
             return null;
         } else {
             if (response.getBoolean("approved")) {
-                return new RoomSetting(response.getJSONObject("room_setting"));
+                return onEnterRoom(new RoomSetting(response.getJSONObject("room_setting")));
             } else {
                 return null;
             }
@@ -287,7 +518,7 @@ public class NetworkManager {
             return null;
         } else {
             if (response.getBoolean("approved")) {
-                return new RoomSetting(response.getJSONObject("room_setting"));
+                return onEnterRoom(new RoomSetting(response.getJSONObject("room_setting")));
             } else {
                 return null;
             }
@@ -303,13 +534,113 @@ public class NetworkManager {
             return null;
         } else {
             if (response.getBoolean("approved")) {
-                return new RoomSetting(response.getJSONObject("room_setting"));
+                return onEnterRoom(new RoomSetting(response.getJSONObject("room_setting")));
             } else {
                 return null;
             }
         }
     }
 
+    private static RoomSetting onEnterRoom(RoomSetting setting) {
+        event_outbox.reset();
+        synchronized (SESSION_LOCK) {
+            room_id = setting.room_id;
+            event_sequence = setting.event_sequence;
+        }
+        return setting;
+    }
+
+    public static boolean isResumable() {
+        synchronized (SESSION_LOCK) {
+            return server != null && session_token != null && room_id >= 0;
+        }
+    }
+
+    /**
+     * Reconnect to the last server and take over the seat of the lost connection. Game events
+     * notified during the attempt are held back until {@link #finishResume(long)} is called.
+     *
+     * @return what the client has missed, or null if the seat is gone
+     */
+    public static ResumeSetting requestResumeSession() throws AEIIException, IOException, JSONException {
+        String token;
+        long sequence;
+        synchronized (SESSION_LOCK) {
+            token = session_token;
+            sequence = event_sequence;
+            resuming = true;
+            deferred_events.clear();
+        }
+        if (client != null) {
+            client.stop();
+        }
+        ResumeSetting resume_setting = null;
+        if (token != null && reconnect()) {
+            JSONObject request = createRequest(NetworkConstants.RESUME_SESSION);
+            request.put("token", token);
+            request.put("sequence", sequence);
+            //the events the server may have missed are submitted again, it drops the ones it has already accepted
+            JSONObject retransmission = event_outbox.createRetransmission();
+            if (retransmission != null) {
+                request.put("first_sequence", retransmission.getLong("first_sequence"));
+                request.put("events", retransmission.getJSONArray("events"));
+            }
+            JSONObject response = sendRequest(request);
+            if (response == null) {
+                throw new AEIIException("Connection timeout");
+            }
+            if (response.getBoolean("approved")) {
+                resume_setting = new ResumeSetting(response.getJSONObject("resume_setting"));
+                event_outbox.restart(resume_setting.submitted);
+            }
+        }
+        if (resume_setting == null) {
+            event_outbox.reset();
+            synchronized (SESSION_LOCK) {
+                room_id = -1;
+                resuming = false;
+                deferred_events.clear();
+            }
+        }
+        return resume_setting;
+    }
+
+    //the server may be restarting and recovering its rooms, so the connection is retried for a while
+    private static boolean reconnect() throws AEIIException, IOException, JSONException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return connect(server, username, v_string);
+            } catch (IOException ex) {
+                client.stop();
+                if (attempt >= RESUME_ATTEMPTS) {
+                    throw ex;
+                }
+                try {
+                    Thread.sleep(RESUME_RETRY_DELAY);
+                } catch (InterruptedException ignored) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    public static void finishResume(long sequence) throws JSONException {
+        Array<JSONObject> notifications;
+        synchronized (SESSION_LOCK) {
+            event_sequence = sequence;
+            resuming = false;
+            notifications = new Array<JSONObject>(deferred_events);
+            deferred_events.clear();
+        }
+        for (JSONObject notification : notifications) {
+            //events already covered by the resume setting are skipped
+            if (notification.getLong("sequence") > sequence) {
+                onReceiveGameEvent(notification);
+            }
+        }
+        flushGameEvents();
+    }
+
     public static boolean requestStartGame() throws JSONException {
         JSONObject request = createRequest(NetworkConstants.START_GAME);
         JSONObject response = sendRequest(request);
@@ -336,15 +667,42 @@ public class NetworkManager {
         }
     }
 
-    public static Map requestDownloadMap(int map_id) throws JSONException {
+    /**
+     * @param snapshot the snapshot of the map listed by the server
+     * @return the map from the local cache, or null if it has to be downloaded
+     */
+    public static Map getCachedMap(MapSnapshot snapshot) {
+        return snapshot.getHash() == null ? null : MapFactory.getCachedMap(snapshot.getHash());
+    }
+
+    /**
+     * Download a map and keep it in the local cache when the server listed its content hash.
+     *
+     * @param snapshot the snapshot of the map listed by the server
+     * @return the downloaded map, or null if the download failed or the map does not match its hash
+     */
+    public static Map requestDownloadMap(MapSnapshot snapshot) throws JSONException {
         JSONObject request = createRequest(NetworkConstants.DOWNLOAD_MAP);
-        request.put("id", map_id);
+        request.put("id", snapshot.getID());
         JSONObject response = sendRequest(request);
         if (response == null) {
             return null;
         } else {
             if (response.getBoolean("approved")) {
-                return new Map(response.getJSONObject("map"));
+                Map map = new Map(response.getJSONObject("map"));
+                String hash = snapshot.getHash();
+                if (hash != null) {
+                    if (!hash.equals(MapFactory.getContentHash(map))) {
+                        Gdx.app.log(TAG, "Downloaded map does not match its hash [" + snapshot.getID() + "]");
+                        return null;
+                    }
+                    try {
+                        MapFactory.cacheMap(map, hash);
+                    } catch (IOException ex) {
+                        Gdx.app.log(TAG, "While caching map [" + ex.toString() + "]");
+                    }
+                }
+                return map;
             } else {
                 return null;
             }
@@ -359,9 +717,75 @@ public class NetworkManager {
         return response == null ? NetworkConstants.CODE_NETWORK_ERROR : response.getInt("code");
     }
 
+    public static class PendingRequest {
+
+        private final int operation;
+
+        private final ResponseCallback callback;
+
+        private boolean completed;
+
+        private JSONObject response;
+
+        private PendingRequest(int operation, ResponseCallback callback) {
+            this.operation = operation;
+            this.callback = callback;
+        }
+
+        private void complete(JSONObject response) {
+            synchronized (this) {
+                this.response = response;
+                this.completed = true;
+                notifyAll();
+            }
+            if (callback != null) {
+                callback.onResponse(response);
+            }
+        }
+
+        public synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        /**
+         * Wait until the request completes.
+         *
+         * @return the response, or null if the request timed out, was rejected or the connection is lost
+         */
+        public synchronized JSONObject await() {
+            while (!completed) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    return null;
+                }
+            }
+            return response;
+        }
+
+    }
+
+    private static class RequestExpiringTask extends TimerTask {
+
+        private final int request_id;
+
+        public RequestExpiringTask(int request_id) {
+            this.request_id = request_id;
+        }
+
+        @Override
+        public void run() {
+            expireRequest(request_id);
+        }
+
+    }
+
     public static void notifyLeaveRoom() throws JSONException {
         JSONObject notification = createNotification(NetworkConstants.PLAYER_LEAVING);
         sendNotification(notification);
+        synchronized (SESSION_LOCK) {
+            room_id = -1;
+        }
     }
 
     public static void notifyAllocationUpdate(int[] alliance, int[] allocation, int[] types) throws JSONException {
@@ -381,24 +805,41 @@ public class NetworkManager {
     }
 
     public static void resetEventQueue() {
-        event_queue = new JSONArray();
+        event_outbox.clear();
     }
 
     public static void submitGameEvent(JSONObject event) {
         boolean remote = event.has("remote") && event.getBoolean("remote");
         if (!remote) {
-            event_queue.put(event);
+            event_outbox.submit(event);
+            synchronized (SESSION_LOCK) {
+                event_sequence++;
+            }
         }
     }
 
+    //a chain of events ends with the state sync, and is sent as a whole
     public static void syncGameEvent(int manager_state) {
-        if (event_queue.length() > 0) {
+        if (event_outbox.getUnsealedCount() > 0) {
             JSONObject state_sync_event = GameEvent.create(GameEvent.MANAGER_STATE_SYNC, manager_state);
-            event_queue.put(state_sync_event);
-            JSONObject notification = createNotification(NetworkConstants.GAME_EVENT);
-            notification.put("events", event_queue);
-            sendNotification(notification);
-            event_queue = new JSONArray();
+            submitGameEvent(state_sync_event);
+            event_outbox.seal();
+            flushGameEvents();
+        }
+    }
+
+    //events submitted while the connection is lost are sent by the resume request
+    private static void flushGameEvents() throws JSONException {
+        synchronized (SESSION_LOCK) {
+            if (resuming) {
+                return;
+            }
+        }
+        if (isConnected()) {
+            JSONObject batch = event_outbox.createBatch();
+            if (batch != null) {
+                sendNotification(batch);
+            }
         }
     }
 
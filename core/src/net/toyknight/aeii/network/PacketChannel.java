@@ -0,0 +1,352 @@
+package net.toyknight.aeii.network;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.Connection;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Sends and receives json packets over a connection in the negotiated protocol. With the compressed
+ * protocol, large binary packets are deflated against a preset dictionary, and anything that still does
+ * not fit the connection buffers is streamed in chunks, so packets are no longer limited by the buffer size.
+ * The chunks that do not fit the write buffer wait here, together with the packets sent after them, and are
+ * written by {@link #drain()} once the network thread reports the buffer idle.
+ *
+ * @author agent 10/19/2026.
+ */
+public class PacketChannel {
+
+    public static final int BUFFER_SIZE = 90 * 1024;
+
+    public static final int COMPRESSION_THRESHOLD = 512;
+
+    public static final int CHUNK_SIZE = 32 * 1024;
+
+    public static final int MAX_PACKET_SIZE = 16 * 1024 * 1024;
+
+    private static final long SEND_TIMEOUT = 10000;
+
+    //room for the length and class prefixes written ahead of every frame
+    private static final int FRAME_OVERHEAD = 16;
+
+    //frame tags share the first byte with binary packets, which always start with an object tag
+    private static final byte FRAME_DEFLATED = 0x40;
+    private static final byte FRAME_CHUNK = 0x41;
+    private static final byte FRAME_LAST_CHUNK = 0x42;
+
+    //strings that binary game and map packets carry inline, written the way the codec writes them
+    private static final String[] DICTIONARY_KEYS = {
+            "available_units", "ATTACK_EXPERIENCE", "COUNTER_EXPERIENCE", "KILL_EXPERIENCE",
+            "CASTLE_INCOME", "VILLAGE_INCOME", "COMMANDER_INCOME", "COMMANDER_PRICE_STEP",
+            "UNIT_CAPACITY", "ENEMY_CLEAR", "CASTLE_CLEAR", "password", "map_name", "save_name",
+            "new_game", "player_capacity", "unit_capacity", "symmetric", "success", "remote"
+    };
+
+    private static final byte[] DICTIONARY = createDictionary();
+
+    private final Object SENDING_LOCK = new Object();
+
+    private final Connection connection;
+
+    private volatile int protocol;
+
+    private final AtomicLong sent_bytes = new AtomicLong();
+
+    private final AtomicLong sent_packets = new AtomicLong();
+
+    //frames waiting for room in the write buffer, in the order they were sent
+    private final LinkedList<Object> pending_frames = new LinkedList<Object>();
+
+    private long pending_time;
+
+    private ByteArrayOutputStream chunk_buffer;
+
+    public PacketChannel(Connection connection) {
+        this.connection = connection;
+        this.protocol = PacketCodec.PROTOCOL_JSON;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public void setProtocol(int protocol) {
+        this.protocol = protocol;
+    }
+
+    public int getProtocol() {
+        return protocol;
+    }
+
+    public long getSentBytes() {
+        return sent_bytes.get();
+    }
+
+    public long getSentPackets() {
+        return sent_packets.get();
+    }
+
+    public int send(JSONObject packet) {
+        return sendEncoded(encode(packet, getProtocol()));
+    }
+
+    /**
+     * Send a packet encoded by {@link #encode(JSONObject, int)} with the protocol of this channel. A packet that
+     * does not fit the write buffer, or follows one that did not, is left pending and written by {@link #drain()}.
+     *
+     * @param frame the encoded packet
+     * @return the number of bytes sent or left pending
+     */
+    public int sendEncoded(Object frame) {
+        synchronized (SENDING_LOCK) {
+            if (pending_frames.isEmpty() && !isChunked(frame)) {
+                return sendFrame(frame);
+            }
+            if (pending_frames.isEmpty()) {
+                pending_time = System.currentTimeMillis();
+            }
+            int length = 0;
+            for (Object chunk : split(frame)) {
+                pending_frames.add(chunk);
+                length += getSize(chunk);
+            }
+            writePending();
+            if (!pending_frames.isEmpty() && System.currentTimeMillis() - pending_time > SEND_TIMEOUT) {
+                //the other side has not read anything for too long
+                pending_frames.clear();
+                getConnection().close();
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Write as many pending frames as the write buffer can take. Called by the network thread whenever the write
+     * buffer of the connection is nearly empty.
+     */
+    public void drain() {
+        synchronized (SENDING_LOCK) {
+            writePending();
+        }
+    }
+
+    public int getPendingFrames() {
+        synchronized (SENDING_LOCK) {
+            return pending_frames.size();
+        }
+    }
+
+    /**
+     * Split an encoded packet into the frames that are written to the connection one by one.
+     *
+     * @param frame the encoded packet
+     * @return the frames
+     */
+    public Array<Object> split(Object frame) {
+        Array<Object> frames = new Array<Object>();
+        if (isChunked(frame)) {
+            byte[] data = (byte[]) frame;
+            for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+                frames.add(createChunk(data, offset));
+            }
+        } else {
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * Write one frame created by {@link #split(Object)} without waiting for the write buffer.
+     *
+     * @param frame the frame
+     * @return the number of bytes written
+     */
+    public int sendFrame(Object frame) {
+        synchronized (SENDING_LOCK) {
+            if (getConnection().isConnected()) {
+                int length = getConnection().sendTCP(frame);
+                sent_bytes.addAndGet(length);
+                sent_packets.incrementAndGet();
+                return length;
+            } else {
+                return 0;
+            }
+        }
+    }
+
+    private boolean isChunked(Object frame) {
+        return frame instanceof byte[] && getProtocol() >= PacketCodec.PROTOCOL_COMPRESSED
+                && ((byte[]) frame).length > CHUNK_SIZE;
+    }
+
+    private byte[] createChunk(byte[] frame, int offset) {
+        int size = Math.min(CHUNK_SIZE, frame.length - offset);
+        byte[] chunk = new byte[size + 1];
+        chunk[0] = offset + size < frame.length ? FRAME_CHUNK : FRAME_LAST_CHUNK;
+        System.arraycopy(frame, offset, chunk, 1, size);
+        return chunk;
+    }
+
+    /**
+     * Encode a packet once so that it can be sent to many channels using the same protocol.
+     *
+     * @param packet   the packet
+     * @param protocol the protocol of the receiving channels
+     * @return the encoded packet
+     */
+    public static Object encode(JSONObject packet, int protocol) {
+        if (protocol == PacketCodec.PROTOCOL_JSON) {
+            return packet.toString();
+        }
+        byte[] frame = PacketCodec.encode(packet);
+        if (protocol >= PacketCodec.PROTOCOL_COMPRESSED && frame.length > COMPRESSION_THRESHOLD) {
+            frame = deflate(frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Decode a received object.
+     *
+     * @param object the object received from the connection
+     * @return the packet, or null if the object is not a packet or only part of one
+     */
+    public JSONObject receive(Object object) throws JSONException {
+        if (object instanceof String) {
+            return new JSONObject((String) object);
+        }
+        if (object instanceof byte[]) {
+            byte[] frame = (byte[]) object;
+            if (frame.length > 0 && (frame[0] == FRAME_CHUNK || frame[0] == FRAME_LAST_CHUNK)) {
+                frame = appendChunk(frame);
+            }
+            if (frame == null) {
+                return null;
+            }
+            if (frame.length > 0 && frame[0] == FRAME_DEFLATED) {
+                frame = inflate(frame);
+            }
+            return PacketCodec.decode(frame);
+        }
+        return null;
+    }
+
+    private void writePending() {
+        if (!getConnection().isConnected()) {
+            pending_frames.clear();
+            return;
+        }
+        while (!pending_frames.isEmpty() && hasRoom(getSize(pending_frames.getFirst()))) {
+            sendFrame(pending_frames.removeFirst());
+            pending_time = System.currentTimeMillis();
+        }
+    }
+
+    private boolean hasRoom(int size) {
+        int buffered = getConnection().getTcpWriteBufferSize();
+        return buffered == 0 || buffered + size + FRAME_OVERHEAD <= BUFFER_SIZE;
+    }
+
+    private static int getSize(Object frame) {
+        if (frame instanceof byte[]) {
+            return ((byte[]) frame).length;
+        } else {
+            //an upper bound for the utf-8 encoded string
+            return frame.toString().length() * 3;
+        }
+    }
+
+    private byte[] appendChunk(byte[] chunk) throws JSONException {
+        if (chunk_buffer == null) {
+            chunk_buffer = new ByteArrayOutputStream(CHUNK_SIZE * 2);
+        }
+        if (chunk_buffer.size() + chunk.length - 1 > MAX_PACKET_SIZE) {
+            chunk_buffer = null;
+            throw new JSONException("Chunked packet exceeds " + MAX_PACKET_SIZE + " bytes");
+        }
+        chunk_buffer.write(chunk, 1, chunk.length - 1);
+        if (chunk[0] == FRAME_LAST_CHUNK) {
+            byte[] frame = chunk_buffer.toByteArray();
+            chunk_buffer = null;
+            return frame;
+        } else {
+            return null;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(data);
+            deflater.finish();
+            Output output = new Output(data.length / 2 + 16, -1);
+            output.writeByte(FRAME_DEFLATED);
+            output.writeVarInt(data.length, true);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.writeBytes(buffer, 0, length);
+            }
+            return output.toBytes();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] frame) throws JSONException {
+        Inflater inflater = new Inflater();
+        try {
+            int offset = 1;
+            int length = 0;
+            //inflated length, same varint layout as the codec
+            for (int shift = 0; offset < frame.length; shift += 7) {
+                byte b = frame[offset++];
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (length < 0 || length > MAX_PACKET_SIZE) {
+                throw new JSONException("Illegal deflated packet length " + length);
+            }
+            byte[] data = new byte[length];
+            inflater.setInput(frame, offset, frame.length - offset);
+            int position = 0;
+            while (position < length) {
+                int count = inflater.inflate(data, position, length - position);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new JSONException("Truncated deflated packet");
+                    }
+                }
+                position += count;
+            }
+            return data;
+        } catch (DataFormatException ex) {
+            throw new JSONException("Broken deflated packet [" + ex.getMessage() + "]");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] createDictionary() {
+        Output output = new Output(1024, -1);
+        for (String key : DICTIONARY_KEYS) {
+            output.writeVarInt(0, true);
+            output.writeString(key);
+        }
+        return output.toBytes();
+    }
+
+}
@@ -0,0 +1,242 @@
+package net.toyknight.aeii.network;
+
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.util.Iterator;
+
+/**
+ * Compact binary encoding of json packets. Integers are zigzag varints, so coordinates and tile
+ * indices take one or two bytes, and frequently used keys are sent as a single byte dictionary index.
+ *
+ * @author agent 10/19/2026.
+ */
+public class PacketCodec {
+
+    public static final int PROTOCOL_JSON = 0x0;
+    public static final int PROTOCOL_BINARY = 0x1;
+    public static final int PROTOCOL_COMPRESSED = 0x2;
+
+    private static final byte TAG_NULL = 0x0;
+    private static final byte TAG_TRUE = 0x1;
+    private static final byte TAG_FALSE = 0x2;
+    private static final byte TAG_INTEGER = 0x3;
+    private static final byte TAG_DOUBLE = 0x4;
+    private static final byte TAG_STRING = 0x5;
+    private static final byte TAG_OBJECT = 0x6;
+    private static final byte TAG_ARRAY = 0x7;
+    private static final byte TAG_RAW_JSON = 0x8;
+    private static final byte TAG_INTEGER_ARRAY = 0x9;
+
+    //append only, the index of a key is part of the protocol
+    private static final String[] KEYS = {
+            "type", "operation", "parameters", "x", "y", "change", "index", "team",
+            "approved", "code", "username", "message", "player_id", "host_id", "game_event", "events",
+            "types", "alliance", "allocation", "room_id", "room_setting", "rooms", "players", "maps",
+            "map", "game", "map_data", "units", "tombs", "team_access", "author", "width",
+            "height", "price", "experience", "unit_code", "current_hp", "current_movement_point", "x_position",
+            "y_position", "standby", "static", "head", "status", "turn", "remaining", "gold", "population",
+            "id", "capacity", "filename", "directory", "open", "requires_password", "room_name", "map_name",
+            "is_host", "started", "host", "manager_state", "selected_unit_x", "selected_unit_y", "start_gold",
+            "max_population", "commanders", "team_destroy", "current_turn", "current_team", "game_over",
+            "statistics", "initialized", "rule", "income", "destroy", "lose", "protocol", "service_id", "v_string",
+            "sequence", "event_sequence", "session_token", "token", "resume_setting",
+            "version", "previous_version", "not_modified", "subscribe", "removed"
+    };
+
+    private static final ObjectIntMap<String> KEY_INDICES = new ObjectIntMap<String>();
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEY_INDICES.put(KEYS[i], i);
+        }
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private PacketCodec() {
+    }
+
+    public static void register(Kryo kryo) {
+        kryo.register(byte[].class);
+    }
+
+    public static byte[] encode(JSONObject packet) {
+        Output output = new Output(INITIAL_BUFFER_SIZE, -1);
+        writeObject(output, packet);
+        return output.toBytes();
+    }
+
+    public static JSONObject decode(byte[] data) throws JSONException {
+        try {
+            Input input = new Input(data);
+            if (input.readByte() == TAG_OBJECT) {
+                return readObject(input);
+            } else {
+                throw new JSONException("Binary packet is not an object");
+            }
+        } catch (KryoException ex) {
+            throw new JSONException("Broken binary packet [" + ex.getMessage() + "]");
+        }
+    }
+
+    private static void writeObject(Output output, JSONObject object) {
+        output.writeByte(TAG_OBJECT);
+        output.writeVarInt(object.length(), true);
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            writeKey(output, key);
+            writeValue(output, object.opt(key));
+        }
+    }
+
+    private static void writeArray(Output output, JSONArray array) {
+        if (isIntegerArray(array)) {
+            output.writeByte(TAG_INTEGER_ARRAY);
+            output.writeVarInt(array.length(), true);
+            for (int i = 0; i < array.length(); i++) {
+                output.writeVarLong(((Number) array.opt(i)).longValue(), false);
+            }
+        } else {
+            output.writeByte(TAG_ARRAY);
+            output.writeVarInt(array.length(), true);
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(output, array.opt(i));
+            }
+        }
+    }
+
+    private static boolean isIntegerArray(JSONArray array) {
+        if (array.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < array.length(); i++) {
+            if (!isInteger(array.opt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInteger(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static void writeKey(Output output, String key) {
+        int index = getKeyIndex(key);
+        output.writeVarInt(index + 1, true);
+        if (index < 0) {
+            output.writeString(key);
+        }
+    }
+
+    private static void writeValue(Output output, Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            output.writeByte(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (isInteger(value)) {
+            output.writeByte(TAG_INTEGER);
+            output.writeVarLong(((Number) value).longValue(), false);
+        } else if (value instanceof Number) {
+            output.writeByte(TAG_DOUBLE);
+            output.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof JSONObject) {
+            writeObject(output, (JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray(output, (JSONArray) value);
+        } else if (value instanceof JSONString) {
+            output.writeByte(TAG_RAW_JSON);
+            output.writeString(((JSONString) value).toJSONString());
+        } else {
+            output.writeByte(TAG_STRING);
+            output.writeString(value.toString());
+        }
+    }
+
+    private static JSONObject readObject(Input input) throws JSONException {
+        int length = input.readVarInt(true);
+        JSONObject object = new JSONObject();
+        for (int i = 0; i < length; i++) {
+            String key = readKey(input);
+            object.put(key, readValue(input));
+        }
+        return object;
+    }
+
+    private static JSONArray readArray(Input input) throws JSONException {
+        int length = input.readVarInt(true);
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < length; i++) {
+            array.put(readValue(input));
+        }
+        return array;
+    }
+
+    private static Object readInteger(Input input) {
+        long value = input.readVarLong(false);
+        if (Integer.MIN_VALUE <= value && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        } else {
+            return value;
+        }
+    }
+
+    private static String readKey(Input input) throws JSONException {
+        int index = input.readVarInt(true) - 1;
+        if (index < 0) {
+            return input.readString();
+        } else if (index < KEYS.length) {
+            return KEYS[index];
+        } else {
+            throw new JSONException("Undefined key index " + index);
+        }
+    }
+
+    private static Object readValue(Input input) throws JSONException {
+        byte tag = input.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return JSONObject.NULL;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_INTEGER:
+                return readInteger(input);
+            case TAG_DOUBLE:
+                return input.readDouble();
+            case TAG_STRING:
+                return input.readString();
+            case TAG_OBJECT:
+                return readObject(input);
+            case TAG_ARRAY:
+                return readArray(input);
+            case TAG_INTEGER_ARRAY:
+                int length = input.readVarInt(true);
+                JSONArray array = new JSONArray();
+                for (int i = 0; i < length; i++) {
+                    array.put(readInteger(input));
+                }
+                return array;
+            case TAG_RAW_JSON:
+                String content = input.readString();
+                return content.startsWith("[") ? new JSONArray(content) : new JSONObject(content);
+            default:
+                throw new JSONException("Undefined value tag " + tag);
+        }
+    }
+
+    private static int getKeyIndex(String key) {
+        return KEY_INDICES.get(key, -1);
+    }
+
+}
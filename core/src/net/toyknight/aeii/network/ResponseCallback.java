@@ -0,0 +1,19 @@
+package net.toyknight.aeii.network;
+
+import org.json.JSONObject;
+
+/**
+ * @author agent 10/19/2026.
+ */
+public interface ResponseCallback {
+
+    /**
+     * Called by the network thread when the response arrives or the connection is lost, by the request-timeout
+     * timer thread when the request times out, and by the submitting thread when there is no connection. The
+     * response is null unless it has arrived, and so it is when the server rejects the request.
+     *
+     * @param response the response, or null if there is none
+     */
+    void onResponse(JSONObject response);
+
+}
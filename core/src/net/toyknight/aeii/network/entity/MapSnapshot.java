@@ -16,6 +16,8 @@ public class MapSnapshot implements Serializable, Comparable<MapSnapshot> {
 
     private boolean directory = false;
 
+    private String hash;
+
     public MapSnapshot(int capacity, String filename, String author) {
         this(-1, capacity, filename, author);
     }
@@ -30,6 +32,9 @@ public class MapSnapshot implements Serializable, Comparable<MapSnapshot> {
     public MapSnapshot(JSONObject json) throws JSONException {
         this(json.getInt("id"), json.getInt("capacity"), json.getString("filename"), json.getString("author"));
         setDirectory(json.getBoolean("directory"));
+        if (json.has("hash")) {
+            setHash(json.getString("hash"));
+        }
     }
 
     public void setDirectory(boolean directory) {
@@ -40,6 +45,17 @@ public class MapSnapshot implements Serializable, Comparable<MapSnapshot> {
         return directory;
     }
 
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * @return the content hash of the map, or null if the server has not hashed it
+     */
+    public String getHash() {
+        return hash;
+    }
+
     public int getID() {
         return id;
     }
@@ -73,6 +89,9 @@ public class MapSnapshot implements Serializable, Comparable<MapSnapshot> {
         json.put("filename", filename);
         json.put("author", author);
         json.put("directory", directory);
+        if (hash != null) {
+            json.put("hash", hash);
+        }
         return json;
     }
 
@@ -0,0 +1,65 @@
+package net.toyknight.aeii.network.entity;
+
+import com.badlogic.gdx.utils.Array;
+import net.toyknight.aeii.Serializable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What a reconnecting client needs to catch up with its room. Either the events it missed or, when the
+ * room has already dropped them from its event log, a complete room setting.
+ *
+ * @author agent 10/19/2026.
+ */
+public class ResumeSetting implements Serializable {
+
+    public long sequence;
+
+    //the sequence number of the last event of the client the server has accepted
+    public long submitted;
+
+    public Array<JSONObject> events;
+
+    public RoomSetting room_setting;
+
+    public ResumeSetting() {
+    }
+
+    public ResumeSetting(JSONObject json) throws JSONException {
+        sequence = json.getLong("sequence");
+        submitted = json.has("submitted") ? json.getLong("submitted") : 0;
+        if (json.has("events")) {
+            events = new Array<JSONObject>();
+            for (int i = 0; i < json.getJSONArray("events").length(); i++) {
+                events.add(json.getJSONArray("events").getJSONObject(i));
+            }
+        }
+        if (json.has("room_setting")) {
+            room_setting = new RoomSetting(json.getJSONObject("room_setting"));
+        }
+    }
+
+    public boolean isSnapshot() {
+        return room_setting != null;
+    }
+
+    @Override
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("sequence", sequence);
+        json.put("submitted", submitted);
+        if (events != null) {
+            JSONArray events = new JSONArray();
+            for (JSONObject event : this.events) {
+                events.put(event);
+            }
+            json.put("events", events);
+        }
+        if (room_setting != null) {
+            json.put("room_setting", room_setting.toJson());
+        }
+        return json;
+    }
+
+}
@@ -34,6 +34,11 @@ public class RoomSetting implements Serializable {
 
     public int max_population;
 
+    public long event_sequence;
+
+    //the seed the room arranged the game with, every peer draws the same random numbers from it
+    public long random_seed;
+
     public RoomSetting() {
     }
 
@@ -55,6 +60,8 @@ public class RoomSetting implements Serializable {
         }
         start_gold = json.getInt("start_gold");
         max_population = json.getInt("max_population");
+        event_sequence = json.has("event_sequence") ? json.getLong("event_sequence") : 0;
+        random_seed = json.has("random_seed") ? json.getLong("random_seed") : game.getRandomSeed();
     }
 
     @Override
@@ -79,6 +86,8 @@ public class RoomSetting implements Serializable {
         json.put("allocation", allocation);
         json.put("start_gold", start_gold);
         json.put("max_population", max_population);
+        json.put("event_sequence", event_sequence);
+        json.put("random_seed", random_seed);
         return json;
     }
 
@@ -0,0 +1,120 @@
+package net.toyknight.aeii.record;
+
+import com.badlogic.gdx.utils.Array;
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.manager.CheatingException;
+import net.toyknight.aeii.manager.GameEvent;
+import net.toyknight.aeii.manager.GameEventExecutor;
+import net.toyknight.aeii.manager.GameManager;
+import org.json.JSONException;
+
+/**
+ * Applies the events of a record to its game as fast as possible. The events are executed directly by the event
+ * executor of a manager without animations, so nothing waits for frames. The replay seeks with it, and records can
+ * be verified or analysed with it without a screen.
+ *
+ * @author agent 10/19/2026.
+ */
+public class FastForwardEngine {
+
+    private final GameManager manager;
+
+    private GameRecord record;
+
+    private int event_index;
+
+    private FastForwardListener listener;
+
+    public FastForwardEngine() {
+        this.manager = new GameManager();
+    }
+
+    public GameManager getManager() {
+        return manager;
+    }
+
+    public GameCore getGame() {
+        return getManager().getGame();
+    }
+
+    public void setListener(FastForwardListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start from the initial game of a record, which is copied.
+     *
+     * @param record the record
+     */
+    public void setRecord(GameRecord record) {
+        this.record = record;
+        this.event_index = 0;
+        getManager().setGame(new GameCore(record.getGame()));
+    }
+
+    public GameRecord getRecord() {
+        return record;
+    }
+
+    public int getEventIndex() {
+        return event_index;
+    }
+
+    public boolean isFinished() {
+        return event_index >= getRecord().getEvents().size || getGame().isGameOver();
+    }
+
+    /**
+     * Move to the start of a turn by restoring the nearest keyframe before it, unless the current position is
+     * already between the keyframe and the turn, and executing the events in between.
+     *
+     * @param turn the turn, counting the turn of every team
+     */
+    public void seek(int turn) throws JSONException, CheatingException {
+        turn = Math.max(0, Math.min(turn, getRecord().getTurnCount() - 1));
+        int target_index = getRecord().getTurnStart(turn);
+        GameRecord.Keyframe keyframe = getRecord().getKeyframe(target_index);
+        int keyframe_index = keyframe == null ? 0 : keyframe.getEventCount();
+        if (event_index < keyframe_index || event_index > target_index) {
+            if (keyframe == null) {
+                getManager().setGame(new GameCore(getRecord().getGame()));
+            } else {
+                getManager().setGame(keyframe.restore());
+            }
+            event_index = keyframe_index;
+        }
+        forward(target_index);
+    }
+
+    /**
+     * Execute the events before an index.
+     *
+     * @param target_index the index of the first event left
+     */
+    public void forward(int target_index) throws JSONException, CheatingException {
+        Array<GameEvent> events = getRecord().getEvents();
+        GameEventExecutor executor = getManager().getGameEventExecutor();
+        GameCore game = getGame();
+        target_index = Math.min(target_index, events.size);
+        while (event_index < target_index && !game.isGameOver()) {
+            //the events of the record are not pooled, so they are executed without being queued
+            GameEvent event = events.get(event_index);
+            if (!executor.isAllowed(event)) {
+                throw new CheatingException("Invalid game event!", game.getCurrentTeam());
+            }
+            if (listener != null) {
+                listener.onEventExecuting(game, event);
+            }
+            executor.executeGameEvent(event);
+            event_index++;
+            if (listener != null) {
+                listener.onEventExecuted(game, event);
+            }
+        }
+    }
+
+    public void forwardToEnd() throws JSONException, CheatingException {
+        forward(getRecord().getEvents().size);
+    }
+
+}
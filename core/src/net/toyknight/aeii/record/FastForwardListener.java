@@ -0,0 +1,15 @@
+package net.toyknight.aeii.record;
+
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.manager.GameEvent;
+
+/**
+ * @author agent 10/19/2026.
+ */
+public interface FastForwardListener {
+
+    void onEventExecuting(GameCore game, GameEvent event);
+
+    void onEventExecuted(GameCore game, GameEvent event);
+
+}
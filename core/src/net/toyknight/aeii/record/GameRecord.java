@@ -1,14 +1,14 @@
 package net.toyknight.aeii.record;
 
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import net.toyknight.aeii.Serializable;
 import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.manager.GameEvent;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
 /**
  * @author toyknight 9/22/2015.
  */
@@ -17,16 +17,21 @@ public class GameRecord implements Serializable {
     private final String V_STRING;
 
     private GameCore game;
-    private Queue<JSONObject> event_queue;
+    private Array<GameEvent> events;
+    private Array<Keyframe> keyframes = new Array<Keyframe>();
+
+    //the index of the first event of every turn
+    private final IntArray turn_starts = new IntArray();
 
     public GameRecord(JSONObject json) throws JSONException {
         this(json.getString("v_string"));
         setGame(new GameCore(json.getJSONObject("game")));
         JSONArray events = json.getJSONArray("events");
-        event_queue = new LinkedList<JSONObject>();
+        Array<GameEvent> game_events = new Array<GameEvent>(events.length());
         for (int i = 0; i < events.length(); i++) {
-            event_queue.add(events.getJSONObject(i));
+            game_events.add(new GameEvent().read(events.getJSONObject(i)));
         }
+        setEvents(game_events);
     }
 
     public GameRecord(String V_STRING) {
@@ -45,12 +50,78 @@ public class GameRecord implements Serializable {
         return game;
     }
 
-    public void setEvents(Queue<JSONObject> events) {
-        this.event_queue = events;
+    public void setEvents(Array<GameEvent> events) {
+        this.events = events;
+        turn_starts.clear();
+        turn_starts.add(0);
+        for (int i = 0; i < events.size; i++) {
+            if (events.get(i).getType() == GameEvent.NEXT_TURN) {
+                turn_starts.add(i + 1);
+            }
+        }
+    }
+
+    public Array<GameEvent> getEvents() {
+        return events;
+    }
+
+    public void setKeyframes(Array<Keyframe> keyframes) {
+        this.keyframes = keyframes;
+    }
+
+    public Array<Keyframe> getKeyframes() {
+        return keyframes;
+    }
+
+    /**
+     * Get the number of turns, counting the turn of every team and the turn in progress when the record ends.
+     *
+     * @return the number of turns
+     */
+    public int getTurnCount() {
+        return turn_starts.size;
+    }
+
+    public int getTurnStart(int turn) {
+        return turn_starts.get(turn);
+    }
+
+    /**
+     * Get the turn an event belongs to.
+     *
+     * @param event_index the index of the event
+     * @return the turn
+     */
+    public int getTurn(int event_index) {
+        int low = 0;
+        int high = turn_starts.size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (turn_starts.get(middle) <= event_index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
     }
 
-    public Queue<JSONObject> getEvents() {
-        return event_queue;
+    /**
+     * Get the last keyframe taken before an event.
+     *
+     * @param event_index the index of the event
+     * @return the keyframe, or null if there is none before the event
+     */
+    public Keyframe getKeyframe(int event_index) {
+        Keyframe result = null;
+        for (Keyframe keyframe : keyframes) {
+            if (keyframe.getEventCount() <= event_index) {
+                result = keyframe;
+            } else {
+                break;
+            }
+        }
+        return result;
     }
 
     @Override
@@ -59,11 +130,40 @@ public class GameRecord implements Serializable {
         json.put("v_string", V_STRING);
         json.put("game", getGame().toJson());
         JSONArray events = new JSONArray();
-        Queue<JSONObject> temp_queue = new LinkedList<JSONObject>(getEvents());
-        while (temp_queue.size() > 0) {
-            events.put(temp_queue.poll());
+        for (GameEvent event : getEvents()) {
+            events.put(event.toJson());
         }
         json.put("events", events);
         return json;
     }
+
+    public static class Keyframe {
+
+        private final int turn;
+
+        private final int event_count;
+
+        //the game in the binary packet form, decoded only when it is restored
+        private final byte[] snapshot;
+
+        public Keyframe(int turn, int event_count, byte[] snapshot) {
+            this.turn = turn;
+            this.event_count = event_count;
+            this.snapshot = snapshot;
+        }
+
+        public int getTurn() {
+            return turn;
+        }
+
+        public int getEventCount() {
+            return event_count;
+        }
+
+        public GameCore restore() throws JSONException {
+            return RecordCodec.readSnapshot(snapshot);
+        }
+
+    }
+
 }
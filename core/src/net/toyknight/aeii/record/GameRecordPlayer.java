@@ -1,11 +1,15 @@
 package net.toyknight.aeii.record;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
 import net.toyknight.aeii.GameContext;
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.entity.Player;
+import net.toyknight.aeii.manager.CheatingException;
+import net.toyknight.aeii.manager.GameEventExecutor;
 import net.toyknight.aeii.manager.GameManager;
 import net.toyknight.aeii.manager.GameEvent;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * @author toyknight 10/30/2015.
@@ -14,6 +18,8 @@ public class GameRecordPlayer {
 
     private static final String TAG = "Record Player";
 
+    private static final float[] SPEEDS = {1f, 2f, 4f, 16f};
+
     private final GameContext context;
 
     private GameRecordPlayerListener listener;
@@ -21,6 +27,10 @@ public class GameRecordPlayer {
     private GameRecord record;
     private float playback_delay;
     private boolean playback_finished;
+    private int event_index;
+    private int speed_index;
+
+    private final FastForwardEngine engine = new FastForwardEngine();
 
     public GameRecordPlayer(GameContext context) {
         this.context = context;
@@ -46,6 +56,60 @@ public class GameRecordPlayer {
         this.record = record;
         playback_delay = 0f;
         playback_finished = false;
+        event_index = 0;
+        speed_index = 0;
+        preparePlayers(record.getGame());
+        engine.setRecord(record);
+    }
+
+    public float getSpeed() {
+        return getRecord() == null ? 1f : SPEEDS[speed_index];
+    }
+
+    public void nextSpeed() {
+        speed_index = (speed_index + 1) % SPEEDS.length;
+    }
+
+    public int getTurnCount() {
+        return getRecord().getTurnCount();
+    }
+
+    public int getCurrentTurn() {
+        return getRecord().getTurn(event_index);
+    }
+
+    /**
+     * Continue the playback from the start of a turn. The game is restored from the nearest keyframe before the
+     * turn and the events between them are executed by the fast forward engine.
+     *
+     * @param turn the turn, counting the turn of every team
+     */
+    public void seek(int turn) {
+        if (getRecord() != null) {
+            try {
+                engine.seek(turn);
+                //the engine keeps its game to continue from it in the next seek
+                GameCore game = new GameCore(engine.getGame());
+                preparePlayers(game);
+                event_index = engine.getEventIndex();
+                playback_delay = 0f;
+                playback_finished = false;
+                getManager().setGame(game);
+                fireRecordSeekEvent(getCurrentTurn());
+            } catch (JSONException ex) {
+                Gdx.app.log(TAG, ex.toString());
+            } catch (CheatingException ex) {
+                Gdx.app.log(TAG, ex.toString());
+            }
+        }
+    }
+
+    private void preparePlayers(GameCore game) {
+        for (int team = 0; team < 4; team++) {
+            if (game.getMap().hasTeamAccess(team)) {
+                game.getPlayer(team).setType(Player.RECORD);
+            }
+        }
     }
 
     public void reset() {
@@ -53,39 +117,47 @@ public class GameRecordPlayer {
     }
 
     public void update(float delta) {
-        try {
-            if (getRecord() != null) {
-                if (getRecord().getEvents().isEmpty()) {
-                    if (!playback_finished) {
-                        playback_finished = true;
-                        fireRecordFinishEvent();
-                    }
+        if (getRecord() != null) {
+            delta *= getSpeed();
+            Array<GameEvent> events = getRecord().getEvents();
+            if (event_index >= events.size) {
+                if (!playback_finished) {
+                    playback_finished = true;
+                    fireRecordFinishEvent();
+                }
+            } else {
+                int type = events.get(event_index).getType();
+                if (type == GameEvent.TILE_DESTROY || type == GameEvent.ATTACK) {
+                    submitNextEvent();
                 } else {
-                    JSONObject preview = getRecord().getEvents().peek();
-                    int type = preview.getInt("type");
-                    if (type == GameEvent.TILE_DESTROY || type == GameEvent.ATTACK) {
-                        JSONObject event = getRecord().getEvents().poll();
-                        getManager().getGameEventExecutor().submitGameEvent(event);
+                    if (playback_delay < 1.0f) {
+                        playback_delay += delta;
                     } else {
-                        if (playback_delay < 1.0f) {
-                            playback_delay += delta;
-                        } else {
-                            playback_delay = 0f;
-                            JSONObject event = getRecord().getEvents().poll();
-                            getManager().getGameEventExecutor().submitGameEvent(event);
-                        }
+                        playback_delay = 0f;
+                        submitNextEvent();
                     }
                 }
             }
-        } catch (JSONException ex) {
-            Gdx.app.log(TAG, ex.toString());
         }
     }
 
+    //the executor frees the events it executed, so it gets a copy
+    private void submitNextEvent() {
+        GameEventExecutor executor = getManager().getGameEventExecutor();
+        GameEvent event = getRecord().getEvents().get(event_index++);
+        executor.submitGameEvent(executor.obtainGameEvent(event.getType()).set(event));
+    }
+
     private void fireRecordFinishEvent() {
         if (listener != null) {
             listener.onRecordPlaybackFinished();
         }
     }
 
+    private void fireRecordSeekEvent(int turn) {
+        if (listener != null) {
+            listener.onRecordSeek(turn);
+        }
+    }
+
 }
@@ -7,4 +7,6 @@ public interface GameRecordPlayerListener {
 
     void onRecordPlaybackFinished();
 
+    void onRecordSeek(int turn);
+
 }
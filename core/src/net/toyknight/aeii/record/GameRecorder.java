@@ -1,25 +1,44 @@
 package net.toyknight.aeii.record;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.esotericsoftware.kryo.io.Output;
 import net.toyknight.aeii.GameContext;
 import net.toyknight.aeii.concurrent.RecordSaveTask;
 import net.toyknight.aeii.entity.GameCore;
-import org.json.JSONObject;
+import net.toyknight.aeii.manager.GameEvent;
+import net.toyknight.aeii.utils.FileProvider;
+import net.toyknight.aeii.utils.GameToolkit;
+import org.json.JSONException;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.zip.CRC32;
 
 /**
+ * Writes the record in the streaming format while the game is played. The encoded events are appended to the
+ * record file by the async executor whenever a checksum frame is written and when the game ends. A keyframe of the
+ * game is written after every {@link RecordCodec#KEYFRAME_INTERVAL} turns.
+ *
  * @author toyknight 9/22/2015.
  */
 public class GameRecorder {
 
+    private static final String TAG = "Recorder";
+
     private final GameContext context;
 
-    private Queue<JSONObject> event_queue = new LinkedList<JSONObject>();
+    private final Output buffer = new Output(4096, -1);
+
+    private final CRC32 checksum = new CRC32();
 
     private boolean enabled = false;
 
-    private GameRecord record;
+    private FileHandle record_file;
+
+    private GameCore game;
+
+    private int event_count;
+
+    private int turn_count;
 
     public GameRecorder(GameContext context) {
         this.context = context;
@@ -31,29 +50,67 @@ public class GameRecorder {
 
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
-        event_queue.clear();
-        record = null;
+        record_file = null;
+        game = null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
     }
 
     public void prepare(GameCore game) {
         if (enabled) {
-            String V_STRING = getContext().getVerificationString();
-            record = new GameRecord(V_STRING);
-            record.setGame(new GameCore(game));
+            buffer.clear();
+            checksum.reset();
+            event_count = 0;
+            turn_count = 0;
+            this.game = game;
+            try {
+                String filename = GameToolkit.createFilename(GameToolkit.RECORD);
+                record_file = FileProvider.getUserFile("save/" + filename);
+                RecordCodec.writeHeader(buffer, getContext().getVerificationString(), game);
+                flush();
+            } catch (JSONException ex) {
+                Gdx.app.log(TAG, ex.toString());
+                record_file = null;
+            }
         }
     }
 
-    public void submitGameEvent(JSONObject event) {
-        if (enabled) {
-            event_queue.add(event);
+    public void submitGameEvent(GameEvent event) {
+        if (enabled && record_file != null) {
+            try {
+                RecordCodec.writeEvent(buffer, event, checksum);
+                event_count++;
+                //the event has been executed, so the game is the state after it
+                if (event.getType() == GameEvent.NEXT_TURN && ++turn_count % RecordCodec.KEYFRAME_INTERVAL == 0) {
+                    RecordCodec.writeKeyframe(buffer, turn_count, event_count, game, checksum);
+                }
+                if (event_count % RecordCodec.CHECKSUM_INTERVAL == 0) {
+                    RecordCodec.writeChecksum(buffer, checksum, event_count);
+                    flush();
+                }
+            } catch (JSONException ex) {
+                Gdx.app.log(TAG, ex.toString());
+            }
         }
     }
 
     public void save() {
-        if (enabled) {
-            record.setEvents(event_queue);
-            RecordSaveTask task = new RecordSaveTask(record);
-            getContext().submitAsyncTask(task);
+        if (enabled && record_file != null) {
+            if (event_count % RecordCodec.CHECKSUM_INTERVAL != 0) {
+                RecordCodec.writeChecksum(buffer, checksum, event_count);
+            }
+            flush();
+            record_file = null;
+            game = null;
+        }
+    }
+
+    private void flush() {
+        if (buffer.position() > 0) {
+            getContext().submitAsyncTask(new RecordSaveTask(record_file, buffer.toBytes()));
+            buffer.clear();
         }
     }
 
@@ -0,0 +1,238 @@
+package net.toyknight.aeii.record;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.manager.GameEvent;
+import net.toyknight.aeii.network.PacketCodec;
+import net.toyknight.aeii.utils.GameToolkit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.zip.CRC32;
+
+/**
+ * The streaming record format. The file type and the format version are followed by a header packet holding the
+ * verification string and the initial game, then by a stream of frames. An event frame holds the type and the
+ * integer parameters of an event as varints, with the path steps and hp changes delta encoded against the previous
+ * one. Every {@link #KEYFRAME_INTERVAL} turns a keyframe frame holds a snapshot of the game and the number of events
+ * before it, so a replay can seek without executing the record from its start. Every {@link #CHECKSUM_INTERVAL}
+ * events a checksum frame holds the CRC32 of the frames since the previous checksum, the events and keyframes after
+ * the last intact checksum of a damaged or unfinished record are dropped.
+ *
+ * @author agent 10/19/2026.
+ */
+public class RecordCodec {
+
+    public static final int VERSION = 2;
+
+    public static final int CHECKSUM_INTERVAL = 64;
+
+    public static final int KEYFRAME_INTERVAL = 8;
+
+    private static final byte FRAME_EVENT = 0x1;
+    private static final byte FRAME_CHECKSUM = 0x2;
+    private static final byte FRAME_KEYFRAME = 0x3;
+
+    private static final int FLAG_PATH = 0x1;
+    private static final int FLAG_HP_CHANGES = 0x2;
+    private static final int FLAG_PAYLOAD = 0x4;
+
+    private RecordCodec() {
+    }
+
+    public static void writeHeader(Output output, String v_string, GameCore game) throws JSONException {
+        output.writeInt(GameToolkit.RECORD_STREAM);
+        output.writeVarInt(VERSION, true);
+        JSONObject header = new JSONObject();
+        header.put("v_string", v_string);
+        header.put("game", game.toJson());
+        writeBytes(output, PacketCodec.encode(header));
+    }
+
+    /**
+     * Write an event frame.
+     *
+     * @param output   the output
+     * @param event    the event
+     * @param checksum updated with the frame
+     */
+    public static void writeEvent(Output output, GameEvent event, CRC32 checksum) throws JSONException {
+        int start = output.position();
+        output.writeByte(FRAME_EVENT);
+        output.writeVarInt(event.getType(), true);
+        int flags = 0;
+        if (event.getPath().size > 0) {
+            flags |= FLAG_PATH;
+        }
+        if (event.getHpChanges().size > 0) {
+            flags |= FLAG_HP_CHANGES;
+        }
+        if (event.hasPayload()) {
+            flags |= FLAG_PAYLOAD;
+        }
+        output.writeByte(flags);
+        output.writeVarInt(event.getValueCount(), true);
+        for (int i = 0; i < event.getValueCount(); i++) {
+            output.writeVarInt(event.getValue(i), false);
+        }
+        if ((flags & FLAG_PATH) != 0) {
+            writeDeltas(output, event.getPath(), 2);
+        }
+        if ((flags & FLAG_HP_CHANGES) != 0) {
+            writeDeltas(output, event.getHpChanges(), 3);
+        }
+        if ((flags & FLAG_PAYLOAD) != 0) {
+            JSONObject payload = new JSONObject();
+            payload.put("payload", event.getPayload());
+            writeBytes(output, PacketCodec.encode(payload));
+        }
+        checksum.update(output.getBuffer(), start, output.position() - start);
+    }
+
+    /**
+     * Write a keyframe frame.
+     *
+     * @param output      the output
+     * @param turn        the number of turns played so far
+     * @param event_count the number of events written so far
+     * @param game        the game after these events
+     * @param checksum    updated with the frame
+     */
+    public static void writeKeyframe(Output output, int turn, int event_count, GameCore game, CRC32 checksum)
+            throws JSONException {
+        int start = output.position();
+        output.writeByte(FRAME_KEYFRAME);
+        output.writeVarInt(turn, true);
+        output.writeVarInt(event_count, true);
+        writeBytes(output, PacketCodec.encode(game.toJson()));
+        checksum.update(output.getBuffer(), start, output.position() - start);
+    }
+
+    /**
+     * Write a checksum frame covering the frames since the previous one, and reset the checksum.
+     *
+     * @param output      the output
+     * @param checksum    the checksum of the frames
+     * @param event_count the number of events written so far
+     */
+    public static void writeChecksum(Output output, CRC32 checksum, int event_count) {
+        output.writeByte(FRAME_CHECKSUM);
+        output.writeInt((int) checksum.getValue());
+        output.writeVarInt(event_count, true);
+        checksum.reset();
+    }
+
+    /**
+     * Read a record in the streaming format, the file type has already been read.
+     *
+     * @param input the input over the whole file
+     * @return the record
+     */
+    public static GameRecord readRecord(Input input) throws JSONException, KryoException {
+        int version = input.readVarInt(true);
+        if (version != VERSION) {
+            throw new JSONException("Unsupported record version " + version);
+        }
+        JSONObject header = PacketCodec.decode(readBytes(input));
+        GameRecord record = new GameRecord(header.getString("v_string"));
+        record.setGame(new GameCore(header.getJSONObject("game")));
+
+        Array<GameEvent> events = new Array<GameEvent>();
+        Array<GameRecord.Keyframe> keyframes = new Array<GameRecord.Keyframe>();
+        CRC32 checksum = new CRC32();
+        int verified_event_count = 0;
+        int verified_keyframe_count = 0;
+        try {
+            while (input.position() < input.limit()) {
+                int start = input.position();
+                byte frame = input.readByte();
+                if (frame == FRAME_EVENT) {
+                    GameEvent event = readEvent(input);
+                    checksum.update(input.getBuffer(), start, input.position() - start);
+                    events.add(event);
+                } else if (frame == FRAME_KEYFRAME) {
+                    int turn = input.readVarInt(true);
+                    int event_count = input.readVarInt(true);
+                    byte[] snapshot = readBytes(input);
+                    checksum.update(input.getBuffer(), start, input.position() - start);
+                    keyframes.add(new GameRecord.Keyframe(turn, event_count, snapshot));
+                } else if (frame == FRAME_CHECKSUM) {
+                    int value = input.readInt();
+                    int event_count = input.readVarInt(true);
+                    if (value != (int) checksum.getValue() || event_count != events.size) {
+                        break;
+                    }
+                    verified_event_count = events.size;
+                    verified_keyframe_count = keyframes.size;
+                    checksum.reset();
+                } else {
+                    break;
+                }
+            }
+        } catch (KryoException ignored) {
+            //cut off in the middle of a frame
+        } catch (JSONException ignored) {
+            //damaged payload
+        }
+        events.truncate(verified_event_count);
+        keyframes.truncate(verified_keyframe_count);
+        record.setEvents(events);
+        record.setKeyframes(keyframes);
+        return record;
+    }
+
+    public static GameCore readSnapshot(byte[] snapshot) throws JSONException {
+        return new GameCore(PacketCodec.decode(snapshot));
+    }
+
+    private static GameEvent readEvent(Input input) throws JSONException {
+        GameEvent event = new GameEvent().setType(input.readVarInt(true));
+        int flags = input.readByte();
+        int value_count = input.readVarInt(true);
+        for (int i = 0; i < value_count; i++) {
+            event.add(input.readVarInt(false));
+        }
+        if ((flags & FLAG_PATH) != 0) {
+            readDeltas(input, event.getPath(), 2);
+        }
+        if ((flags & FLAG_HP_CHANGES) != 0) {
+            readDeltas(input, event.getHpChanges(), 3);
+        }
+        if ((flags & FLAG_PAYLOAD) != 0) {
+            event.setPayload(PacketCodec.decode(readBytes(input)).getJSONArray("payload"));
+        }
+        return event;
+    }
+
+    //every field of an entry is written as the difference to the same field of the previous entry
+    private static void writeDeltas(Output output, IntArray entries, int width) {
+        output.writeVarInt(entries.size / width, true);
+        for (int i = 0; i < entries.size; i++) {
+            int previous = i < width ? 0 : entries.get(i - width);
+            output.writeVarInt(entries.get(i) - previous, false);
+        }
+    }
+
+    private static void readDeltas(Input input, IntArray entries, int width) {
+        int size = input.readVarInt(true) * width;
+        entries.ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            int previous = i < width ? 0 : entries.get(i - width);
+            entries.add(previous + input.readVarInt(false));
+        }
+    }
+
+    private static void writeBytes(Output output, byte[] data) {
+        output.writeVarInt(data.length, true);
+        output.writeBytes(data);
+    }
+
+    private static byte[] readBytes(Input input) {
+        return input.readBytes(input.readVarInt(true));
+    }
+
+}
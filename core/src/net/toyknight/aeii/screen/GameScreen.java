@@ -11,10 +11,12 @@ import net.toyknight.aeii.AudioManager;
 import net.toyknight.aeii.GameContext;
 import net.toyknight.aeii.Callable;
 import net.toyknight.aeii.animation.*;
+import net.toyknight.aeii.concurrent.AsyncTask;
 import net.toyknight.aeii.entity.*;
 import net.toyknight.aeii.manager.CheatingException;
 import net.toyknight.aeii.manager.GameManager;
 import net.toyknight.aeii.network.NetworkManager;
+import net.toyknight.aeii.record.GameRecordPlayer;
 import net.toyknight.aeii.record.GameRecordPlayerListener;
 import net.toyknight.aeii.renderer.*;
 import net.toyknight.aeii.screen.dialog.*;
@@ -22,6 +24,8 @@ import net.toyknight.aeii.screen.widgets.ActionButtonBar;
 import net.toyknight.aeii.screen.widgets.CircleButton;
 import net.toyknight.aeii.screen.widgets.MessageBoard;
 import net.toyknight.aeii.network.entity.PlayerSnapshot;
+import net.toyknight.aeii.network.entity.ResumeSetting;
+import net.toyknight.aeii.network.entity.RoomSetting;
 import net.toyknight.aeii.utils.Language;
 import net.toyknight.aeii.utils.TileFactory;
 import org.json.JSONObject;
@@ -58,6 +62,9 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
 
     private TextButton btn_menu;
     private TextButton btn_end_turn;
+    private TextButton btn_record_backward;
+    private TextButton btn_record_speed;
+    private TextButton btn_record_forward;
     private CircleButton btn_message;
     private ActionButtonBar action_button_bar;
 
@@ -108,6 +115,41 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
         });
         this.addActor(btn_end_turn);
 
+        //record playback buttons, in place of the end turn button
+        int record_button_width = RIGHT_PANEL_WIDTH / 3;
+        this.btn_record_backward = new TextButton("<<", getContext().getSkin());
+        this.btn_record_backward.setBounds(
+                Gdx.graphics.getWidth() - RIGHT_PANEL_WIDTH, 0, record_button_width, ts);
+        this.btn_record_backward.addListener(new ClickListener() {
+            @Override
+            public void clicked(InputEvent event, float x, float y) {
+                seekRecord(-1);
+            }
+        });
+        this.addActor(btn_record_backward);
+        this.btn_record_speed = new TextButton("", getContext().getSkin());
+        this.btn_record_speed.setBounds(
+                Gdx.graphics.getWidth() - RIGHT_PANEL_WIDTH + record_button_width, 0,
+                RIGHT_PANEL_WIDTH - record_button_width * 2, ts);
+        this.btn_record_speed.addListener(new ClickListener() {
+            @Override
+            public void clicked(InputEvent event, float x, float y) {
+                getContext().getRecordPlayer().nextSpeed();
+                update();
+            }
+        });
+        this.addActor(btn_record_speed);
+        this.btn_record_forward = new TextButton(">>", getContext().getSkin());
+        this.btn_record_forward.setBounds(
+                Gdx.graphics.getWidth() - record_button_width, 0, record_button_width, ts);
+        this.btn_record_forward.addListener(new ClickListener() {
+            @Override
+            public void clicked(InputEvent event, float x, float y) {
+                seekRecord(1);
+            }
+        });
+        this.addActor(btn_record_forward);
+
         this.message_box = new MessageBox(this);
         this.message_box.setPosition(
                 viewport.width - message_box.getWidth() - (viewport.height - message_box.getHeight()) / 2,
@@ -311,6 +353,14 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
 
     @Override
     public void onDisconnect() {
+        if (NetworkManager.isResumable()) {
+            tryResumeSession();
+        } else {
+            showDisconnectedNotification();
+        }
+    }
+
+    private void showDisconnectedNotification() {
         showNotification(Language.getText("MSG_ERR_DFS"), new Callable() {
             @Override
             public void call() {
@@ -319,6 +369,52 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
         });
     }
 
+    private void tryResumeSession() {
+        final int previous_id = NetworkManager.getServiceID();
+        appendMessage(null, Language.getText("MSG_INFO_RCN"));
+        getContext().submitAsyncTask(new AsyncTask<ResumeSetting>() {
+            @Override
+            public ResumeSetting doTask() throws Exception {
+                return NetworkManager.requestResumeSession();
+            }
+
+            @Override
+            public void onFinish(ResumeSetting setting) {
+                if (setting == null) {
+                    NetworkManager.disconnect();
+                    showDisconnectedNotification();
+                } else {
+                    onSessionResumed(setting, previous_id);
+                }
+            }
+
+            @Override
+            public void onFail(String message) {
+                NetworkManager.disconnect();
+                showDisconnectedNotification();
+            }
+        });
+    }
+
+    private void onSessionResumed(ResumeSetting setting, int previous_id) {
+        if (setting.isSnapshot()) {
+            RoomSetting room_setting = setting.room_setting;
+            getContext().getRoomManager().initialize(room_setting);
+            getContext().gotoGameScreen(getContext().getRoomManager().getArrangedGame());
+            getContext().getGameManager().syncState(
+                    room_setting.manager_state, room_setting.selected_unit_x, room_setting.selected_unit_y);
+        } else {
+            getContext().getRoomManager().onPlayerResume(previous_id, NetworkManager.getServiceID());
+            for (JSONObject event : setting.events) {
+                event.put("remote", true);
+                getGameManager().getGameEventExecutor().submitGameEvent(event);
+            }
+        }
+        NetworkManager.finishResume(setting.sequence);
+        message_box.setPlayers(getContext().getRoomManager().getPlayers());
+        appendMessage(null, Language.getText("MSG_INFO_RCS"));
+    }
+
     @Override
     public void onAllocationUpdate(int[] alliance, int[] allocation, int[] types) {
         super.onAllocationUpdate(alliance, allocation, types);
@@ -403,7 +499,9 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
 
         getContext().getRecordPlayer().update(delta);
         try {
-            getContext().getGameManager().update(delta);
+            //animations of records are played at the playback speed
+            float speed = isPlayingRecord() ? getContext().getRecordPlayer().getSpeed() : 1f;
+            getContext().getGameManager().update(delta * speed);
         } catch (CheatingException ex) {
             onCheatingDetected(ex);
         }
@@ -475,6 +573,20 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
                 message_board.display();
                 showDialog("message");
             }
+            if (isPlayingRecord()) {
+                switch (keyCode) {
+                    case Input.Keys.PAGE_UP:
+                        seekRecord(-1);
+                        return true;
+                    case Input.Keys.PAGE_DOWN:
+                        seekRecord(1);
+                        return true;
+                    case Input.Keys.S:
+                        getContext().getRecordPlayer().nextSpeed();
+                        update();
+                        return true;
+                }
+            }
             switch (getGameManager().getState()) {
                 case GameManager.STATE_BUY:
                     if (keyCode == Input.Keys.A && action_button_bar.isButtonAvailable("attack")) {
@@ -738,6 +850,14 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
     }
 
     public void update() {
+        boolean playing_record = isPlayingRecord();
+        btn_end_turn.setVisible(!playing_record);
+        btn_record_backward.setVisible(playing_record);
+        btn_record_speed.setVisible(playing_record);
+        btn_record_forward.setVisible(playing_record);
+        if (playing_record) {
+            btn_record_speed.setText("x" + (int) getContext().getRecordPlayer().getSpeed());
+        }
         action_button_bar.updateButtons();
         btn_message.setVisible(NetworkManager.isConnected() && !message_box.isVisible());
         message_board.setFading(!message_box.isVisible());
@@ -758,6 +878,16 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
         }
     }
 
+    public boolean isPlayingRecord() {
+        return getContext().getRecordPlayer().getRecord() != null
+                && getGame().getCurrentPlayer().getType() == Player.RECORD;
+    }
+
+    private void seekRecord(int direction) {
+        GameRecordPlayer record_player = getContext().getRecordPlayer();
+        record_player.seek(record_player.getCurrentTurn() + direction);
+    }
+
     public boolean canOperate() {
         return getGame().getCurrentPlayer().getType() == Player.LOCAL
                 && !getGameManager().isProcessing()
@@ -790,6 +920,12 @@ public class GameScreen extends StageScreen implements MapCanvas, GameRecordPlay
         appendMessage(null, Language.getText("MSG_INFO_RPF"));
     }
 
+    @Override
+    public void onRecordSeek(int turn) {
+        mini_map.setMap(getGame().getMap());
+        update();
+    }
+
     @Override
     public Map getMap() {
         return getGame().getMap();
@@ -324,6 +324,16 @@ public class LobbyScreen extends StageScreen implements NetworkListener {
         chat_room_dialog.appendMessage(username, message);
     }
 
+    @Override
+    public void onRoomListUpdate() {
+        if (NetworkManager.isRoomListValid()) {
+            all_rooms = NetworkManager.getRoomList();
+            applySearch();
+        } else {
+            refreshGameList();
+        }
+    }
+
     private class ModeSelectDialog extends BasicDialog {
 
         private final TextButton btn_new_game;
@@ -267,20 +267,23 @@ public class MapManagementScreen extends StageScreen {
 
     private void downloadSelectedMap() {
         if (checkSelectedMap()) {
-            final int map_id = ((MapSnapshot) server_map_list.getSelected()).getID();
-            final String filename = ((MapSnapshot) server_map_list.getSelected()).getFilename();
+            final MapSnapshot snapshot = (MapSnapshot) server_map_list.getSelected();
+            final String filename = snapshot.getFilename();
             showPlaceholder(Language.getText("LB_DOWNLOADING"));
             getContext().submitAsyncTask(new AsyncTask<Void>() {
                 @Override
                 public Void doTask() throws Exception {
-                    if (connect()) {
-                        Map map = NetworkManager.requestDownloadMap(map_id);
-                        NetworkManager.disconnect();
-                        tryWriteMap(map, filename);
-                        return null;
-                    } else {
-                        throw new AEIIException(Language.getText("MSG_ERR_CCS"));
+                    Map map = NetworkManager.getCachedMap(snapshot);
+                    if (map == null) {
+                        if (connect()) {
+                            map = NetworkManager.requestDownloadMap(snapshot);
+                            NetworkManager.disconnect();
+                        } else {
+                            throw new AEIIException(Language.getText("MSG_ERR_CCS"));
+                        }
                     }
+                    tryWriteMap(map, filename);
+                    return null;
                 }
 
                 @Override
@@ -352,18 +355,21 @@ public class MapManagementScreen extends StageScreen {
 
     private void previewSelectedServerMap() {
         if (checkSelectedMap()) {
-            final int map_id = ((MapSnapshot) server_map_list.getSelected()).getID();
+            final MapSnapshot snapshot = (MapSnapshot) server_map_list.getSelected();
             showPlaceholder(Language.getText("LB_DOWNLOADING"));
             getContext().submitAsyncTask(new AsyncTask<Map>() {
                 @Override
                 public Map doTask() throws Exception {
-                    if (connect()) {
-                        Map map = NetworkManager.requestDownloadMap(map_id);
-                        NetworkManager.disconnect();
-                        return map;
-                    } else {
-                        throw new AEIIException(Language.getText("MSG_ERR_CCS"));
+                    Map map = NetworkManager.getCachedMap(snapshot);
+                    if (map == null) {
+                        if (connect()) {
+                            map = NetworkManager.requestDownloadMap(snapshot);
+                            NetworkManager.disconnect();
+                        } else {
+                            throw new AEIIException(Language.getText("MSG_ERR_CCS"));
+                        }
                     }
+                    return map;
                 }
 
                 @Override
@@ -23,6 +23,8 @@ import net.toyknight.aeii.screen.widgets.StringList;
 import net.toyknight.aeii.utils.Language;
 import net.toyknight.aeii.utils.MapFactory;
 
+import java.util.Random;
+
 /**
  * @author toyknight 6/21/2015.
  */
@@ -174,6 +176,7 @@ public class SkirmishGameCreateScreen extends StageScreen implements StringList.
                 spinner_gold.setSelectedIndex(0);
                 spinner_population.setSelectedIndex(0);
                 GameCore game = new GameCore(selected_map, Rule.createDefault(), Rule.GOLD_PRESET[0], GameCore.SKIRMISH);
+                game.setRandomSeed(new Random().nextLong());
                 getContext().getRoomManager().setGame(game);
                 updateView();
             }
@@ -291,4 +291,8 @@ public class StageScreen extends Stage implements Screen, NetworkListener {
     public void onReceiveMessage(String username, String message) {
     }
 
+    @Override
+    public void onRoomListUpdate() {
+    }
+
 }
\ No newline at end of file
@@ -100,6 +100,7 @@ public class GameLoadDialog extends BasicDialog {
                     tryStartGame(save_file);
                     break;
                 case GameToolkit.RECORD:
+                case GameToolkit.RECORD_STREAM:
                     tryStartRecord(save_file);
                     break;
                 default:
@@ -139,14 +140,9 @@ public class GameLoadDialog extends BasicDialog {
         } else {
             if (getContext().getVerificationString().equals(record.getVerificationString())) {
                 getContext().getGameManager().getGameRecorder().setEnabled(false);
-                for (int team = 0; team < 4; team++) {
-                    Player player = record.getGame().getPlayer(team);
-                    if (record.getGame().getMap().hasTeamAccess(team)) {
-                        player.setType(Player.RECORD);
-                    }
-                }
                 getContext().getRecordPlayer().setRecord(record);
-                getContext().gotoGameScreen(record.getGame());
+                //the initial game stays untouched for seeking
+                getContext().gotoGameScreen(new GameCore(record.getGame()));
             } else {
                 getOwner().showNotification(Language.getText("MSG_ERR_RVM"), null);
             }
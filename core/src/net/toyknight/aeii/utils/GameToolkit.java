@@ -10,6 +10,7 @@ import net.toyknight.aeii.AEIIException;
 import net.toyknight.aeii.campaign.StageController;
 import net.toyknight.aeii.entity.*;
 import net.toyknight.aeii.record.GameRecord;
+import net.toyknight.aeii.record.RecordCodec;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -17,6 +18,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Random;
 
 /**
  * @author toyknight 9/17/2015.
@@ -27,6 +29,7 @@ public class GameToolkit {
 
     public static final int SAVE = 0x1;
     public static final int RECORD = 0x2;
+    public static final int RECORD_STREAM = 0x3;
 
     private static final DateFormat date_format = new SimpleDateFormat("MMddyyyy-HHmmss", Locale.getDefault());
 
@@ -39,6 +42,7 @@ public class GameToolkit {
         Rule rule = stage.getRule();
 
         GameCore game = new GameCore(map, rule, stage.getStartGold(), GameCore.CAMPAIGN);
+        game.setRandomSeed(new Random().nextLong());
         for (int team = 0; team < 4; team++) {
             if (game.getMap().hasTeamAccess(team)) {
                 game.getPlayer(team).setAlliance(team);
@@ -107,16 +111,31 @@ public class GameToolkit {
 
     public static GameRecord loadRecord(FileHandle record_file) {
         try {
-            Input input = new Input(record_file.read());
-            int type = input.readInt();
-            if (type == RECORD) {
-                return new GameRecord(new JSONObject(input.readString()));
-            } else {
-                return null;
-            }
+            return readRecord(record_file.readBytes());
         } catch (JSONException ex) {
             Gdx.app.log(TAG, ex.toString());
             return null;
+        } catch (KryoException ex) {
+            Gdx.app.log(TAG, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Read a record in either the JSON or the streaming format.
+     *
+     * @param data the content of the record file
+     * @return the record, or null if the data is not a record
+     */
+    public static GameRecord readRecord(byte[] data) throws JSONException, KryoException {
+        Input input = new Input(data);
+        switch (input.readInt()) {
+            case RECORD:
+                return new GameRecord(new JSONObject(input.readString()));
+            case RECORD_STREAM:
+                return RecordCodec.readRecord(input);
+            default:
+                return null;
         }
     }
 
@@ -11,6 +11,7 @@ import net.toyknight.aeii.entity.Tile;
 import net.toyknight.aeii.entity.Unit;
 
 import java.io.*;
+import java.util.Comparator;
 import java.util.Scanner;
 
 /**
@@ -115,6 +116,95 @@ public class MapFactory {
         fos.close();
     }
 
+    /**
+     * The content hash is the MD5 of the map in the binary map format with the units ordered by position, so the
+     * same map hashes the same whether it is read from a file or received as JSON.
+     *
+     * @param map the map
+     * @return the content hash of the map
+     */
+    public static String getContentHash(Map map) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(buffer);
+            dos.writeUTF(map.getAuthor());
+            for (int team = 0; team < 4; team++) {
+                dos.writeBoolean(map.hasTeamAccess(team));
+            }
+            dos.writeInt(map.getWidth());
+            dos.writeInt(map.getHeight());
+            for (int x = 0; x < map.getWidth(); x++) {
+                for (int y = 0; y < map.getHeight(); y++) {
+                    dos.writeShort(map.getTileIndex(x, y));
+                }
+            }
+            Array<Unit> unit_list = map.getUnits().toArray();
+            unit_list.sort(new Comparator<Unit>() {
+                @Override
+                public int compare(Unit a, Unit b) {
+                    return a.getX() != b.getX() ? a.getX() - b.getX() : a.getY() - b.getY();
+                }
+            });
+            dos.writeInt(unit_list.size);
+            for (Unit unit : unit_list) {
+                dos.writeInt(unit.getTeam());
+                dos.writeInt(unit.getIndex());
+                dos.writeInt(unit.getX());
+                dos.writeInt(unit.getY());
+            }
+            dos.flush();
+            return new MD5Converter().toMD5(buffer.toByteArray());
+        } catch (IOException ex) {
+            //writing to memory does not fail
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Get a map from the local content addressed cache of downloaded maps.
+     *
+     * @param hash the content hash of the map
+     * @return the cached map, or null if the hash is malformed, the map is not cached or the cached file is damaged
+     */
+    public static Map getCachedMap(String hash) {
+        if (!isContentHash(hash)) {
+            return null;
+        }
+        FileHandle map_file = FileProvider.getUserFile("map-cache/" + hash + ".aem");
+        if (map_file.exists()) {
+            try {
+                Map map = createMap(map_file);
+                if (hash.equals(getContentHash(map))) {
+                    return map;
+                }
+            } catch (AEIIException ignored) {
+            }
+            map_file.delete();
+        }
+        return null;
+    }
+
+    public static void cacheMap(Map map, String hash) throws IOException {
+        if (!isContentHash(hash)) {
+            throw new IOException("Illegal map hash");
+        }
+        writeMap(map, FileProvider.getUserFile("map-cache/" + hash + ".aem"));
+    }
+
+    //the hash names a file in the cache, so anything but 32 lowercase hex digits is refused before touching it
+    private static boolean isContentHash(String hash) {
+        if (hash == null || hash.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void createTeamAccess(Map map) {
         map.resetTeamAccess();
         for (int x = 0; x < map.getWidth(); x++) {
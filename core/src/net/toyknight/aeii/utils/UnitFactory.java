@@ -8,6 +8,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.InputStreamReader;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author toyknight 4/3/2015.
@@ -15,7 +16,8 @@ import java.io.InputStreamReader;
 public class UnitFactory {
 
     private static Unit[] default_units;
-    private static long current_code;
+    //games are played or replayed on several threads by the server and the analytics
+    private static final AtomicLong current_code = new AtomicLong();
 
     private static UnitConfiguration unit_config;
 
@@ -89,7 +91,7 @@ public class UnitFactory {
     }
 
     public static Unit createUnit(int index, int team) {
-        String unit_code = "#" + Long.toString(current_code++);
+        String unit_code = "#" + Long.toString(current_code.getAndIncrement());
         return createUnit(index, team, unit_code);
     }
 
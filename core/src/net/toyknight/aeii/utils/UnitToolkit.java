@@ -9,8 +9,6 @@ import java.util.*;
  */
 public class UnitToolkit {
 
-    private static final Random random = new Random(System.currentTimeMillis());
-
     private GameCore game;
 
     public UnitToolkit(GameCore game) {
@@ -199,8 +197,8 @@ public class UnitToolkit {
         int damage = attack > defence ? attack - defence : 0;
         int attacker_hp = attacker.getCurrentHp();
         int attacker_max_hp = attacker.getMaxHp();
-        //calculate random damage offset
-        int offset = apply_rng ? random.nextInt(5) - 2 : 0;
+        //calculate random damage offset, drawn when the attack is executed
+        int offset = apply_rng ? getGame().getRandom(5) - 2 : 0;
         //calculate final damage
         damage = damage * attacker_hp / attacker_max_hp;
         damage = damage > 0 ? damage : 0;
@@ -0,0 +1,46 @@
+package net.toyknight.aeii.loadtest;
+
+import com.badlogic.gdx.utils.LongArray;
+
+import java.util.Arrays;
+
+/**
+ * Keeps every sample so that the reported percentiles are exact.
+ *
+ * @author agent 10/19/2026.
+ */
+public class LatencyRecorder {
+
+    private final Object SAMPLE_LOCK = new Object();
+
+    private final LongArray samples = new LongArray();
+
+    public void record(long nanos) {
+        synchronized (SAMPLE_LOCK) {
+            samples.add(nanos / 1000);
+        }
+    }
+
+    public String createReport() {
+        long[] sorted;
+        synchronized (SAMPLE_LOCK) {
+            sorted = samples.toArray();
+        }
+        if (sorted.length == 0) {
+            return "no samples";
+        }
+        Arrays.sort(sorted);
+        return String.format("count %d, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                sorted.length,
+                getPercentile(sorted, 0.5) / 1000f,
+                getPercentile(sorted, 0.9) / 1000f,
+                getPercentile(sorted, 0.99) / 1000f,
+                sorted[sorted.length - 1] / 1000f);
+    }
+
+    private long getPercentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+}
@@ -0,0 +1,151 @@
+package net.toyknight.aeii.loadtest;
+
+/**
+ * @author agent 10/19/2026.
+ */
+public class LoadTestConfiguration {
+
+    public static final String USAGE = "Options:\n" +
+            "  --host <address>          server address (default 127.0.0.1)\n" +
+            "  --port <port>             server port (default 5438)\n" +
+            "  --rooms <count>           simulated rooms (default 100)\n" +
+            "  --room-size <count>       clients per room, the host plays every team (default 2)\n" +
+            "  --lobby <count>           clients that stay in the lobby and chat (default 50)\n" +
+            "  --duration <seconds>      length of the test (default 300)\n" +
+            "  --ramp-up <seconds>       time over which the clients are started (default 30)\n" +
+            "  --event-interval <ms>     delay between two event submissions of a room (default 500)\n" +
+            "  --chat-interval <ms>      delay between two actions of a lobby client (default 5000)\n" +
+            "  --report-interval <s>     delay between two reports (default 10)\n" +
+            "  --threads <count>         threads driving the simulations (default 64)\n" +
+            "  --records <directory>     game records to replay (default: next turn events only)\n" +
+            "  --maps <directory>        maps for new games (default map)\n" +
+            "  --admin-token <token>     poll the server metrics with this token\n" +
+            "Every client runs its own network thread and holds about 4 file descriptors, run several\n" +
+            "load generators to simulate more clients than one process can hold.";
+
+    private String host = "127.0.0.1";
+
+    private int port = 5438;
+
+    private int room_count = 100;
+
+    private int room_size = 2;
+
+    private int lobby_client_count = 50;
+
+    private long duration = 300 * 1000;
+
+    private long ramp_up = 30 * 1000;
+
+    private long event_interval = 500;
+
+    private long chat_interval = 5000;
+
+    private long report_interval = 10 * 1000;
+
+    private int thread_count = 64;
+
+    private String record_directory = null;
+
+    private String map_directory = "map";
+
+    private String admin_token = null;
+
+    public void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            }
+            String value = args[++i];
+            if (option.equals("--host")) {
+                host = value;
+            } else if (option.equals("--port")) {
+                port = Integer.parseInt(value);
+            } else if (option.equals("--rooms")) {
+                room_count = Integer.parseInt(value);
+            } else if (option.equals("--room-size")) {
+                room_size = Math.max(1, Integer.parseInt(value));
+            } else if (option.equals("--lobby")) {
+                lobby_client_count = Integer.parseInt(value);
+            } else if (option.equals("--duration")) {
+                duration = Long.parseLong(value) * 1000;
+            } else if (option.equals("--ramp-up")) {
+                ramp_up = Long.parseLong(value) * 1000;
+            } else if (option.equals("--event-interval")) {
+                event_interval = Long.parseLong(value);
+            } else if (option.equals("--chat-interval")) {
+                chat_interval = Long.parseLong(value);
+            } else if (option.equals("--report-interval")) {
+                report_interval = Long.parseLong(value) * 1000;
+            } else if (option.equals("--threads")) {
+                thread_count = Integer.parseInt(value);
+            } else if (option.equals("--records")) {
+                record_directory = value;
+            } else if (option.equals("--maps")) {
+                map_directory = value;
+            } else if (option.equals("--admin-token")) {
+                admin_token = value;
+            } else {
+                throw new IllegalArgumentException("Undefined option " + option);
+            }
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getRoomCount() {
+        return room_count;
+    }
+
+    public int getRoomSize() {
+        return room_size;
+    }
+
+    public int getLobbyClientCount() {
+        return lobby_client_count;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getRampUp() {
+        return ramp_up;
+    }
+
+    public long getEventInterval() {
+        return event_interval;
+    }
+
+    public long getChatInterval() {
+        return chat_interval;
+    }
+
+    public long getReportInterval() {
+        return report_interval;
+    }
+
+    public int getThreadCount() {
+        return thread_count;
+    }
+
+    public String getRecordDirectory() {
+        return record_directory;
+    }
+
+    public String getMapDirectory() {
+        return map_directory;
+    }
+
+    public String getAdminToken() {
+        return admin_token;
+    }
+
+}
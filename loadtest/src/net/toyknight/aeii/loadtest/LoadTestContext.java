@@ -0,0 +1,263 @@
+package net.toyknight.aeii.loadtest;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.AEIIException;
+import net.toyknight.aeii.GameContext;
+import net.toyknight.aeii.entity.Map;
+import net.toyknight.aeii.network.NetworkConstants;
+import net.toyknight.aeii.record.GameRecord;
+import net.toyknight.aeii.utils.GameToolkit;
+import net.toyknight.aeii.utils.MD5Converter;
+import net.toyknight.aeii.utils.MapFactory;
+import net.toyknight.aeii.utils.TileFactory;
+import net.toyknight.aeii.utils.UnitFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every simulated client owns a kryonet client, which needs its own update thread and selector, so one process
+ * runs as many clients as its thread and file descriptor limits allow, a few thousand with a raised descriptor
+ * limit. Run several load generators to go beyond.
+ *
+ * @author agent 10/19/2026.
+ */
+public class LoadTestContext {
+
+    private static final String TAG = "LOAD TEST";
+
+    //the socket, the selector and its wakeup pipe
+    private static final int DESCRIPTORS_PER_CLIENT = 4;
+
+    private final LoadTestConfiguration configuration;
+
+    private final LoadTestStatistics statistics;
+
+    private final ScheduledExecutorService executor;
+
+    private final Array<GameRecord> records = new Array<GameRecord>();
+
+    private final Array<Map> maps = new Array<Map>();
+
+    private final AtomicInteger scenario_index = new AtomicInteger();
+
+    private String v_string;
+
+    private SimulatedClient admin;
+
+    private volatile boolean stopping;
+
+    private long start_time;
+
+    public LoadTestContext(LoadTestConfiguration configuration) {
+        this.configuration = configuration;
+        this.statistics = new LoadTestStatistics();
+        this.executor = Executors.newScheduledThreadPool(configuration.getThreadCount());
+    }
+
+    public LoadTestConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    public LoadTestStatistics getStatistics() {
+        return statistics;
+    }
+
+    public String getVerificationString() {
+        return v_string;
+    }
+
+    public boolean isStopping() {
+        return stopping;
+    }
+
+    public void schedule(Runnable task, long delay) {
+        if (!isStopping()) {
+            executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public GameRecord nextRecord() {
+        return records.size > 0 ? records.get(scenario_index.getAndIncrement() % records.size) : null;
+    }
+
+    public Map nextMap() {
+        return maps.get(scenario_index.getAndIncrement() % maps.size);
+    }
+
+    public void initialize() throws AEIIException {
+        String V_STRING = TileFactory.getVerificationString() + UnitFactory.getVerificationString()
+                + GameContext.INTERNAL_VERSION;
+        v_string = new MD5Converter().toMD5(V_STRING);
+        if (getConfiguration().getRecordDirectory() != null) {
+            loadRecords(new File(getConfiguration().getRecordDirectory()));
+        }
+        if (records.size == 0) {
+            loadMaps(new File(getConfiguration().getMapDirectory()));
+            if (maps.size == 0) {
+                throw new AEIIException("No record or map to play");
+            }
+        }
+        Log.info(TAG, String.format("Loaded %d records and %d maps", records.size, maps.size));
+    }
+
+    private void loadRecords(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    GameRecord record = GameToolkit.readRecord(new FileHandle(file).readBytes());
+                    if (record != null) {
+                        records.add(record);
+                    }
+                } catch (GdxRuntimeException ex) {
+                    Log.error(TAG, String.format("Error loading record %s", file.getName()), ex);
+                } catch (KryoException ex) {
+                    Log.error(TAG, String.format("Broken record %s", file.getName()), ex);
+                } catch (JSONException ex) {
+                    Log.error(TAG, String.format("Broken record %s", file.getName()), ex);
+                }
+            }
+        }
+    }
+
+    private void loadMaps(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".aem")) {
+                    DataInputStream dis = null;
+                    try {
+                        dis = new DataInputStream(new FileInputStream(file));
+                        maps.add(MapFactory.createMap(dis));
+                    } catch (IOException ex) {
+                        Log.error(TAG, String.format("Error loading map %s", file.getName()), ex);
+                    } catch (AEIIException ex) {
+                        Log.error(TAG, String.format("Broken map %s", file.getName()), ex);
+                    } finally {
+                        if (dis != null) {
+                            try {
+                                dis.close();
+                            } catch (IOException ignored) {
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void run() throws InterruptedException {
+        start_time = System.currentTimeMillis();
+        int room_count = getConfiguration().getRoomCount();
+        int lobby_client_count = getConfiguration().getLobbyClientCount();
+        int total = Math.max(1, room_count + lobby_client_count);
+        checkClientCeiling(room_count * getConfiguration().getRoomSize() + lobby_client_count);
+        //spread the clients evenly over the ramp up time
+        for (int i = 0; i < room_count; i++) {
+            schedule(new RoomSimulation(this, i), getConfiguration().getRampUp() * i / total);
+        }
+        for (int i = 0; i < lobby_client_count; i++) {
+            schedule(new LobbySimulation(this, i), getConfiguration().getRampUp() * (room_count + i) / total);
+        }
+        if (getConfiguration().getAdminToken() != null) {
+            admin = new SimulatedClient(this, "load test admin");
+        }
+        executor.scheduleAtFixedRate(new ReportingTask(),
+                getConfiguration().getReportInterval(), getConfiguration().getReportInterval(), TimeUnit.MILLISECONDS);
+        Thread.sleep(getConfiguration().getDuration());
+        stopping = true;
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println(createReport("Final report"));
+    }
+
+    private void checkClientCeiling(int client_count) {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+            long ceiling = (unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount()) / DESCRIPTORS_PER_CLIENT;
+            if (client_count > ceiling) {
+                Log.info(TAG, String.format(
+                        "%d clients exceed the %d this process can open, raise the file descriptor limit " +
+                                "or run several load generators", client_count, ceiling));
+            }
+        }
+    }
+
+    private String createReport(String title) {
+        StringBuilder report = new StringBuilder();
+        long elapsed = (System.currentTimeMillis() - start_time) / 1000;
+        report.append(String.format("%s after %d s\n", title, elapsed));
+        report.append(getStatistics().createReport());
+        if (admin != null) {
+            report.append(createServerReport());
+        }
+        return report.toString();
+    }
+
+    private String createServerReport() {
+        if (!admin.isConnected() && !admin.connect()) {
+            return "  server metrics unavailable\n";
+        }
+        JSONObject request = SimulatedClient.createPacket(NetworkConstants.REQUEST, NetworkConstants.SERVER_METRICS);
+        request.put("token", getConfiguration().getAdminToken());
+        JSONObject response = admin.request("server metrics", request);
+        if (response == null || !response.has("metrics")) {
+            return "  server metrics unavailable\n";
+        }
+        JSONObject metrics = response.getJSONObject("metrics");
+        JSONObject players = metrics.getJSONObject("players");
+        JSONObject rooms = metrics.getJSONObject("rooms");
+        JSONObject executors = metrics.getJSONObject("executors");
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("  server: %d players, %d rooms, %d queued events, %d bytes sent\n",
+                players.getInt("connected"), rooms.getInt("count"),
+                rooms.getInt("mailbox_depth"), players.getLong("sent_bytes")));
+        report.append(String.format("  server executors: %d queued requests, %d queued notifications\n",
+                executors.getJSONObject("request").getInt("queued"),
+                executors.getJSONObject("notification").getInt("queued")));
+        if (players.has("outbound")) {
+            JSONObject outbound = players.getJSONObject("outbound");
+            report.append(String.format("  server outbound: %d queued packets (at most %d per connection), " +
+                            "%d coalesced, %d dropped, %d overflowed\n",
+                    outbound.getLong("queued_packets"), outbound.getInt("max_queued_packets"),
+                    outbound.getLong("coalesced"), outbound.getLong("dropped"), outbound.getLong("overflowed")));
+        }
+        if (metrics.has("runtime")) {
+            JSONObject runtime = metrics.getJSONObject("runtime");
+            report.append(String.format("  server runtime: %d/%d MB heap, %d threads, load %.2f\n",
+                    runtime.getLong("heap_used") >> 20, runtime.getLong("heap_max") >> 20,
+                    runtime.getInt("threads"), runtime.getDouble("load_average")));
+        }
+        return report.toString();
+    }
+
+    private class ReportingTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                System.out.println(createReport("Report"));
+            } catch (Exception ex) {
+                Log.error(TAG, "Error creating report", ex);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,40 @@
+package net.toyknight.aeii.loadtest;
+
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.AEIIException;
+import net.toyknight.aeii.utils.TileFactory;
+import net.toyknight.aeii.utils.UnitFactory;
+
+/**
+ * @author agent 10/19/2026.
+ */
+public class LoadTestLauncher {
+
+    private static final String TAG = "LOAD TEST";
+
+    public static void main(String[] args) {
+        LoadTestConfiguration configuration = new LoadTestConfiguration();
+        try {
+            configuration.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            System.out.println(LoadTestConfiguration.USAGE);
+            System.exit(-1);
+        }
+        try {
+            UnitFactory.loadUnitData();
+            TileFactory.loadTileData();
+            LoadTestContext context = new LoadTestContext(configuration);
+            context.initialize();
+            context.run();
+            System.exit(0);
+        } catch (AEIIException ex) {
+            Log.error(TAG, "Failed launching the load test", ex);
+            System.exit(-1);
+        } catch (InterruptedException ex) {
+            Log.error(TAG, "Load test interrupted", ex);
+            System.exit(-1);
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package net.toyknight.aeii.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author agent 10/19/2026.
+ */
+public class LoadTestStatistics {
+
+    public static final String CONNECTED = "connected";
+    public static final String CONNECTION_FAILED = "connection failed";
+    public static final String DISCONNECTED = "disconnected";
+    public static final String TIMEOUT = "request timeout";
+    public static final String REJECTED = "request rejected";
+    public static final String CHEATING = "cheating detected";
+    public static final String ROOMS_STARTED = "rooms started";
+    public static final String ROOMS_FINISHED = "rooms finished";
+    public static final String EVENTS_SUBMITTED = "events submitted";
+    public static final String EVENTS_RECEIVED = "events received";
+    public static final String MESSAGES_SENT = "messages sent";
+    public static final String MESSAGES_RECEIVED = "messages received";
+    public static final String ROOM_LIST_NOT_MODIFIED = "room list not modified";
+    public static final String ROOM_LIST_UPDATES = "room list updates";
+
+    private final ConcurrentHashMap<String, LatencyRecorder> recorders =
+            new ConcurrentHashMap<String, LatencyRecorder>();
+
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    public void recordLatency(String name, long nanos) {
+        LatencyRecorder recorder = recorders.get(name);
+        if (recorder == null) {
+            LatencyRecorder created = new LatencyRecorder();
+            recorder = recorders.putIfAbsent(name, created);
+            if (recorder == null) {
+                recorder = created;
+            }
+        }
+        recorder.record(nanos);
+    }
+
+    public void increase(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    public String createReport() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            report.append(String.format("  %-24s %d\n", entry.getKey(), entry.getValue().get()));
+        }
+        for (Map.Entry<String, LatencyRecorder> entry :
+                new TreeMap<String, LatencyRecorder>(recorders).entrySet()) {
+            report.append(String.format("  %-24s %s\n", entry.getKey(), entry.getValue().createReport()));
+        }
+        return report.toString();
+    }
+
+}
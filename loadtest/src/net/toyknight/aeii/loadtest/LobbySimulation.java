@@ -0,0 +1,92 @@
+package net.toyknight.aeii.loadtest;
+
+import net.toyknight.aeii.network.NetworkConstants;
+import org.json.JSONObject;
+
+/**
+ * A client that stays in the lobby, browsing the room list, the idle players and chatting.
+ *
+ * @author agent 10/19/2026.
+ */
+public class LobbySimulation implements Runnable, SimulatedClient.ClientListener {
+
+    private static final long RETRY_DELAY = 5000;
+
+    private final LoadTestContext context;
+
+    private final SimulatedClient client;
+
+    private int action = 0;
+
+    private volatile long room_list_version = -1;
+
+    public LobbySimulation(LoadTestContext context, int index) {
+        this.context = context;
+        this.client = new SimulatedClient(context, String.format("lobby%d", index));
+        this.client.setListener(this);
+    }
+
+    public LoadTestContext getContext() {
+        return context;
+    }
+
+    @Override
+    public void run() {
+        if (getContext().isStopping()) {
+            client.close();
+            return;
+        }
+        if (!client.isConnected() && !client.connect()) {
+            getContext().schedule(this, RETRY_DELAY);
+            return;
+        }
+        switch (action++ % 3) {
+            case 0:
+                JSONObject request = SimulatedClient.createPacket(NetworkConstants.REQUEST, NetworkConstants.LIST_ROOMS);
+                request.put("version", room_list_version);
+                request.put("subscribe", true);
+                JSONObject response = client.request("list rooms", request);
+                if (response != null) {
+                    if (response.has("not_modified")) {
+                        getContext().getStatistics().increase(LoadTestStatistics.ROOM_LIST_NOT_MODIFIED);
+                    }
+                    room_list_version = response.has("version") ? response.getLong("version") : -1;
+                }
+                break;
+            case 1:
+                client.request("list idle players",
+                        SimulatedClient.createPacket(NetworkConstants.REQUEST, NetworkConstants.LIST_IDLE_PLAYERS));
+                break;
+            default:
+                JSONObject message = SimulatedClient.createPacket(NetworkConstants.NOTIFICATION, NetworkConstants.MESSAGE);
+                message.put("message", "hello from " + client.getUsername());
+                client.send(message);
+                getContext().getStatistics().increase(LoadTestStatistics.MESSAGES_SENT);
+        }
+        getContext().schedule(this, getContext().getConfiguration().getChatInterval());
+    }
+
+    @Override
+    public void onNotification(SimulatedClient client, JSONObject notification) {
+        switch (notification.getInt("operation")) {
+            case NetworkConstants.MESSAGE:
+                getContext().getStatistics().increase(LoadTestStatistics.MESSAGES_RECEIVED);
+                break;
+            case NetworkConstants.ROOM_LIST_UPDATING:
+                getContext().getStatistics().increase(LoadTestStatistics.ROOM_LIST_UPDATES);
+                if (room_list_version >= notification.getLong("previous_version")) {
+                    room_list_version = Math.max(room_list_version, notification.getLong("version"));
+                } else {
+                    room_list_version = -1;
+                }
+                break;
+            default:
+                //do nothing
+        }
+    }
+
+    @Override
+    public void onDisconnect(SimulatedClient client) {
+    }
+
+}
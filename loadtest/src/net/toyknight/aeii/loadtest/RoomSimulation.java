@@ -0,0 +1,217 @@
+package net.toyknight.aeii.loadtest;
+
+import com.badlogic.gdx.utils.Array;
+import net.toyknight.aeii.entity.Map;
+import net.toyknight.aeii.entity.Player;
+import net.toyknight.aeii.manager.GameEvent;
+import net.toyknight.aeii.manager.GameManager;
+import net.toyknight.aeii.network.NetworkConstants;
+import net.toyknight.aeii.record.GameRecord;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drives one room: the first client creates it and plays every team, the others join and watch. When the
+ * event stream is used up the room is left and a new one is created.
+ *
+ * @author agent 10/19/2026.
+ */
+public class RoomSimulation implements Runnable, SimulatedClient.ClientListener {
+
+    private static final int SYNTHETIC_EVENT_COUNT = 200;
+
+    private static final long RETRY_DELAY = 5000;
+
+    private final LoadTestContext context;
+
+    private final Array<SimulatedClient> clients = new Array<SimulatedClient>();
+
+    private final ConcurrentHashMap<Long, Long> submit_times = new ConcurrentHashMap<Long, Long>();
+
+    private Queue<JSONObject> events;
+
+    private long sequence;
+
+    private volatile boolean broken;
+
+    public RoomSimulation(LoadTestContext context, int index) {
+        this.context = context;
+        for (int i = 0; i < context.getConfiguration().getRoomSize(); i++) {
+            SimulatedClient client = new SimulatedClient(context, String.format("room%d_%d", index, i));
+            client.setListener(this);
+            clients.add(client);
+        }
+    }
+
+    public LoadTestContext getContext() {
+        return context;
+    }
+
+    private SimulatedClient getHost() {
+        return clients.first();
+    }
+
+    @Override
+    public void run() {
+        if (getContext().isStopping()) {
+            close();
+            return;
+        }
+        if (broken) {
+            close();
+            events = null;
+            broken = false;
+        }
+        if (events == null) {
+            if (setup()) {
+                getContext().getStatistics().increase(LoadTestStatistics.ROOMS_STARTED);
+                getContext().schedule(this, getContext().getConfiguration().getEventInterval());
+            } else {
+                broken = true;
+                getContext().schedule(this, RETRY_DELAY);
+            }
+        } else {
+            if (events.isEmpty()) {
+                leave();
+                getContext().getStatistics().increase(LoadTestStatistics.ROOMS_FINISHED);
+            } else {
+                submitNextEvent();
+            }
+            getContext().schedule(this, getContext().getConfiguration().getEventInterval());
+        }
+    }
+
+    private boolean setup() {
+        for (SimulatedClient client : clients) {
+            if (!client.isConnected() && !client.connect()) {
+                return false;
+            }
+        }
+        GameRecord record = getContext().nextRecord();
+        JSONObject request = SimulatedClient.createPacket(NetworkConstants.REQUEST, NetworkConstants.CREATE_ROOM);
+        request.put("player_capacity", clients.size);
+        Map map;
+        if (record == null) {
+            map = getContext().nextMap();
+            request.put("new_game", true);
+            request.put("map", map.toJson());
+            request.put("map_name", "load test");
+            request.put("unit_capacity", 20);
+            request.put("start_gold", 1000);
+            events = new LinkedList<JSONObject>();
+            for (int i = 0; i < SYNTHETIC_EVENT_COUNT; i++) {
+                events.add(GameEvent.create(GameEvent.NEXT_TURN));
+            }
+        } else {
+            map = record.getGame().getMap();
+            request.put("new_game", false);
+            request.put("game", record.getGame().toJson());
+            request.put("save_name", "load test record");
+            events = new LinkedList<JSONObject>();
+            for (GameEvent event : record.getEvents()) {
+                events.add(event.toJson());
+            }
+        }
+        JSONObject response = getHost().request("create room", request);
+        if (!getHost().isApproved(response)) {
+            return false;
+        }
+        long room_id = response.getJSONObject("room_setting").getLong("room_id");
+        sequence = response.getJSONObject("room_setting").optLong("event_sequence");
+        submit_times.clear();
+        for (SimulatedClient client : clients) {
+            if (client != getHost()) {
+                JSONObject join = SimulatedClient.createPacket(NetworkConstants.REQUEST, NetworkConstants.JOIN_ROOM);
+                join.put("room_id", room_id);
+                join.put("password", "");
+                if (!client.isApproved(client.request("join room", join))) {
+                    return false;
+                }
+            }
+        }
+        //the host plays every team so that any recorded event comes from the current player
+        JSONArray types = new JSONArray();
+        JSONArray alliance = new JSONArray();
+        JSONArray allocation = new JSONArray();
+        for (int team = 0; team < 4; team++) {
+            boolean playing = map.hasTeamAccess(team)
+                    && (record == null || record.getGame().getPlayer(team).getType() != Player.NONE);
+            types.put(playing ? Player.LOCAL : Player.NONE);
+            alliance.put(record == null ? team + 1 : record.getGame().getPlayer(team).getAlliance());
+            allocation.put(playing ? getHost().getServiceID() : -1);
+        }
+        JSONObject update =
+                SimulatedClient.createPacket(NetworkConstants.NOTIFICATION, NetworkConstants.ALLOCATION_UPDATING);
+        update.put("types", types);
+        update.put("alliance", alliance);
+        update.put("allocation", allocation);
+        getHost().send(update);
+        JSONObject start = SimulatedClient.createPacket(NetworkConstants.REQUEST, NetworkConstants.START_GAME);
+        return getHost().isApproved(getHost().request("start game", start));
+    }
+
+    private void submitNextEvent() {
+        JSONArray batch = new JSONArray();
+        batch.put(events.poll());
+        batch.put(GameEvent.create(GameEvent.MANAGER_STATE_SYNC, GameManager.STATE_SELECT));
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.length(); i++) {
+            submit_times.put(++sequence, now);
+        }
+        submit_times.remove(sequence - 1000);
+        submit_times.remove(sequence - 1001);
+        JSONObject notification =
+                SimulatedClient.createPacket(NetworkConstants.NOTIFICATION, NetworkConstants.GAME_EVENT);
+        notification.put("events", batch);
+        getHost().send(notification);
+        getContext().getStatistics().increase(LoadTestStatistics.EVENTS_SUBMITTED);
+    }
+
+    private void leave() {
+        for (SimulatedClient client : clients) {
+            client.send(SimulatedClient.createPacket(NetworkConstants.NOTIFICATION, NetworkConstants.PLAYER_LEAVING));
+        }
+        events = null;
+    }
+
+    private void close() {
+        for (SimulatedClient client : clients) {
+            client.close();
+        }
+    }
+
+    @Override
+    public void onNotification(SimulatedClient client, JSONObject notification) {
+        switch (notification.getInt("operation")) {
+            case NetworkConstants.GAME_EVENT:
+                getContext().getStatistics().increase(LoadTestStatistics.EVENTS_RECEIVED);
+                if (notification.has("sequence")) {
+                    Long submit_time = submit_times.get(notification.getLong("sequence"));
+                    if (submit_time != null) {
+                        getContext().getStatistics().recordLatency("event propagation", System.nanoTime() - submit_time);
+                    }
+                }
+                break;
+            case NetworkConstants.MESSAGE:
+                if ("/cheating".equals(notification.getString("message"))) {
+                    getContext().getStatistics().increase(LoadTestStatistics.CHEATING);
+                    broken = true;
+                } else {
+                    getContext().getStatistics().increase(LoadTestStatistics.MESSAGES_RECEIVED);
+                }
+                break;
+            default:
+                //do nothing
+        }
+    }
+
+    @Override
+    public void onDisconnect(SimulatedClient client) {
+        broken = true;
+    }
+
+}
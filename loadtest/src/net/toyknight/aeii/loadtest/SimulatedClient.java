@@ -0,0 +1,209 @@
+package net.toyknight.aeii.loadtest;
+
+import com.esotericsoftware.kryonet.Client;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import net.toyknight.aeii.network.NetworkConstants;
+import net.toyknight.aeii.network.PacketChannel;
+import net.toyknight.aeii.network.PacketCodec;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * A headless client speaking the same protocol as the game. Like the game it keeps at most one request
+ * in flight. Its kryonet client runs its own update thread, kryonet backs off for 25 ms after a run of empty
+ * selects, so clients can not share one.
+ *
+ * @author agent 10/19/2026.
+ */
+public class SimulatedClient {
+
+    private static final long RESPONSE_TIMEOUT = 10000;
+
+    private final Object RESPONSE_LOCK = new Object();
+
+    private final LoadTestContext context;
+
+    private final String username;
+
+    private ClientListener listener;
+
+    private Client client;
+
+    private PacketChannel channel;
+
+    private JSONObject response;
+
+    private int service_id = -1;
+
+    public SimulatedClient(LoadTestContext context, String username) {
+        this.context = context;
+        this.username = username;
+    }
+
+    public LoadTestContext getContext() {
+        return context;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getServiceID() {
+        return service_id;
+    }
+
+    public void setListener(ClientListener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isConnected() {
+        return client != null && client.isConnected();
+    }
+
+    public boolean connect() {
+        client = new Client(PacketChannel.BUFFER_SIZE, PacketChannel.BUFFER_SIZE);
+        PacketCodec.register(client.getKryo());
+        channel = new PacketChannel(client);
+        client.addListener(new Listener() {
+            @Override
+            public void disconnected(Connection connection) {
+                getContext().getStatistics().increase(LoadTestStatistics.DISCONNECTED);
+                synchronized (RESPONSE_LOCK) {
+                    RESPONSE_LOCK.notifyAll();
+                }
+                if (listener != null) {
+                    listener.onDisconnect(SimulatedClient.this);
+                }
+            }
+
+            @Override
+            public void received(Connection connection, Object object) {
+                onReceive(object);
+            }
+
+            @Override
+            public void idle(Connection connection) {
+                channel.drain();
+            }
+        });
+        try {
+            client.start();
+            client.connect(5000, getContext().getConfiguration().getHost(), getContext().getConfiguration().getPort());
+            getContext().getStatistics().increase(LoadTestStatistics.CONNECTED);
+            return authenticate();
+        } catch (IOException ex) {
+            getContext().getStatistics().increase(LoadTestStatistics.CONNECTION_FAILED);
+            close();
+            return false;
+        }
+    }
+
+    public void close() {
+        if (client != null) {
+            client.stop();
+        }
+    }
+
+    private boolean authenticate() {
+        JSONObject request = createPacket(NetworkConstants.REQUEST, NetworkConstants.AUTHENTICATION);
+        request.put("username", getUsername());
+        request.put("v_string", getContext().getVerificationString());
+        request.put("protocol", PacketCodec.PROTOCOL_COMPRESSED);
+        JSONObject response = request("authentication", request);
+        if (isApproved(response)) {
+            service_id = response.getInt("service_id");
+            channel.setProtocol(response.has("protocol") ? response.getInt("protocol") : PacketCodec.PROTOCOL_JSON);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void onReceive(Object object) {
+        try {
+            JSONObject packet = channel.receive(object);
+            if (packet != null) {
+                switch (packet.getInt("type")) {
+                    case NetworkConstants.RESPONSE:
+                        synchronized (RESPONSE_LOCK) {
+                            response = packet;
+                            RESPONSE_LOCK.notifyAll();
+                        }
+                        break;
+                    case NetworkConstants.NOTIFICATION:
+                        if (listener != null) {
+                            listener.onNotification(this, packet);
+                        }
+                        break;
+                }
+            }
+        } catch (JSONException ex) {
+            getContext().getStatistics().increase("broken packet");
+        }
+    }
+
+    /**
+     * Send a request and wait for its response.
+     *
+     * @param name    the name the latency is recorded under
+     * @param request the request
+     * @return the response, or null if there was none in time
+     */
+    public JSONObject request(String name, JSONObject request) {
+        long start_time = System.nanoTime();
+        synchronized (RESPONSE_LOCK) {
+            response = null;
+            channel.send(request);
+            long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT;
+            while (response == null && isConnected() && System.currentTimeMillis() < deadline) {
+                try {
+                    RESPONSE_LOCK.wait(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+            if (response == null) {
+                getContext().getStatistics().increase(LoadTestStatistics.TIMEOUT);
+            } else {
+                getContext().getStatistics().recordLatency("request " + name, System.nanoTime() - start_time);
+            }
+            return response;
+        }
+    }
+
+    public void send(JSONObject notification) {
+        if (isConnected()) {
+            channel.send(notification);
+        }
+    }
+
+    public boolean isApproved(JSONObject response) {
+        if (response != null && response.has("approved") && response.getBoolean("approved")) {
+            return true;
+        } else {
+            if (response != null) {
+                getContext().getStatistics().increase(LoadTestStatistics.REJECTED);
+            }
+            return false;
+        }
+    }
+
+    public static JSONObject createPacket(int type, int operation) {
+        JSONObject packet = new JSONObject();
+        packet.put("type", type);
+        packet.put("operation", operation);
+        return packet;
+    }
+
+    public interface ClientListener {
+
+        void onNotification(SimulatedClient client, JSONObject notification);
+
+        void onDisconnect(SimulatedClient client);
+
+    }
+
+}
@@ -5,20 +5,25 @@ import net.toyknight.aeii.AEIIException;
 import net.toyknight.aeii.entity.GameCore;
 import net.toyknight.aeii.entity.Map;
 import net.toyknight.aeii.network.NetworkConstants;
+import net.toyknight.aeii.network.PacketCodec;
+import net.toyknight.aeii.network.entity.ResumeSetting;
 import net.toyknight.aeii.network.entity.RoomSetting;
-import net.toyknight.aeii.network.entity.RoomSnapshot;
 import net.toyknight.aeii.server.entities.Player;
 import net.toyknight.aeii.server.entities.Room;
 import net.toyknight.aeii.server.managers.MapManager;
+import net.toyknight.aeii.server.managers.RoomDirectory;
 import net.toyknight.aeii.server.utils.PacketBuilder;
+import net.toyknight.aeii.server.utils.SerializedJSON;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author toyknight 8/16/2016.
@@ -27,27 +32,35 @@ public class RequestHandler {
 
     private static final String TAG = "REQUEST HANDLER";
 
-    private final ExecutorService executor;
+    private final ThreadPoolExecutor executor;
 
     private final ServerContext context;
 
     public RequestHandler(ServerContext context) {
         this.context = context;
-        this.executor = Executors.newSingleThreadExecutor();
+        this.executor =
+                new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
     }
 
     public ServerContext getContext() {
         return context;
     }
 
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
     public void doHandleRequest(Player player, JSONObject request) {
+        long start_time = System.nanoTime();
+        int operation = -1;
         try {
-            switch (request.getInt("operation")) {
+            operation = request.getInt("operation");
+            switch (operation) {
                 case NetworkConstants.AUTHENTICATION:
                     onAuthenticationRequested(player, request);
                     break;
                 case NetworkConstants.LIST_ROOMS:
-                    onRoomListRequested(player);
+                    onRoomListRequested(player, request);
                     break;
                 case NetworkConstants.CREATE_ROOM:
                     onRoomCreationRequested(player, request);
@@ -55,6 +68,9 @@ public class RequestHandler {
                 case NetworkConstants.JOIN_ROOM:
                     onRoomJoinRequested(player, request);
                     break;
+                case NetworkConstants.RESUME_SESSION:
+                    onSessionResumeRequested(player, request);
+                    break;
                 case NetworkConstants.PLAYER_LEAVING:
                     getContext().getRoomManager().onPlayerLeaveRoom(player);
                     break;
@@ -62,7 +78,7 @@ public class RequestHandler {
                     onAllocationUpdateRequested(player, request);
                     break;
                 case NetworkConstants.START_GAME:
-                    onGameStartRequested(player);
+                    onGameStartRequested(player, request);
                     break;
                 case NetworkConstants.GAME_EVENT:
                     onGameEventSubmitted(player, request);
@@ -80,7 +96,7 @@ public class RequestHandler {
                     onMapDownloadRequested(player, request);
                     break;
                 case NetworkConstants.LIST_IDLE_PLAYERS:
-                    onIdlePlayerListRequested(player);
+                    onIdlePlayerListRequested(player, request);
                     break;
                 case NetworkConstants.GLOBAL_MESSAGE:
                     onGlobalMessageSubmitted(request);
@@ -91,13 +107,63 @@ public class RequestHandler {
                 case NetworkConstants.UPDATE_MAP:
                     onMapUpdateRequested(player, request);
                     break;
+                case NetworkConstants.SERVER_METRICS:
+                    onMetricsRequested(player, request);
+                    break;
                 default:
                     Log.error(TAG, String.format("Illegal request from %s [undefined operation]", player.toString()));
             }
         } catch (JSONException ex) {
             Log.error(TAG, String.format("Illegal request from %s [request format error]", player.toString()), ex);
+            rejectRequest(player, request);
         } catch (Exception ex) {
             Log.error(TAG, String.format("Exception occurred while handling request from %s", player.toString()), ex);
+            rejectRequest(player, request);
+        }
+        getContext().getMetricsManager().recordLatency(
+                "request." + getOperationName(operation), System.nanoTime() - start_time);
+    }
+
+    private String getOperationName(int operation) {
+        switch (operation) {
+            case NetworkConstants.AUTHENTICATION:
+                return "authentication";
+            case NetworkConstants.LIST_ROOMS:
+                return "list_rooms";
+            case NetworkConstants.CREATE_ROOM:
+                return "create_room";
+            case NetworkConstants.JOIN_ROOM:
+                return "join_room";
+            case NetworkConstants.RESUME_SESSION:
+                return "resume_session";
+            case NetworkConstants.PLAYER_LEAVING:
+                return "player_leaving";
+            case NetworkConstants.ALLOCATION_UPDATING:
+                return "allocation_updating";
+            case NetworkConstants.START_GAME:
+                return "start_game";
+            case NetworkConstants.GAME_EVENT:
+                return "game_event";
+            case NetworkConstants.MESSAGE:
+                return "message";
+            case NetworkConstants.LIST_MAPS:
+                return "list_maps";
+            case NetworkConstants.UPLOAD_MAP:
+                return "upload_map";
+            case NetworkConstants.DOWNLOAD_MAP:
+                return "download_map";
+            case NetworkConstants.LIST_IDLE_PLAYERS:
+                return "list_idle_players";
+            case NetworkConstants.GLOBAL_MESSAGE:
+                return "global_message";
+            case NetworkConstants.DELETE_MAP:
+                return "delete_map";
+            case NetworkConstants.UPDATE_MAP:
+                return "update_map";
+            case NetworkConstants.SERVER_METRICS:
+                return "server_metrics";
+            default:
+                return "undefined";
         }
     }
 
@@ -107,34 +173,53 @@ public class RequestHandler {
 
         player.setUsername(username);
 
-        JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+        JSONObject response = PacketBuilder.createResponse(request);
+        int protocol = PacketCodec.PROTOCOL_JSON;
         if (getContext().getVerificationString().equals(v_string)) {
             player.setAuthenticated(true);
+            getContext().getPlayerManager().onPlayerStateChanged(player);
+            player.setSessionToken(UUID.randomUUID().toString());
+            if (request.has("protocol")) {
+                protocol = Math.min(request.getInt("protocol"), PacketCodec.PROTOCOL_COMPRESSED);
+            }
             response.put("approved", true);
             response.put("service_id", player.getID());
+            response.put("protocol", protocol);
+            response.put("session_token", player.getSessionToken());
             Log.info(TAG, String.format("%s authenticated.", player.toString()));
         } else {
             response.put("approved", false);
             Log.info(TAG, String.format("%s authentication failed.", player.toString()));
         }
-        player.sendTCP(response.toString());
+        //the response is still sent with the old protocol, the new one applies from the next packet
+        player.sendPacket(response);
+        player.setProtocol(protocol);
     }
 
-    public void onRoomListRequested(Player player) {
+    public void onRoomListRequested(Player player, JSONObject request) {
         if (player.isAuthenticated()) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
-            JSONArray rooms = new JSONArray();
-            for (RoomSnapshot snapshot : getContext().getRoomManager().getRoomSnapshots()) {
-                rooms.put(snapshot.toJson());
+            RoomDirectory room_directory = getContext().getRoomManager().getRoomDirectory();
+            if (request.has("subscribe")) {
+                player.setRoomListSubscribed(request.getBoolean("subscribe"));
             }
-            response.put("rooms", rooms);
-            player.sendTCP(response.toString());
+            long version = room_directory.getVersion();
+            if (request.has("version") && request.getLong("version") == version) {
+                JSONObject response = PacketBuilder.createResponse(request);
+                response.put("not_modified", true);
+                response.put("version", version);
+                player.sendPacket(response);
+            } else {
+                Object frame = room_directory.getListingFrame(player.getProtocol());
+                player.sendEncoded(frame, NetworkConstants.RESPONSE, NetworkConstants.LIST_ROOMS);
+            }
+        } else {
+            rejectRequest(player, request);
         }
     }
 
     public void onRoomCreationRequested(Player player, JSONObject request) {
         if (player.isAuthenticated() && player.getRoomID() < 0) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
 
             String username = player.getUsername();
             String password = request.has("password") ? request.getString("password") : null;
@@ -163,13 +248,15 @@ public class RequestHandler {
                 response.put("room_setting", room_setting.toJson());
                 response.put("approved", true);
             }
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
     public void onRoomJoinRequested(Player player, JSONObject request) {
         if (player.isAuthenticated()) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
 
             long room_id = request.getLong("room_id");
             String password = request.getString("password");
@@ -180,7 +267,38 @@ public class RequestHandler {
                 response.put("room_setting", room_setting.toJson());
                 response.put("approved", true);
             }
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
+        }
+    }
+
+    public void onSessionResumeRequested(Player player, JSONObject request) {
+        if (player.isAuthenticated()) {
+            JSONObject response = PacketBuilder.createResponse(request);
+
+            String token = request.getString("token");
+            long sequence = request.getLong("sequence");
+            JSONArray events = request.has("events") ? request.getJSONArray("events") : null;
+            long first_sequence = request.has("first_sequence") ? request.getLong("first_sequence") : -1;
+            ResumeSetting resume_setting = null;
+            Player previous = getContext().getPlayerManager().resumeSession(token, player.getID());
+            if (previous != null) {
+                resume_setting = getContext().getRoomManager().onPlayerResumeRoom(
+                        player, previous, sequence, events, first_sequence);
+                if (resume_setting == null) {
+                    getContext().getRoomManager().onPlayerLeaveRoom(previous);
+                }
+            }
+            if (resume_setting == null) {
+                response.put("approved", false);
+            } else {
+                response.put("resume_setting", resume_setting.toJson());
+                response.put("approved", true);
+            }
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
@@ -196,7 +314,9 @@ public class RequestHandler {
     public void onGameEventSubmitted(Player player, JSONObject request) {
         if (player.isAuthenticated()) {
             JSONArray events = request.getJSONArray("events");
-            getContext().getRoomManager().submitGameEvents(player, events);
+            //the events of older clients are not numbered
+            long first_sequence = request.has("first_sequence") ? request.getLong("first_sequence") : -1;
+            getContext().getRoomManager().submitGameEvents(player, events, first_sequence);
         }
     }
 
@@ -212,18 +332,20 @@ public class RequestHandler {
         }
     }
 
-    public void onGameStartRequested(Player player) {
+    public void onGameStartRequested(Player player, JSONObject request) {
         if (player.isAuthenticated()) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
             boolean approved = getContext().getRoomManager().tryStartGame(player);
             response.put("approved", approved);
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
     public void onMapListRequested(Player player, JSONObject request) {
         if (getContext().getConfiguration().isMapManagerEnabled()) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
             boolean symmetric = request.has("symmetric") && request.getBoolean("symmetric");
             if (request.has("author")) {
                 String author = request.getString("author");
@@ -231,13 +353,15 @@ public class RequestHandler {
             } else {
                 response.put("maps", getContext().getMapManager().getSerializedAuthorList(symmetric));
             }
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
     public void onMapUploadRequest(Player player, JSONObject request) {
         if (getContext().getConfiguration().isMapManagerEnabled()) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
             Map map = new Map(request.getJSONObject("map"));
             String map_name = request.getString("map_name");
             try {
@@ -248,18 +372,20 @@ public class RequestHandler {
             } catch (Exception ex) {
                 response.put("code", NetworkConstants.CODE_SERVER_ERROR);
             }
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
     public void onMapDownloadRequested(Player player, JSONObject request) {
         if (getContext().getConfiguration().isMapManagerEnabled()) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
             int map_id = request.getInt("id");
             boolean approved;
             try {
-                Map map = getContext().getMapManager().getMap(map_id);
-                response.put("map", map.toJson());
+                String map = getContext().getMapManager().getSerializedMap(map_id);
+                response.put("map", new SerializedJSON(map));
                 approved = true;
             } catch (IOException ex) {
                 approved = false;
@@ -267,21 +393,23 @@ public class RequestHandler {
                 approved = false;
             }
             response.put("approved", approved);
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
-    public void onIdlePlayerListRequested(Player player) {
+    public void onIdlePlayerListRequested(Player player, JSONObject request) {
         if (player.isAuthenticated()) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
             JSONArray players = new JSONArray();
-            for (Player target : getContext().getPlayerManager().getPlayers()) {
-                if (target.isAuthenticated() && target.getRoomID() < 0) {
-                    players.put(target.createSnapshot().toJson());
-                }
+            for (Player target : getContext().getPlayerManager().getIdlePlayers()) {
+                players.put(target.createSnapshot().toJson());
             }
             response.put("players", players);
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
@@ -296,7 +424,7 @@ public class RequestHandler {
     public void onMapDeleteRequested(Player player, JSONObject request) {
         String token = request.getString("token");
         if (getContext().verifyAdminToken(token)) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
             int map_id = request.getInt("id");
             try {
                 boolean success = getContext().getMapManager().removeMap(map_id);
@@ -304,14 +432,16 @@ public class RequestHandler {
             } catch (SQLException e) {
                 response.put("success", false);
             }
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
         }
     }
 
     public void onMapUpdateRequested(Player player, JSONObject request) {
         String token = request.getString("token");
         if (getContext().verifyAdminToken(token)) {
-            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE);
+            JSONObject response = PacketBuilder.createResponse(request);
             int map_id = request.getInt("id");
             String author = request.has("author") ? request.getString("author") : null;
             String filename = request.has("filename") ? request.getString("filename") : null;
@@ -321,22 +451,44 @@ public class RequestHandler {
             } catch (Exception e) {
                 response.put("success", false);
             }
-            player.sendTCP(response.toString());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
+        }
+    }
+
+    public void onMetricsRequested(Player player, JSONObject request) {
+        String token = request.getString("token");
+        if (getContext().verifyAdminToken(token)) {
+            JSONObject response = PacketBuilder.createResponse(request);
+            response.put("metrics", getContext().getMetricsManager().createReport());
+            player.sendPacket(response);
+        } else {
+            rejectRequest(player, request);
+        }
+    }
+
+    //a request nobody answers would be left waiting for its timeout on the client
+    private void rejectRequest(Player player, JSONObject request) {
+        if (request.has("request_id")) {
+            player.sendPacket(PacketBuilder.createRejection(request));
         }
     }
 
-    public void submitRequest(Player player, String request_content) throws JSONException {
-        executor.submit(new RequestProcessingTask(player, new JSONObject(request_content)));
+    public void submitRequest(Player player, JSONObject request) {
+        executor.submit(new RequestProcessingTask(player, request));
     }
 
     private class RequestProcessingTask implements Runnable {
 
         private final Player player;
         private final JSONObject request;
+        private final long submit_time;
 
         public RequestProcessingTask(Player player, JSONObject request) {
             this.player = player;
             this.request = request;
+            this.submit_time = System.nanoTime();
         }
 
         public Player getPlayer() {
@@ -349,6 +501,7 @@ public class RequestHandler {
 
         @Override
         public void run() {
+            getContext().getMetricsManager().recordLatency("request.queue", System.nanoTime() - submit_time);
             doHandleRequest(getPlayer(), getRequest());
         }
     }
@@ -8,8 +8,10 @@ import org.json.JSONObject;
  */
 public interface RoomListener {
 
-    void onGameEventExecuted(Room room, JSONObject event, int submitter);
+    void onGameEventExecuted(Room room, JSONObject event, long sequence, int submitter);
 
     void onCheatingDetected(Room room, int player_id, Throwable cause);
 
+    void onStaleGameEvent(Room room, int player_id);
+
 }
@@ -2,6 +2,7 @@ package net.toyknight.aeii.server;
 
 import com.badlogic.gdx.utils.ObjectMap;
 import com.badlogic.gdx.utils.PropertiesUtils;
+import net.toyknight.aeii.manager.GameEventExecutor;
 
 import java.io.File;
 import java.io.FileReader;
@@ -30,6 +31,58 @@ public class ServerConfiguration {
 
     private String database_password;
 
+    private int map_cache_size;
+
+    private long session_timeout;
+
+    private int event_log_size;
+
+    private String metrics_file;
+
+    private long metrics_interval;
+
+    private long room_list_interval;
+
+    private int outbound_queue_size;
+
+    private int outbound_queue_bytes;
+
+    private long outbound_timeout;
+
+    private boolean journal_enabled;
+
+    private String journal_directory;
+
+    private int journal_segment_size;
+
+    private int checkpoint_interval;
+
+    private long checkpoint_period;
+
+    private boolean record_enabled;
+
+    private String record_directory;
+
+    private long record_flush_interval;
+
+    private int record_queue_size;
+
+    private long timer_tick;
+
+    private long turn_timeout;
+
+    private long lobby_idle_timeout;
+
+    private long heartbeat_interval;
+
+    private long heartbeat_timeout;
+
+    private int map_index_threads;
+
+    private int map_index_batch_size;
+
+    private boolean event_validation_enabled;
+
     public void initialize() throws IOException {
         FileReader configuration_reader = new FileReader(configuration_file);
         PropertiesUtils.load(configuration, configuration_reader);
@@ -41,6 +94,35 @@ public class ServerConfiguration {
         database_name = configuration.get("DATABASE_NAME", "aeii");
         database_username = configuration.get("DATABASE_USERNAME", "undefined");
         database_password = configuration.get("DATABASE_PASSWORD", "123456");
+        map_cache_size = Integer.parseInt(configuration.get("MAP_CACHE_SIZE", "256"));
+        session_timeout = Long.parseLong(configuration.get("SESSION_TIMEOUT", "60000"));
+        //a resuming client queues every missed event at once
+        event_log_size = Math.min(
+                Integer.parseInt(configuration.get("EVENT_LOG_SIZE", "1024")), GameEventExecutor.QUEUE_CAPACITY);
+        metrics_file = configuration.get("METRICS_FILE", "metrics.log");
+        metrics_interval = Long.parseLong(configuration.get("METRICS_INTERVAL", "60000"));
+        room_list_interval = Long.parseLong(configuration.get("ROOM_LIST_INTERVAL", "1000"));
+        outbound_queue_size = Integer.parseInt(configuration.get("OUTBOUND_QUEUE_SIZE", "1024"));
+        outbound_queue_bytes = Integer.parseInt(configuration.get("OUTBOUND_QUEUE_BYTES", "4194304"));
+        outbound_timeout = Long.parseLong(configuration.get("OUTBOUND_TIMEOUT", "30000"));
+        journal_enabled = Boolean.parseBoolean(configuration.get("JOURNAL_ENABLED", "false"));
+        journal_directory = configuration.get("JOURNAL_DIRECTORY", "journal");
+        journal_segment_size = Integer.parseInt(configuration.get("JOURNAL_SEGMENT_SIZE", "16777216"));
+        checkpoint_interval = Integer.parseInt(configuration.get("CHECKPOINT_INTERVAL", "256"));
+        checkpoint_period = Long.parseLong(configuration.get("CHECKPOINT_PERIOD", "60000"));
+        record_enabled = Boolean.parseBoolean(configuration.get("RECORD_ENABLED", "false"));
+        record_directory = configuration.get("RECORD_DIRECTORY", "records");
+        record_flush_interval = Long.parseLong(configuration.get("RECORD_FLUSH_INTERVAL", "10000"));
+        record_queue_size = Integer.parseInt(configuration.get("RECORD_QUEUE_SIZE", "65536"));
+        timer_tick = Long.parseLong(configuration.get("TIMER_TICK", "100"));
+        turn_timeout = Long.parseLong(configuration.get("TURN_TIMEOUT", "0"));
+        lobby_idle_timeout = Long.parseLong(configuration.get("LOBBY_IDLE_TIMEOUT", "0"));
+        heartbeat_interval = Long.parseLong(configuration.get("HEARTBEAT_INTERVAL", "10000"));
+        heartbeat_timeout = Long.parseLong(configuration.get("HEARTBEAT_TIMEOUT", "30000"));
+        map_index_threads = Integer.parseInt(configuration.get(
+                "MAP_INDEX_THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        map_index_batch_size = Integer.parseInt(configuration.get("MAP_INDEX_BATCH_SIZE", "500"));
+        event_validation_enabled = Boolean.parseBoolean(configuration.get("EVENT_VALIDATION_ENABLED", "false"));
     }
 
     public int getPort() {
@@ -71,4 +153,108 @@ public class ServerConfiguration {
         return database_password;
     }
 
+    public int getMapCacheSize() {
+        return map_cache_size;
+    }
+
+    public long getSessionTimeout() {
+        return session_timeout;
+    }
+
+    public int getEventLogSize() {
+        return event_log_size;
+    }
+
+    public String getMetricsFile() {
+        return metrics_file;
+    }
+
+    public long getMetricsInterval() {
+        return metrics_interval;
+    }
+
+    public long getRoomListInterval() {
+        return room_list_interval;
+    }
+
+    public int getOutboundQueueSize() {
+        return outbound_queue_size;
+    }
+
+    public int getOutboundQueueBytes() {
+        return outbound_queue_bytes;
+    }
+
+    public long getOutboundTimeout() {
+        return outbound_timeout;
+    }
+
+    public boolean isJournalEnabled() {
+        return journal_enabled;
+    }
+
+    public String getJournalDirectory() {
+        return journal_directory;
+    }
+
+    public int getJournalSegmentSize() {
+        return journal_segment_size;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpoint_interval;
+    }
+
+    public long getCheckpointPeriod() {
+        return checkpoint_period;
+    }
+
+    public boolean isRecordEnabled() {
+        return record_enabled;
+    }
+
+    public String getRecordDirectory() {
+        return record_directory;
+    }
+
+    public long getRecordFlushInterval() {
+        return record_flush_interval;
+    }
+
+    public int getRecordQueueSize() {
+        return record_queue_size;
+    }
+
+    public long getTimerTick() {
+        return timer_tick;
+    }
+
+    public long getTurnTimeout() {
+        return turn_timeout;
+    }
+
+    public long getLobbyIdleTimeout() {
+        return lobby_idle_timeout;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeat_interval;
+    }
+
+    public long getHeartbeatTimeout() {
+        return heartbeat_timeout;
+    }
+
+    public int getMapIndexThreads() {
+        return map_index_threads;
+    }
+
+    public int getMapIndexBatchSize() {
+        return map_index_batch_size;
+    }
+
+    public boolean isEventValidationEnabled() {
+        return event_validation_enabled;
+    }
+
 }
@@ -6,16 +6,21 @@ import com.esotericsoftware.kryonet.Server;
 import com.esotericsoftware.minlog.Log;
 import net.toyknight.aeii.AEIIException;
 import net.toyknight.aeii.GameContext;
+import net.toyknight.aeii.network.PacketChannel;
+import net.toyknight.aeii.network.PacketCodec;
 import net.toyknight.aeii.server.entities.Player;
 import net.toyknight.aeii.server.managers.*;
+import net.toyknight.aeii.server.utils.TimingWheel;
 import net.toyknight.aeii.utils.MD5Converter;
 import net.toyknight.aeii.utils.TileFactory;
 import net.toyknight.aeii.utils.UnitFactory;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author toyknight 8/13/2016.
@@ -24,9 +29,13 @@ public class ServerContext {
 
     private static final String TAG = "SERVER CONTEXT";
 
+    private static final int TIMER_WHEEL_SIZE = 512;
+
     private boolean running;
 
-    private ExecutorService executor;
+    private ThreadPoolExecutor executor;
+
+    private TimingWheel timer;
 
     private ServerConfiguration configuration;
 
@@ -46,6 +55,12 @@ public class ServerContext {
 
     private DatabaseManager database_manager;
 
+    private MetricsManager metrics_manager;
+
+    private JournalManager journal_manager;
+
+    private MatchRecorder match_recorder;
+
     public NotificationSender getNotificationSender() {
         return notification_sender;
     }
@@ -70,15 +85,50 @@ public class ServerContext {
         return database_manager;
     }
 
+    public MetricsManager getMetricsManager() {
+        return metrics_manager;
+    }
+
+    public JournalManager getJournalManager() {
+        return journal_manager;
+    }
+
+    public MatchRecorder getMatchRecorder() {
+        return match_recorder;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
     public void submitTask(Runnable task) {
         executor.submit(task);
     }
 
+    public TimingWheel getTimer() {
+        return timer;
+    }
+
+    public TimingWheel.Timeout scheduleTask(Runnable task, long delay) {
+        return timer.schedule(task, delay);
+    }
+
+    public void scheduleTask(Runnable task, long delay, long period) {
+        timer.schedule(new PeriodicTask(task, delay, period), delay);
+    }
+
     public void onObjectReceived(Connection connection, Object object) {
         Player player = getPlayerManager().getPlayer(connection.getID());
-        if (player != null && object instanceof String) {
+        if (player != null) {
+            long time = System.currentTimeMillis();
+            //keep alive and ping replies count for the heartbeat too
+            player.setLastReceiveTime(time);
             try {
-                getRequestHandler().submitRequest(player, (String) object);
+                JSONObject request = player.getChannel().receive(object);
+                if (request != null) {
+                    player.setLastRequestTime(time);
+                    getRequestHandler().submitRequest(player, request);
+                }
             } catch (JSONException ex) {
                 Log.error(TAG, String.format("Illegal request from %s [request format error]", player.toString()), ex);
             }
@@ -103,42 +153,34 @@ public class ServerContext {
     }
 
     public void initialize() throws ServerException {
-        //load server configuration
-        try {
-            configuration = new ServerConfiguration();
-            configuration.initialize();
-        } catch (Exception ex) {
-            throw new ServerException(TAG, "Error initializing server [exception while loading configuration]", ex);
-        }
-        //load game data and create verification string
-        try {
-            UnitFactory.loadUnitData();
-            TileFactory.loadTileData();
-            createVerificationString();
-        } catch (AEIIException ex) {
-            throw new ServerException(TAG, "Error initializing server [exception while loading game data]", ex);
-        }
+        loadConfiguration();
+        loadGameData();
         //initialize managers
-        executor = Executors.newFixedThreadPool(128);
+        executor = new ThreadPoolExecutor(128, 128, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        timer = new TimingWheel(executor, getConfiguration().getTimerTick(), TIMER_WHEEL_SIZE);
+        metrics_manager = new MetricsManager(this);
         notification_sender = new NotificationSender(this);
         request_handler = new RequestHandler(this);
         player_manager = new PlayerManager(this);
         room_manager = new RoomManager(this);
-        if (getConfiguration().isMapManagerEnabled()) {
+        if (getConfiguration().isRecordEnabled()) {
+            match_recorder = new MatchRecorder(this);
+        }
+        if (getConfiguration().isJournalEnabled()) {
             try {
-                database_manager = new DatabaseManager();
-                database_manager.connect(
-                        getConfiguration().getDatabaseHost(),
-                        getConfiguration().getDatabaseName(),
-                        getConfiguration().getDatabaseUsername(),
-                        getConfiguration().getDatabasePassword());
-            } catch (Exception ex) {
-                throw new ServerException(TAG, "Error initializing server [exception while connecting to DB]", ex);
+                journal_manager = new JournalManager(this);
+                journal_manager.recover();
+            } catch (IOException ex) {
+                throw new ServerException(TAG, "Error initializing server [exception while recovering rooms]", ex);
             }
-            map_manager = new MapManager(this);
+        }
+        if (getConfiguration().isMapManagerEnabled()) {
+            initializeMapManager();
         }
         //initialize server object
-        server = new Server(90 * 1024, 90 * 1024);
+        server = new Server(PacketChannel.BUFFER_SIZE, PacketChannel.BUFFER_SIZE);
+        PacketCodec.register(server.getKryo());
+        timer.start();
         server.addListener(new Listener() {
             @Override
             public void connected(Connection connection) {
@@ -160,18 +202,108 @@ public class ServerContext {
                     onObjectReceived(connection, object);
                 }
             }
+
+            @Override
+            public void idle(Connection connection) {
+                //the write buffer is nearly empty, continue with the queued packets
+                Player player = getPlayerManager().getPlayer(connection.getID());
+                if (player != null) {
+                    player.getOutboundQueue().drain();
+                }
+            }
         });
     }
 
+    /**
+     * Initialize only what indexing the map files needs, without recovering rooms or opening the server. The
+     * metrics manager is created only to collect the database latencies, it is never started.
+     */
+    public void initializeIndexing() throws ServerException {
+        loadConfiguration();
+        loadGameData();
+        metrics_manager = new MetricsManager(this);
+        if (getConfiguration().isMapManagerEnabled()) {
+            initializeMapManager();
+        }
+    }
+
+    private void loadConfiguration() throws ServerException {
+        try {
+            configuration = new ServerConfiguration();
+            configuration.initialize();
+        } catch (Exception ex) {
+            throw new ServerException(TAG, "Error initializing server [exception while loading configuration]", ex);
+        }
+    }
+
+    //load game data and create verification string
+    private void loadGameData() throws ServerException {
+        try {
+            UnitFactory.loadUnitData();
+            TileFactory.loadTileData();
+            createVerificationString();
+        } catch (AEIIException ex) {
+            throw new ServerException(TAG, "Error initializing server [exception while loading game data]", ex);
+        }
+    }
+
+    private void initializeMapManager() throws ServerException {
+        try {
+            database_manager = new DatabaseManager(this);
+            database_manager.connect(
+                    getConfiguration().getDatabaseHost(),
+                    getConfiguration().getDatabaseName(),
+                    getConfiguration().getDatabaseUsername(),
+                    getConfiguration().getDatabasePassword());
+        } catch (Exception ex) {
+            throw new ServerException(TAG, "Error initializing server [exception while connecting to DB]", ex);
+        }
+        map_manager = new MapManager(this);
+    }
+
     public void start() throws ServerException {
         initialize();
         try {
             server.start();
             server.bind(getConfiguration().getPort());
             running = true;
+            getMetricsManager().start();
+            if (getConfiguration().isJournalEnabled()) {
+                getJournalManager().start();
+            }
+            if (getConfiguration().isRecordEnabled()) {
+                getMatchRecorder().start();
+            }
+            getRoomManager().getRoomDirectory().start();
         } catch (IOException ex) {
             throw new ServerException(TAG, "Error starting server [exception while binding port]", ex);
         }
     }
 
+    private class PeriodicTask implements Runnable {
+
+        private final Runnable task;
+        private final long period;
+
+        private long next_time;
+
+        public PeriodicTask(Runnable task, long delay, long period) {
+            this.task = task;
+            this.period = period;
+            this.next_time = System.currentTimeMillis() + delay;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                //keep the fixed rate, a late run does not shift the following ones
+                next_time += period;
+                timer.schedule(this, next_time - System.currentTimeMillis());
+            }
+        }
+
+    }
+
 }
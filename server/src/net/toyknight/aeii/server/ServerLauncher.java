@@ -8,10 +8,34 @@ import com.esotericsoftware.minlog.Log;
 public class ServerLauncher {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("index")) {
+            indexMaps();
+        } else {
+            try {
+                new ServerContext().start();
+            } catch (ServerException ex) {
+                Log.error(ex.getTag(), "Failed launching the server", ex);
+                System.exit(-1);
+            }
+        }
+    }
+
+    //index the map files in the maps directory without serving
+    private static void indexMaps() {
         try {
-            new ServerContext().start();
+            ServerContext context = new ServerContext();
+            context.initializeIndexing();
+            if (context.getMapManager() == null) {
+                Log.error("SERVER LAUNCHER", "Map manager is not enabled");
+                System.exit(-1);
+            }
+            context.getMapManager().index();
+            System.exit(0);
         } catch (ServerException ex) {
-            Log.error(ex.getTag(), "Failed launching the server", ex);
+            Log.error(ex.getTag(), "Failed initializing the server", ex);
+            System.exit(-1);
+        } catch (Exception ex) {
+            Log.error("SERVER LAUNCHER", "Failed indexing maps", ex);
             System.exit(-1);
         }
     }
@@ -1,33 +1,85 @@
 package net.toyknight.aeii.server.entities;
 
 import com.esotericsoftware.kryonet.Connection;
+import net.toyknight.aeii.network.PacketChannel;
 import net.toyknight.aeii.network.entity.PlayerSnapshot;
+import net.toyknight.aeii.server.ServerConfiguration;
+import net.toyknight.aeii.server.utils.OutboundQueue;
+import net.toyknight.aeii.server.utils.TimingWheel;
+import org.json.JSONObject;
 
 /**
  * @author toyknight 10/27/2015.
  */
 public class Player {
 
-    private final Object SENDING_LOCK = new Object();
+    //guards entering and leaving rooms, taken before the seat lock of the room
+    public final Object ROOM_LOCK = new Object();
+
+    private final int id;
 
     private final Connection connection;
 
-    private boolean authenticated;
+    private final PacketChannel channel;
+
+    private final OutboundQueue outbound_queue;
+
+    private volatile boolean authenticated;
 
     private String address;
     private String username;
 
-    private long room_number;
+    private volatile long room_number;
+
+    private volatile String session_token;
+
+    private volatile boolean room_list_subscribed;
+
+    private volatile long last_receive_time;
+
+    private volatile long last_request_time;
 
-    public Player(Connection connection) {
+    private volatile boolean resync_required;
+
+    private volatile long submitted_sequence;
+
+    private volatile TimingWheel.Timeout connection_timer;
+
+    public Player(Connection connection, ServerConfiguration configuration) {
+        this.id = connection.getID();
         this.connection = connection;
         authenticated = false;
         room_number = -1;
+        channel = new PacketChannel(connection);
+        outbound_queue = new OutboundQueue(channel,
+                configuration.getOutboundQueueSize(),
+                configuration.getOutboundQueueBytes(),
+                configuration.getOutboundTimeout());
         address = connection.getRemoteAddressTCP().getAddress().toString();
+        last_receive_time = last_request_time = System.currentTimeMillis();
+    }
+
+    /**
+     * Create the seat of a player who has not reconnected since the room was recovered from the journal.
+     *
+     * @param id            an id that no connection can have
+     * @param username      the username of the seated player
+     * @param session_token the session token the player may resume with
+     */
+    public Player(int id, String username, String session_token) {
+        this.id = id;
+        this.connection = null;
+        this.channel = null;
+        this.outbound_queue = null;
+        this.authenticated = true;
+        this.room_number = -1;
+        this.address = "journal";
+        this.username = username;
+        this.session_token = session_token;
     }
 
     public int getID() {
-        return getConnection().getID();
+        return id;
     }
 
     public Connection getConnection() {
@@ -54,26 +106,127 @@ public class Player {
         return username;
     }
 
+    //a client numbers its game events from the start in every room
     public void setRoomID(long number) {
         room_number = number;
+        submitted_sequence = 0;
     }
 
     public long getRoomID() {
         return room_number;
     }
 
+    public PacketChannel getChannel() {
+        return channel;
+    }
+
+    public OutboundQueue getOutboundQueue() {
+        return outbound_queue;
+    }
+
+    public void setProtocol(int protocol) {
+        getChannel().setProtocol(protocol);
+    }
+
+    public int getProtocol() {
+        return getChannel().getProtocol();
+    }
+
+    public void setSessionToken(String session_token) {
+        this.session_token = session_token;
+    }
+
+    public String getSessionToken() {
+        return session_token;
+    }
+
+    public void setRoomListSubscribed(boolean subscribed) {
+        this.room_list_subscribed = subscribed;
+    }
+
+    public boolean isRoomListSubscribed() {
+        return room_list_subscribed;
+    }
+
+    public void setLastReceiveTime(long time) {
+        this.last_receive_time = time;
+    }
+
+    public long getLastReceiveTime() {
+        return last_receive_time;
+    }
+
+    public void setLastRequestTime(long time) {
+        this.last_request_time = time;
+    }
+
+    public long getLastRequestTime() {
+        return last_request_time;
+    }
+
+    /**
+     * A player whose events were dropped must be sent the whole game when resuming.
+     *
+     * @param resync_required whether the game of the client differs from the one of the room
+     */
+    public void setResyncRequired(boolean resync_required) {
+        this.resync_required = resync_required;
+    }
+
+    public boolean isResyncRequired() {
+        return resync_required;
+    }
+
+    /**
+     * Must be called while holding the game lock of the room.
+     *
+     * @param sequence the sequence number of the last game event of this client accepted by its room
+     */
+    public void setSubmittedSequence(long sequence) {
+        this.submitted_sequence = sequence;
+    }
+
+    public long getSubmittedSequence() {
+        return submitted_sequence;
+    }
+
+    public void setConnectionTimer(TimingWheel.Timeout timer) {
+        this.connection_timer = timer;
+    }
+
+    public TimingWheel.Timeout getConnectionTimer() {
+        return connection_timer;
+    }
+
     public PlayerSnapshot createSnapshot() {
         return new PlayerSnapshot(getID(), getUsername());
     }
 
-    public int sendTCP(Object object) {
-        synchronized (SENDING_LOCK) {
-            if (getConnection().isConnected()) {
-                return getConnection().sendTCP(object);
-            } else {
-                return 0;
-            }
-        }
+    public void sendPacket(JSONObject packet) {
+        getOutboundQueue().offer(packet);
+    }
+
+    /**
+     * Send a packet that has already been encoded with the protocol of this player.
+     *
+     * @param frame     the encoded packet
+     * @param type      the type of the packet
+     * @param operation the operation of the packet
+     */
+    public void sendEncoded(Object frame, int type, int operation) {
+        getOutboundQueue().offer(frame, type, operation, false);
+    }
+
+    /**
+     * Send lobby traffic that has already been encoded with the protocol of this player. It is dropped first when
+     * the player falls behind.
+     *
+     * @param frame     the encoded packet
+     * @param type      the type of the packet
+     * @param operation the operation of the packet
+     */
+    public void sendDroppable(Object frame, int type, int operation) {
+        getOutboundQueue().offer(frame, type, operation, true);
     }
 
     @Override
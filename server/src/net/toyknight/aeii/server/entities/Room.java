@@ -2,31 +2,48 @@ package net.toyknight.aeii.server.entities;
 
 import static net.toyknight.aeii.entity.Rule.Entry.*;
 
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.ObjectSet;
+import com.esotericsoftware.minlog.Log;
 import net.toyknight.aeii.entity.GameCore;
 import net.toyknight.aeii.entity.Map;
 import net.toyknight.aeii.entity.Player;
+import net.toyknight.aeii.manager.CheatingException;
 import net.toyknight.aeii.manager.GameEvent;
 import net.toyknight.aeii.manager.GameManager;
+import net.toyknight.aeii.manager.Operation;
 import net.toyknight.aeii.network.entity.RoomSnapshot;
 import net.toyknight.aeii.entity.Rule;
 import net.toyknight.aeii.server.RoomListener;
+import net.toyknight.aeii.server.utils.LatencyHistogram;
+import net.toyknight.aeii.server.utils.TimingWheel;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author toyknight
  */
 public class Room {
 
+    private static final String TAG = "ROOM";
+
     public final Object GAME_LOCK = new Object();
 
     public final Object PLAYER_LOCK = new Object();
 
-    private final ExecutorService event_executor = Executors.newSingleThreadExecutor();
+    //guards taking and leaving seats, only the player lock may be taken while holding it
+    public final Object SEAT_LOCK = new Object();
+
+    private final ThreadPoolExecutor event_executor =
+            new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final LatencyHistogram event_latency = new LatencyHistogram();
 
     private final long room_id;
     private final String room_name;
@@ -34,7 +51,9 @@ public class Room {
 
     private RoomListener listener;
 
-    private boolean game_started;
+    private volatile boolean game_started;
+
+    private volatile boolean disposed;
 
     private int capacity = 4;
 
@@ -49,8 +68,25 @@ public class Room {
 
     private String password = null;
 
+    private long event_sequence;
+
+    private int event_log_capacity = 1024;
+
+    private final ArrayDeque<JSONObject> event_log = new ArrayDeque<JSONObject>();
+
+    private int forced_turn_count;
+
+    //read by dispose() without the game lock
+    private volatile TimingWheel.Timeout turn_timer;
+
+    private long turn_timer_key = -1;
+
     public Room(long room_id, String room_name, GameCore game) {
-        this(room_id, room_name, -1);
+        this(room_id, room_name, game, -1);
+    }
+
+    public Room(long room_id, String room_name, GameCore game, int start_gold) {
+        this(room_id, room_name, start_gold);
         setGame(game);
     }
 
@@ -91,6 +127,10 @@ public class Room {
         this.password = password;
     }
 
+    public String getPassword() {
+        return password;
+    }
+
     public boolean checkPassword(String password) {
         return this.password == null || this.password.equals(password);
     }
@@ -129,13 +169,21 @@ public class Room {
         }
     }
 
-    public void removePlayer(int id) {
+    /**
+     * Remove a player and free the teams allocated to it. The player types of the freed teams are cleared
+     * separately by {@link #clearPlayerTypes(int)}, as that takes the game lock.
+     *
+     * @param id the id of the player
+     * @return the freed teams, one bit for each team
+     */
+    public int removePlayer(int id) {
         synchronized (PLAYER_LOCK) {
+            int freed_teams = 0;
             players.remove(id);
             for (int team = 0; team < 4; team++) {
                 if (allocation[team] == id) {
-                    setPlayerType(team, Player.NONE);
                     allocation[team] = -1;
+                    freed_teams |= 1 << team;
                 }
             }
             if (host_player_id == id) {
@@ -145,6 +193,43 @@ public class Room {
                     host_player_id = -1;
                 }
             }
+            return freed_teams;
+        }
+    }
+
+    /**
+     * @param teams the teams freed by {@link #removePlayer(int)}, one bit for each team
+     */
+    public void clearPlayerTypes(int teams) {
+        for (int team = 0; team < 4; team++) {
+            //the team may have been allocated again in between
+            if ((teams & (1 << team)) != 0 && allocation[team] == -1) {
+                setPlayerType(team, Player.NONE);
+            }
+        }
+    }
+
+    /**
+     * @param previous_id the id of the seated player
+     * @param id          the id of the player taking over the seat
+     * @return false if the previous player is no longer seated
+     */
+    public boolean replacePlayer(int previous_id, int id) {
+        synchronized (PLAYER_LOCK) {
+            if (players.remove(previous_id)) {
+                players.add(id);
+                for (int team = 0; team < 4; team++) {
+                    if (allocation[team] == previous_id) {
+                        allocation[team] = id;
+                    }
+                }
+                if (host_player_id == previous_id) {
+                    host_player_id = id;
+                }
+                return true;
+            } else {
+                return false;
+            }
         }
     }
 
@@ -282,31 +367,223 @@ public class Room {
         game_started = true;
     }
 
+    public void setEventValidationEnabled(boolean enabled) {
+        synchronized (GAME_LOCK) {
+            getManager().getGameEventExecutor().setCheckEventValue(enabled);
+        }
+    }
+
+    public void setEventLogCapacity(int capacity) {
+        synchronized (GAME_LOCK) {
+            event_log_capacity = capacity;
+            while (event_log.size() > capacity) {
+                event_log.removeFirst();
+            }
+        }
+    }
+
+    public void setEventSequence(long sequence) {
+        synchronized (GAME_LOCK) {
+            event_sequence = sequence;
+        }
+    }
+
+    public long getEventSequence() {
+        synchronized (GAME_LOCK) {
+            return event_sequence;
+        }
+    }
+
+    /**
+     * Get the events executed after the given sequence number.
+     *
+     * @param sequence the last sequence number known by the caller
+     * @return the missing events in order, or null if the log no longer reaches back that far
+     */
+    public Array<JSONObject> getEventsSince(long sequence) {
+        synchronized (GAME_LOCK) {
+            long first_sequence = event_sequence - event_log.size() + 1;
+            if (sequence < first_sequence - 1 || sequence > event_sequence) {
+                return null;
+            } else {
+                Array<JSONObject> events = new Array<JSONObject>();
+                long current_sequence = first_sequence;
+                for (JSONObject event : event_log) {
+                    if (current_sequence > sequence) {
+                        events.add(event);
+                    }
+                    current_sequence++;
+                }
+                return events;
+            }
+        }
+    }
+
+    private void appendEventLog(JSONObject event) {
+        event_sequence++;
+        event_log.addLast(event);
+        if (event_log.size() > event_log_capacity) {
+            event_log.removeFirst();
+        }
+    }
+
+    public int getMailboxDepth() {
+        return event_executor.getQueue().size();
+    }
+
+    public LatencyHistogram getEventLatency() {
+        return event_latency;
+    }
+
     public void submitGameEvent(JSONObject event, int player_id) {
-        event_executor.submit(new GameEventExecutingTask(event, player_id));
+        synchronized (GAME_LOCK) {
+            execute(new GameEventExecutingTask(event, player_id, forced_turn_count));
+        }
     }
 
-    private void executeGameEvent(JSONObject event, int player_id) {
+    /**
+     * @return a number identifying the current turn of the current team
+     */
+    public long getTurnKey() {
         synchronized (GAME_LOCK) {
+            return (long) getGame().getCurrentTurn() * 4 + getGame().getCurrentTeam();
+        }
+    }
+
+    /**
+     * Must be called while holding the game lock.
+     *
+     * @param timer the timer of the current turn
+     * @param key   the turn key the timer was scheduled for
+     */
+    public void setTurnTimer(TimingWheel.Timeout timer, long key) {
+        cancelTurnTimer();
+        turn_timer = timer;
+        turn_timer_key = key;
+    }
+
+    public long getTurnTimerKey() {
+        return turn_timer_key;
+    }
+
+    public void cancelTurnTimer() {
+        if (turn_timer != null) {
+            turn_timer.cancel();
+            turn_timer = null;
+        }
+        turn_timer_key = -1;
+    }
+
+    /**
+     * End the given turn on behalf of the current player unless it has already ended.
+     *
+     * @param turn_key the key of the turn that timed out
+     */
+    public void submitTurnEnding(long turn_key) {
+        execute(new TurnEndingTask(turn_key));
+    }
+
+    //a late request or timeout may arrive after the executor has been shut down
+    private void execute(Runnable task) {
+        if (!disposed) {
             try {
-                if (event.getInt("type") == GameEvent.MANAGER_STATE_SYNC) {
-                    int state = event.getJSONArray("parameters").getInt(0);
-                    getManager().setState(state);
-                } else {
-                    getManager().getGameEventExecutor().submitGameEvent(event);
-                    getManager().getGameEventExecutor().dispatchGameEvents();
+                event_executor.submit(task);
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+    }
+
+    private void endTurn(long turn_key) {
+        synchronized (GAME_LOCK) {
+            if (isGameOver() || getTurnKey() != turn_key) {
+                return;
+            }
+            try {
+                Array<JSONObject> events = createTurnEndingEvents();
+                //the events the player submitted for the turn but not executed yet are dropped
+                forced_turn_count++;
+                for (JSONObject event : events) {
+                    applyGameEvent(event);
+                    appendEventLog(event);
+                    getListener().onGameEventExecuted(this, event, event_sequence, -1);
                 }
-                getListener().onGameEventExecuted(this, event, player_id);
+            } catch (CheatingException ex) {
+                Log.error(TAG, String.format("Error ending turn in room [%d]", getRoomID()), ex);
+            }
+        }
+    }
+
+    //the end turn operation is executed on a copy of the game to create the events a client would submit
+    private Array<JSONObject> createTurnEndingEvents() throws CheatingException {
+        TurnEndingManager turn_ending_manager = new TurnEndingManager();
+        turn_ending_manager.setGame(new GameCore(getGame()));
+        turn_ending_manager.getOperationExecutor().submitOperation(Operation.NEXT_TURN);
+        turn_ending_manager.getOperationExecutor().operate();
+        while (turn_ending_manager.getGameEventExecutor().isProcessing()
+                && !turn_ending_manager.getGame().isGameOver()) {
+            turn_ending_manager.getGameEventExecutor().dispatchGameEvents();
+        }
+        Array<JSONObject> events = new Array<JSONObject>();
+        events.add(GameEvent.create(GameEvent.MANAGER_STATE_SYNC, GameManager.STATE_SELECT));
+        events.addAll(turn_ending_manager.events);
+        events.add(GameEvent.create(GameEvent.MANAGER_STATE_SYNC, GameManager.STATE_SELECT));
+        return events;
+    }
+
+    /**
+     * Execute an event logged before the room was recovered, without notifying anyone.
+     *
+     * @param event the logged event
+     * @throws CheatingException if the event can not be executed
+     */
+    public void recoverGameEvent(JSONObject event) throws CheatingException {
+        synchronized (GAME_LOCK) {
+            applyGameEvent(event);
+            appendEventLog(event);
+        }
+    }
+
+    private void applyGameEvent(JSONObject event) throws CheatingException {
+        if (event.getInt("type") == GameEvent.MANAGER_STATE_SYNC) {
+            int state = event.getJSONArray("parameters").getInt(0);
+            getManager().setState(state);
+        } else {
+            getManager().getGameEventExecutor().submitGameEvent(event);
+            getManager().getGameEventExecutor().dispatchGameEvents();
+        }
+    }
+
+    private void executeGameEvent(JSONObject event, int player_id, int forced_turn_count) {
+        long start_time = System.nanoTime();
+        synchronized (GAME_LOCK) {
+            if (forced_turn_count != this.forced_turn_count) {
+                getListener().onStaleGameEvent(this, player_id);
+                return;
+            }
+            try {
+                applyGameEvent(event);
+                appendEventLog(event);
+                getListener().onGameEventExecuted(this, event, event_sequence, player_id);
             } catch (Exception ex) {
                 getListener().onCheatingDetected(this, player_id, ex);
             }
         }
+        event_latency.record(System.nanoTime() - start_time);
     }
 
     public void dispose() {
+        disposed = true;
+        TimingWheel.Timeout timer = turn_timer;
+        if (timer != null) {
+            timer.cancel();
+        }
         event_executor.shutdown();
     }
 
+    public boolean isDisposed() {
+        return disposed;
+    }
+
     public boolean isOpen() {
         return !game_started;
     }
@@ -327,15 +604,43 @@ public class Room {
 
         private final JSONObject event;
         private final int player_id;
+        private final int forced_turn_count;
 
-        public GameEventExecutingTask(JSONObject event, int player_id) {
+        public GameEventExecutingTask(JSONObject event, int player_id, int forced_turn_count) {
             this.event = event;
             this.player_id = player_id;
+            this.forced_turn_count = forced_turn_count;
         }
 
         @Override
         public void run() {
-            executeGameEvent(event, player_id);
+            executeGameEvent(event, player_id, forced_turn_count);
+        }
+
+    }
+
+    private class TurnEndingTask implements Runnable {
+
+        private final long turn_key;
+
+        public TurnEndingTask(long turn_key) {
+            this.turn_key = turn_key;
+        }
+
+        @Override
+        public void run() {
+            endTurn(turn_key);
+        }
+
+    }
+
+    private static class TurnEndingManager extends GameManager {
+
+        private final Array<JSONObject> events = new Array<JSONObject>();
+
+        @Override
+        public void onGameEventExecuted(GameEvent event) {
+            events.add(event.toJson());
         }
 
     }
@@ -1,7 +1,10 @@
 package net.toyknight.aeii.server.managers;
 
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ObjectSet;
 import net.toyknight.aeii.network.entity.MapSnapshot;
+import net.toyknight.aeii.server.ServerContext;
 
 import java.sql.*;
 
@@ -10,93 +13,244 @@ import java.sql.*;
  */
 public class DatabaseManager {
 
+    private final ServerContext context;
+
     private Connection connection;
 
+    public DatabaseManager(ServerContext context) {
+        this.context = context;
+    }
+
+    public ServerContext getContext() {
+        return context;
+    }
+
     public void connect(String host, String name, String username, String password)
             throws SQLException, ClassNotFoundException {
         connection = DriverManager.getConnection(String.format(
                 "jdbc:mysql://%s/%s?user=%s&password=%s&useUnicode=true&characterEncoding=UTF-8",
                 host, name, username, password));
+        createHashColumn();
+    }
+
+    //catalogs created before maps were hashed get the column, their maps are hashed by the next indexing
+    private void createHashColumn() throws SQLException {
+        ResultSet columns = getConnection().getMetaData().getColumns(null, null, "maps", "hash");
+        if (!columns.next()) {
+            getConnection().createStatement().executeUpdate("ALTER TABLE maps ADD COLUMN hash CHAR(32) NULL");
+        }
     }
 
     private Connection getConnection() {
         return connection;
     }
 
-    public int addMap(int capacity, String filename, String author, boolean symmetric) throws SQLException {
-        PreparedStatement statement = getConnection().prepareStatement(
-                "INSERT INTO maps (capacity, filename, author, symmetric) VALUES (?, ?, ?, ?)");
-        statement.setInt(1, capacity);
-        statement.setString(2, filename);
-        statement.setString(3, author);
-        statement.setInt(4, symmetric ? 1 : 0);
-        statement.executeUpdate();
+    private void recordLatency(String operation, long start_time) {
+        getContext().getMetricsManager().recordLatency("database." + operation, System.nanoTime() - start_time);
+    }
+
+    public int addMap(int capacity, String filename, String author, boolean symmetric, String hash)
+            throws SQLException {
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement = getConnection().prepareStatement(
+                    "INSERT INTO maps (capacity, filename, author, symmetric, hash) VALUES (?, ?, ?, ?, ?)");
+            statement.setInt(1, capacity);
+            statement.setString(2, filename);
+            statement.setString(3, author);
+            statement.setInt(4, symmetric ? 1 : 0);
+            statement.setString(5, hash);
+            statement.executeUpdate();
 
-        statement = getConnection().prepareStatement("SELECT map_id FROM maps WHERE filename = ? AND author = ?");
-        statement.setString(1, filename);
-        statement.setString(2, author);
-        ResultSet result = statement.executeQuery();
-        return result.next() ? result.getInt("map_id") : -1;
+            statement = getConnection().prepareStatement("SELECT map_id FROM maps WHERE filename = ? AND author = ?");
+            statement.setString(1, filename);
+            statement.setString(2, author);
+            ResultSet result = statement.executeQuery();
+            return result.next() ? result.getInt("map_id") : -1;
+        } finally {
+            recordLatency("add_map", start_time);
+        }
+    }
+
+    /**
+     * Insert the maps with one multi-row statement in one transaction. The generated ids are assigned to the
+     * given maps in order before the transaction is committed.
+     *
+     * @param maps     the maps to insert
+     * @param callback called with the assigned ids before the commit, failing it rolls the insert back
+     */
+    public void addMaps(Array<MapManager.IndexedMap> maps, Runnable callback) throws SQLException {
+        long start_time = System.nanoTime();
+        Connection connection = getConnection();
+        boolean auto_commit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            StringBuilder sql =
+                    new StringBuilder("INSERT INTO maps (capacity, filename, author, symmetric, hash) VALUES ");
+            for (int i = 0; i < maps.size; i++) {
+                sql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+            }
+            PreparedStatement statement = connection.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+            int index = 1;
+            for (MapManager.IndexedMap map : maps) {
+                statement.setInt(index++, map.getCapacity());
+                statement.setString(index++, map.getFilename());
+                statement.setString(index++, map.getAuthor());
+                statement.setInt(index++, map.isSymmetric() ? 1 : 0);
+                statement.setString(index++, map.getHash());
+            }
+            statement.executeUpdate();
+            ResultSet keys = statement.getGeneratedKeys();
+            for (MapManager.IndexedMap map : maps) {
+                if (!keys.next()) {
+                    throw new SQLException("Missing generated map id");
+                }
+                map.setMapID(keys.getInt(1));
+            }
+            callback.run();
+            connection.commit();
+        } catch (SQLException ex) {
+            connection.rollback();
+            throw ex;
+        } catch (RuntimeException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(auto_commit);
+            recordLatency("add_maps", start_time);
+        }
+    }
+
+    public boolean isMapExisting(int map_id) throws SQLException {
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement = getConnection().prepareStatement("SELECT map_id FROM maps WHERE map_id = ?");
+            statement.setInt(1, map_id);
+            return statement.executeQuery().next();
+        } finally {
+            recordLatency("is_map_existing", start_time);
+        }
     }
 
     public boolean removeMap(int map_id) throws SQLException {
-        PreparedStatement statement = getConnection().prepareStatement("DELETE FROM maps WHERE map_id = ?");
-        statement.setInt(1, map_id);
-        return statement.executeUpdate() > 0;
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement = getConnection().prepareStatement("DELETE FROM maps WHERE map_id = ?");
+            statement.setInt(1, map_id);
+            return statement.executeUpdate() > 0;
+        } finally {
+            recordLatency("remove_map", start_time);
+        }
     }
 
-    public boolean changeMapAuthor(int map_id, String author) throws SQLException {
-        PreparedStatement statement = getConnection().prepareStatement("UPDATE maps SET author = ? WHERE map_id = ?");
-        statement.setString(1, author);
-        statement.setInt(2, map_id);
-        return statement.executeUpdate() > 0;
+    public boolean changeMapAuthor(int map_id, String author, String hash) throws SQLException {
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement =
+                    getConnection().prepareStatement("UPDATE maps SET author = ?, hash = ? WHERE map_id = ?");
+            statement.setString(1, author);
+            statement.setString(2, hash);
+            statement.setInt(3, map_id);
+            return statement.executeUpdate() > 0;
+        } finally {
+            recordLatency("change_map_author", start_time);
+        }
     }
 
     public boolean changeMapFilename(int map_id, String filename) throws SQLException {
-        PreparedStatement statement = getConnection().prepareStatement("UPDATE maps SET filename = ? WHERE map_id = ?");
-        statement.setString(1, filename);
-        statement.setInt(2, map_id);
-        return statement.executeUpdate() > 0;
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement = getConnection().prepareStatement("UPDATE maps SET filename = ? WHERE map_id = ?");
+            statement.setString(1, filename);
+            statement.setInt(2, map_id);
+            return statement.executeUpdate() > 0;
+        } finally {
+            recordLatency("change_map_filename", start_time);
+        }
+    }
+
+    public IntArray getUnhashedMapIDs() throws SQLException {
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement = getConnection().prepareStatement("SELECT map_id FROM maps WHERE hash IS NULL");
+            ResultSet result = statement.executeQuery();
+            IntArray map_ids = new IntArray();
+            while (result.next()) {
+                map_ids.add(result.getInt("map_id"));
+            }
+            return map_ids;
+        } finally {
+            recordLatency("get_unhashed_map_ids", start_time);
+        }
+    }
+
+    public boolean changeMapHash(int map_id, String hash) throws SQLException {
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement = getConnection().prepareStatement("UPDATE maps SET hash = ? WHERE map_id = ?");
+            statement.setString(1, hash);
+            statement.setInt(2, map_id);
+            return statement.executeUpdate() > 0;
+        } finally {
+            recordLatency("change_map_hash", start_time);
+        }
     }
 
     public ObjectSet<MapSnapshot> getMapSnapshots(String author, boolean symmetric) throws SQLException {
-        String sql = symmetric ?
-                "SELECT * FROM maps WHERE author = ? AND symmetric = 1" :
-                "SELECT * FROM maps WHERE author = ?";
-        PreparedStatement statement = getConnection().prepareStatement(sql);
-        statement.setString(1, author);
-        ResultSet result = statement.executeQuery();
-        ObjectSet<MapSnapshot> snapshots = new ObjectSet<MapSnapshot>();
-        while (result.next()) {
-            snapshots.add(new MapSnapshot(
-                    result.getInt("map_id"),
-                    result.getInt("capacity"),
-                    result.getString("filename"),
-                    result.getString("author")));
+        long start_time = System.nanoTime();
+        try {
+            String sql = symmetric ?
+                    "SELECT * FROM maps WHERE author = ? AND symmetric = 1" :
+                    "SELECT * FROM maps WHERE author = ?";
+            PreparedStatement statement = getConnection().prepareStatement(sql);
+            statement.setString(1, author);
+            ResultSet result = statement.executeQuery();
+            ObjectSet<MapSnapshot> snapshots = new ObjectSet<MapSnapshot>();
+            while (result.next()) {
+                MapSnapshot snapshot = new MapSnapshot(
+                        result.getInt("map_id"),
+                        result.getInt("capacity"),
+                        result.getString("filename"),
+                        result.getString("author"));
+                snapshot.setHash(result.getString("hash"));
+                snapshots.add(snapshot);
+            }
+            return snapshots;
+        } finally {
+            recordLatency("get_map_snapshots", start_time);
         }
-        return snapshots;
     }
 
     public ObjectSet<String> getAuthors(boolean symmetric) throws SQLException {
-        String sql = symmetric ?
-                "SELECT DISTINCT author FROM (SELECT * FROM maps WHERE symmetric = 1) AS symmetric_maps" :
-                "SELECT DISTINCT author FROM maps";
-        PreparedStatement statement = getConnection().prepareStatement(sql);
-        ResultSet result = statement.executeQuery();
-        ObjectSet<String> authors = new ObjectSet<String>();
-        while (result.next()) {
-            authors.add(result.getString("author"));
+        long start_time = System.nanoTime();
+        try {
+            String sql = symmetric ?
+                    "SELECT DISTINCT author FROM (SELECT * FROM maps WHERE symmetric = 1) AS symmetric_maps" :
+                    "SELECT DISTINCT author FROM maps";
+            PreparedStatement statement = getConnection().prepareStatement(sql);
+            ResultSet result = statement.executeQuery();
+            ObjectSet<String> authors = new ObjectSet<String>();
+            while (result.next()) {
+                authors.add(result.getString("author"));
+            }
+            return authors;
+        } finally {
+            recordLatency("get_authors", start_time);
         }
-        return authors;
     }
 
     public boolean isMapExisting(String filename, String author) throws SQLException {
-        PreparedStatement statement = getConnection().prepareStatement(
-                "SELECT count(map_id) FROM maps WHERE filename = ? AND author = ?");
-        statement.setString(1, filename);
-        statement.setString(2, author);
-        ResultSet result = statement.executeQuery();
-        return result.next() && result.getInt(1) == 1;
+        long start_time = System.nanoTime();
+        try {
+            PreparedStatement statement = getConnection().prepareStatement(
+                    "SELECT count(map_id) FROM maps WHERE filename = ? AND author = ?");
+            statement.setString(1, filename);
+            statement.setString(2, author);
+            ResultSet result = statement.executeQuery();
+            return result.next() && result.getInt(1) == 1;
+        } finally {
+            recordLatency("is_map_existing", start_time);
+        }
     }
 
 }
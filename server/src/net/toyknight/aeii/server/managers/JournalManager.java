@@ -0,0 +1,703 @@
+package net.toyknight.aeii.server.managers;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.manager.CheatingException;
+import net.toyknight.aeii.manager.GameManager;
+import net.toyknight.aeii.network.PacketCodec;
+import net.toyknight.aeii.server.ServerContext;
+import net.toyknight.aeii.server.entities.Player;
+import net.toyknight.aeii.server.entities.Room;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the started rooms. The accepted game events of all the rooms are appended to one segmented
+ * log by a single writer thread, which forces every batch to disk with one fsync however many rooms it spans.
+ * Each room is checkpointed once both a few hundred events and a minute have passed since its last checkpoint,
+ * and a segment is deleted once every room logged in it has a later checkpoint or is gone. On startup the rooms
+ * are rebuilt from their last checkpoint and the records logged after it, and their seats wait for the players
+ * to resume their sessions.
+ *
+ * @author agent 10/19/2026.
+ */
+public class JournalManager {
+
+    private static final String TAG = "JOURNAL";
+
+    private static final byte RECORD_EVENT = 0x1;
+    private static final byte RECORD_SEATS = 0x2;
+    private static final byte RECORD_REMOVAL = 0x3;
+    private static final byte RECORD_CHECKPOINT = 0x4;
+
+    //kind, room id, sequence and payload length ahead of the payload, checksum after it
+    private static final int RECORD_HEADER_SIZE = 21;
+    private static final int RECORD_TRAILER_SIZE = 4;
+
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "room-";
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    private final Object JOURNAL_LOCK = new Object();
+
+    private final ServerContext context;
+
+    private final File directory;
+
+    private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+
+    //the sequence each journaled room was last checkpointed at
+    private final ConcurrentHashMap<Long, Long> checkpoint_sequences = new ConcurrentHashMap<Long, Long>();
+
+    //the time each journaled room was last checkpointed at
+    private final ConcurrentHashMap<Long, Long> checkpoint_times = new ConcurrentHashMap<Long, Long>();
+
+    //ids of the recovered seats, no connection id is negative
+    private final AtomicInteger seat_id = new AtomicInteger(-2);
+
+    private final AtomicLong record_count = new AtomicLong();
+
+    private final AtomicLong batch_count = new AtomicLong();
+
+    private final AtomicLong checkpoint_count = new AtomicLong();
+
+    //only touched by the writer thread once it is started
+    private final ObjectMap<Long, Position> checkpoint_positions = new ObjectMap<Long, Position>();
+
+    private final Array<Segment> segments = new Array<Segment>();
+
+    private Segment segment;
+
+    private FileOutputStream segment_stream;
+
+    private DataOutputStream segment_output;
+
+    private int next_segment_index = 1;
+
+    private volatile int segment_count;
+
+    private volatile boolean failed;
+
+    public JournalManager(ServerContext context) {
+        this.context = context;
+        this.directory = new File(context.getConfiguration().getJournalDirectory());
+    }
+
+    public ServerContext getContext() {
+        return context;
+    }
+
+    public void start() {
+        Thread writer = new Thread(new JournalWritingTask(), "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isJournaled(Room room) {
+        return checkpoint_sequences.containsKey(room.getRoomID());
+    }
+
+    public int getQueuedRecords() {
+        return queue.size();
+    }
+
+    public long getRecordCount() {
+        return record_count.get();
+    }
+
+    public long getBatchCount() {
+        return batch_count.get();
+    }
+
+    public long getCheckpointCount() {
+        return checkpoint_count.get();
+    }
+
+    public int getSegmentCount() {
+        return segment_count;
+    }
+
+    public int getRoomCount() {
+        return checkpoint_sequences.size();
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Start journaling a room whose game has just started.
+     *
+     * @param room the started room
+     */
+    public void onRoomStarted(Room room) {
+        synchronized (room.GAME_LOCK) {
+            checkpoint(room);
+        }
+    }
+
+    /**
+     * Must be called by the event executor of the room while it holds the game lock.
+     *
+     * @param room     the room the event is executed in
+     * @param event    the executed event
+     * @param sequence the sequence number of the event
+     */
+    public void onGameEventExecuted(Room room, JSONObject event, long sequence) {
+        Long checkpoint_sequence = checkpoint_sequences.get(room.getRoomID());
+        if (checkpoint_sequence != null) {
+            offer(new Record(RECORD_EVENT, room.getRoomID(), sequence, event));
+            //a checkpoint carries no manager state, so it is only taken between two actions, and the game is
+            //copied under the game lock, so a busy room is not checkpointed more than once a period
+            if (sequence - checkpoint_sequence >= getContext().getConfiguration().getCheckpointInterval()
+                    && room.getManager().getState() == GameManager.STATE_SELECT
+                    && System.currentTimeMillis() - getCheckpointTime(room)
+                    >= getContext().getConfiguration().getCheckpointPeriod()) {
+                checkpoint(room);
+            }
+        }
+    }
+
+    public void onSeatsChanged(Room room) {
+        if (isJournaled(room)) {
+            synchronized (JOURNAL_LOCK) {
+                offer(new Record(RECORD_SEATS, room.getRoomID(), 0, createSeats(room)));
+            }
+        }
+    }
+
+    public void onRoomRemoved(long room_id) {
+        checkpoint_times.remove(room_id);
+        if (checkpoint_sequences.remove(room_id) != null) {
+            offer(new Record(RECORD_REMOVAL, room_id, 0, null));
+        }
+    }
+
+    private long getCheckpointTime(Room room) {
+        Long checkpoint_time = checkpoint_times.get(room.getRoomID());
+        return checkpoint_time == null ? 0 : checkpoint_time;
+    }
+
+    private void checkpoint(Room room) {
+        JSONObject checkpoint = new JSONObject();
+        checkpoint.put("name", room.getRoomName());
+        checkpoint.put("map_name", room.getMapName());
+        if (room.getPassword() != null) {
+            checkpoint.put("password", room.getPassword());
+        }
+        checkpoint.put("capacity", room.getPlayerCapacity());
+        checkpoint.put("start_gold", room.getStartGold());
+        long sequence = room.getEventSequence();
+        Record record = new Record(RECORD_CHECKPOINT, room.getRoomID(), sequence, checkpoint);
+        //the game is serialized by the writer
+        record.game = room.getGameCopy();
+        checkpoint_sequences.put(room.getRoomID(), sequence);
+        checkpoint_times.put(room.getRoomID(), System.currentTimeMillis());
+        //seat changes must reach the queue in the order they were made
+        synchronized (JOURNAL_LOCK) {
+            checkpoint.put("seats", createSeats(room));
+            offer(record);
+        }
+    }
+
+    private JSONObject createSeats(Room room) {
+        JSONArray seats = new JSONArray();
+        int host_team = -1;
+        for (int team = 0; team < 4; team++) {
+            int id = room.getAllocation(team);
+            Player player = id == -1 ? null : getContext().getPlayerManager().getSessionPlayer(id);
+            //players without a session token can not resume their seats
+            if (player != null && player.getSessionToken() != null) {
+                JSONObject seat = new JSONObject();
+                seat.put("team", team);
+                seat.put("token", player.getSessionToken());
+                seat.put("username", player.getUsername());
+                seats.put(seat);
+                if (id == room.getHostID() && host_team == -1) {
+                    host_team = team;
+                }
+            }
+        }
+        JSONObject json = new JSONObject();
+        json.put("seats", seats);
+        json.put("host_team", host_team);
+        return json;
+    }
+
+    private void offer(Record record) {
+        if (!failed) {
+            queue.offer(record);
+        }
+    }
+
+    /**
+     * Rebuild the rooms logged before the server stopped. Must be called before the server starts accepting
+     * connections and before the writer is started.
+     */
+    public void recover() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Can not create journal directory %s", directory.getPath()));
+        }
+        ObjectMap<Long, RecoveredRoom> recovered_rooms = new ObjectMap<Long, RecoveredRoom>();
+        Array<File> checkpoint_files = new Array<File>();
+        Array<Integer> segment_indices = new Array<Integer>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX)) {
+                    checkpoint_files.add(file);
+                    RecoveredRoom room = readCheckpoint(file);
+                    if (room != null) {
+                        recovered_rooms.put(room.room_id, room);
+                    }
+                }
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        int index = Integer.parseInt(
+                                name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                        segment_indices.add(index);
+                        next_segment_index = Math.max(next_segment_index, index + 1);
+                    } catch (NumberFormatException ex) {
+                        Log.error(TAG, String.format("Unknown journal file %s", name));
+                    }
+                }
+            }
+        }
+        segment_indices.sort();
+        for (int index : segment_indices) {
+            readSegment(index, recovered_rooms);
+        }
+        //the recovered rooms are checkpointed again, so that the old segments are no longer needed
+        Position position = new Position(next_segment_index, 0);
+        int count = 0;
+        for (RecoveredRoom recovered_room : recovered_rooms.values()) {
+            try {
+                Room room = recoverRoom(recovered_room);
+                if (room != null) {
+                    Record record = new Record(
+                            RECORD_CHECKPOINT, room.getRoomID(), room.getEventSequence(), recovered_room.checkpoint);
+                    record.payload.put("seats", recovered_room.seats);
+                    record.game = room.getGameCopy();
+                    writeCheckpoint(record, position);
+                    checkpoint_sequences.put(room.getRoomID(), room.getEventSequence());
+                    checkpoint_times.put(room.getRoomID(), System.currentTimeMillis());
+                    count++;
+                }
+            } catch (CheatingException ex) {
+                Log.error(TAG, String.format("Error recovering room [%d]", recovered_room.room_id), ex);
+            } catch (RuntimeException ex) {
+                Log.error(TAG, String.format("Error recovering room [%d]", recovered_room.room_id), ex);
+            }
+        }
+        for (int index : segment_indices) {
+            deleteFile(getSegmentFile(index));
+        }
+        for (File file : checkpoint_files) {
+            if (!checkpoint_positions.containsKey(getRoomID(file))) {
+                deleteFile(file);
+            }
+        }
+        Log.info(TAG, String.format("Recovered %d rooms from %d segments", count, segment_indices.size));
+    }
+
+    private Room recoverRoom(RecoveredRoom recovered_room) throws JSONException, CheatingException {
+        JSONObject checkpoint = recovered_room.checkpoint;
+        JSONArray seats = recovered_room.seats.getJSONArray("seats");
+        if (seats.length() == 0) {
+            return null;
+        }
+        GameCore game = new GameCore(checkpoint.getJSONObject("game"));
+        Room room = new Room(recovered_room.room_id, checkpoint.getString("name"), game, checkpoint.getInt("start_gold"));
+        room.setEventLogCapacity(getContext().getConfiguration().getEventLogSize());
+        room.setEventValidationEnabled(getContext().getConfiguration().isEventValidationEnabled());
+        if (checkpoint.has("password")) {
+            room.setPassword(checkpoint.getString("password"));
+        }
+        room.setMapName(checkpoint.getString("map_name"));
+        room.setPlayerCapacity(checkpoint.getInt("capacity"));
+        room.startGame();
+        room.setEventSequence(recovered_room.sequence);
+        for (JSONObject event : recovered_room.events) {
+            room.recoverGameEvent(event);
+        }
+        if (room.isGameOver()) {
+            return null;
+        }
+        ObjectMap<String, Player> placeholders = new ObjectMap<String, Player>();
+        for (int i = 0; i < seats.length(); i++) {
+            JSONObject seat = seats.getJSONObject(i);
+            String token = seat.getString("token");
+            Player placeholder = placeholders.get(token);
+            if (placeholder == null) {
+                placeholder = new Player(seat_id.getAndDecrement(), seat.getString("username"), token);
+                placeholder.setRoomID(room.getRoomID());
+                placeholders.put(token, placeholder);
+                room.addPlayer(placeholder.getID());
+            }
+            room.setAllocation(seat.getInt("team"), placeholder.getID());
+        }
+        int host_team = recovered_room.seats.getInt("host_team");
+        if (host_team >= 0 && room.getAllocation(host_team) != -1) {
+            room.setHostPlayer(room.getAllocation(host_team));
+        } else {
+            room.setHostPlayer(room.getPlayers().first());
+        }
+        for (Player placeholder : placeholders.values()) {
+            getContext().getPlayerManager().restoreSession(placeholder);
+        }
+        getContext().getRoomManager().addRecoveredRoom(room);
+        Log.info(TAG, String.format("Room [%d] recovered at event %d with %d seats",
+                room.getRoomID(), room.getEventSequence(), placeholders.size));
+        return room;
+    }
+
+    private RecoveredRoom readCheckpoint(File file) {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Record record = readRecord(input);
+            if (record == null || record.kind != RECORD_CHECKPOINT) {
+                throw new IOException("Not a checkpoint");
+            }
+            JSONObject checkpoint = record.payload;
+            Position position = new Position(checkpoint.getInt("segment"), checkpoint.getLong("offset"));
+            return new RecoveredRoom(record.room_id, record.sequence, checkpoint, position);
+        } catch (IOException ex) {
+            Log.error(TAG, String.format("Broken checkpoint %s", file.getName()), ex);
+            return null;
+        } catch (JSONException ex) {
+            Log.error(TAG, String.format("Broken checkpoint %s", file.getName()), ex);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private void readSegment(int index, ObjectMap<Long, RecoveredRoom> recovered_rooms) {
+        DataInputStream input = null;
+        long offset = 0;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(getSegmentFile(index))));
+            Record record;
+            while ((record = readRecord(input)) != null) {
+                RecoveredRoom room = recovered_rooms.get(record.room_id);
+                if (room != null && !room.position.isAfter(index, offset)) {
+                    switch (record.kind) {
+                        case RECORD_EVENT:
+                            if (record.sequence == room.sequence + room.events.size + 1) {
+                                room.events.add(record.payload);
+                            }
+                            break;
+                        case RECORD_SEATS:
+                            room.seats = record.payload;
+                            break;
+                        case RECORD_REMOVAL:
+                            recovered_rooms.remove(record.room_id);
+                            break;
+                        default:
+                            //do nothing
+                    }
+                }
+                offset += record.size;
+            }
+        } catch (IOException ex) {
+            //the records after a torn write were never acknowledged
+            Log.info(TAG, String.format("Segment %d ends with a broken record at %d", index, offset));
+        } catch (JSONException ex) {
+            Log.info(TAG, String.format("Segment %d ends with a broken record at %d", index, offset));
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private void writeBatch(ArrayList<Record> batch) throws IOException {
+        long start_time = System.nanoTime();
+        for (Record record : batch) {
+            if (record.kind == RECORD_CHECKPOINT) {
+                writeCheckpoint(record, new Position(segment.index, segment.size));
+            } else {
+                appendRecord(record);
+            }
+        }
+        segment_output.flush();
+        segment_stream.getFD().sync();
+        record_count.addAndGet(batch.size());
+        batch_count.incrementAndGet();
+        getContext().getMetricsManager().recordLatency("journal.commit", System.nanoTime() - start_time);
+        compact();
+    }
+
+    private void appendRecord(Record record) throws IOException {
+        byte[] payload = record.payload == null ? new byte[0] : PacketCodec.encode(record.payload);
+        int size = RECORD_HEADER_SIZE + payload.length + RECORD_TRAILER_SIZE;
+        if (segment.size > 0 && segment.size + size > getContext().getConfiguration().getJournalSegmentSize()) {
+            openSegment();
+        }
+        writeRecord(segment_output, record.kind, record.room_id, record.sequence, payload);
+        segment.size += size;
+        segment.rooms.add(record.room_id);
+        if (record.kind == RECORD_REMOVAL) {
+            checkpoint_positions.remove(record.room_id);
+            deleteFile(getCheckpointFile(record.room_id));
+        }
+    }
+
+    private void writeCheckpoint(Record record, Position position) throws IOException {
+        JSONObject checkpoint = new JSONObject(record.payload, JSONObject.getNames(record.payload));
+        checkpoint.put("game", record.game.toJson());
+        checkpoint.put("segment", position.segment);
+        checkpoint.put("offset", position.offset);
+        File file = getCheckpointFile(record.room_id);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            writeRecord(output, RECORD_CHECKPOINT, record.room_id, record.sequence, PacketCodec.encode(checkpoint));
+            output.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temporary.renameTo(file)) {
+            deleteFile(file);
+            if (!temporary.renameTo(file)) {
+                throw new IOException(String.format("Can not replace checkpoint %s", file.getName()));
+            }
+        }
+        checkpoint_positions.put(record.room_id, position);
+        checkpoint_count.incrementAndGet();
+    }
+
+    private void openSegment() throws IOException {
+        if (segment_output != null) {
+            segment_output.flush();
+            segment_stream.getFD().sync();
+            segment_output.close();
+        }
+        segment = new Segment(next_segment_index++);
+        segment_stream = new FileOutputStream(getSegmentFile(segment.index));
+        segment_output = new DataOutputStream(new BufferedOutputStream(segment_stream));
+        segments.add(segment);
+        segment_count = segments.size;
+    }
+
+    //a segment is obsolete once every room logged in it is checkpointed after it or gone
+    private void compact() {
+        for (int i = segments.size - 2; i >= 0; i--) {
+            Segment obsolete = segments.get(i);
+            boolean covered = true;
+            for (long room_id : obsolete.rooms) {
+                Position position = checkpoint_positions.get(room_id);
+                if (position != null && position.segment <= obsolete.index) {
+                    covered = false;
+                    break;
+                }
+            }
+            if (covered) {
+                deleteFile(getSegmentFile(obsolete.index));
+                segments.removeIndex(i);
+            }
+        }
+        segment_count = segments.size;
+    }
+
+    private static void writeRecord(
+            DataOutputStream output, byte kind, long room_id, long sequence, byte[] payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        header.put(kind).putLong(room_id).putLong(sequence).putInt(payload.length);
+        CRC32 crc = new CRC32();
+        crc.update(header.array());
+        crc.update(payload);
+        output.write(header.array());
+        output.write(payload);
+        output.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * @return the record, or null if the input ends before it
+     * @throws IOException if the record is torn or broken
+     */
+    private static Record readRecord(DataInputStream input) throws IOException, JSONException {
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        int read = input.read(header);
+        if (read <= 0) {
+            return null;
+        }
+        if (read < RECORD_HEADER_SIZE) {
+            input.readFully(header, read, RECORD_HEADER_SIZE - read);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        byte kind = buffer.get();
+        long room_id = buffer.getLong();
+        long sequence = buffer.getLong();
+        int length = buffer.getInt();
+        if (length < 0) {
+            throw new EOFException("Negative record length");
+        }
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(payload);
+        if (input.readInt() != (int) crc.getValue()) {
+            throw new IOException("Record checksum mismatch");
+        }
+        Record record = new Record(kind, room_id, sequence, length > 0 ? PacketCodec.decode(payload) : null);
+        record.size = RECORD_HEADER_SIZE + length + RECORD_TRAILER_SIZE;
+        return record;
+    }
+
+    private File getSegmentFile(int index) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private File getCheckpointFile(long room_id) {
+        return new File(directory, CHECKPOINT_PREFIX + room_id + CHECKPOINT_SUFFIX);
+    }
+
+    private static long getRoomID(File checkpoint_file) {
+        String name = checkpoint_file.getName();
+        try {
+            return Long.parseLong(name.substring(CHECKPOINT_PREFIX.length(), name.length() - CHECKPOINT_SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.error(TAG, String.format("Can not delete journal file %s", file.getName()));
+        }
+    }
+
+    private static void closeQuietly(DataInputStream input) {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static class Record {
+
+        private final byte kind;
+        private final long room_id;
+        private final long sequence;
+        //the event, the seats or the room setting of a checkpoint
+        private final JSONObject payload;
+
+        private GameCore game;
+        private int size;
+
+        public Record(byte kind, long room_id, long sequence, JSONObject payload) {
+            this.kind = kind;
+            this.room_id = room_id;
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+
+    }
+
+    private static class Position {
+
+        private final int segment;
+        private final long offset;
+
+        public Position(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        public boolean isAfter(int segment, long offset) {
+            return this.segment > segment || (this.segment == segment && this.offset > offset);
+        }
+
+    }
+
+    private static class Segment {
+
+        private final int index;
+        private final ObjectSet<Long> rooms = new ObjectSet<Long>();
+
+        private long size;
+
+        public Segment(int index) {
+            this.index = index;
+        }
+
+    }
+
+    private static class RecoveredRoom {
+
+        private final long room_id;
+        private final long sequence;
+        private final JSONObject checkpoint;
+        private final Position position;
+        private final Array<JSONObject> events = new Array<JSONObject>();
+
+        private JSONObject seats;
+
+        public RecoveredRoom(long room_id, long sequence, JSONObject checkpoint, Position position) {
+            this.room_id = room_id;
+            this.sequence = sequence;
+            this.checkpoint = checkpoint;
+            this.position = position;
+            this.seats = checkpoint.getJSONObject("seats");
+        }
+
+    }
+
+    private class JournalWritingTask implements Runnable {
+
+        @Override
+        public void run() {
+            ArrayList<Record> batch = new ArrayList<Record>();
+            try {
+                openSegment();
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException ignored) {
+            } catch (IOException ex) {
+                failed = true;
+                queue.clear();
+                Log.error(TAG, "Error writing journal, the rooms are no longer journaled", ex);
+            } catch (RuntimeException ex) {
+                failed = true;
+                queue.clear();
+                Log.error(TAG, "Error writing journal, the rooms are no longer journaled", ex);
+            }
+        }
+
+    }
+
+}
@@ -1,15 +1,28 @@
 package net.toyknight.aeii.server.managers;
 
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectMap;
 import com.esotericsoftware.minlog.Log;
 import net.toyknight.aeii.AEIIException;
 import net.toyknight.aeii.entity.Map;
 import net.toyknight.aeii.network.entity.MapSnapshot;
 import net.toyknight.aeii.server.ServerContext;
+import net.toyknight.aeii.server.utils.MapCache;
 import net.toyknight.aeii.utils.MapFactory;
 import org.json.JSONArray;
 
 import java.io.*;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author by toyknight 6/10/2016.
@@ -18,40 +31,247 @@ public class MapManager {
 
     private static final String TAG = "MAP MANAGER";
 
+    private static final int CACHE_REPORT_INTERVAL = 1000;
+
+    private static final long INDEX_REPORT_INTERVAL = 5000;
+
+    private static final String INDEXED_DIRECTORY = "maps-temp";
+
+    private static final String REJECTED_DIRECTORY = "maps-rejected";
+
+    private static final String REJECTED_LOG = "rejected.log";
+
+    private static final String PENDING_FILE = "pending.idx";
+
     private final ServerContext context;
 
-    private final Object CHANGE_LOCK = new Object();
+    private final Object ADD_LOCK = new Object();
+
+    private final ConcurrentHashMap<Integer, ReadWriteLock> map_locks =
+            new ConcurrentHashMap<Integer, ReadWriteLock>();
+
+    private final MapCache map_cache;
+
+    private final AtomicLong lookup_count = new AtomicLong(0);
 
     public MapManager(ServerContext context) {
         this.context = context;
+        this.map_cache = new MapCache(context.getConfiguration().getMapCacheSize());
     }
 
     public ServerContext getContext() {
         return context;
     }
 
-    public void index() {
-        File map_dir = new File("maps");
-        File[] map_files = map_dir.listFiles(new MapFileFilter());
+    /**
+     * Index the map files in the maps directory. The files are parsed and validated by a pool of workers while
+     * the calling thread inserts the accepted maps in batches, each batch in one transaction, and then moves
+     * their files to the indexed directory. Rejected files are moved to the rejected directory and listed in its
+     * log, so an interrupted run is resumed simply by indexing again. The batch being moved is recorded in a
+     * pending file beforehand and completed on the next run if the process stops in between. Catalog maps
+     * that have no content hash yet are hashed first.
+     * <p>
+     * Must not run while the server is serving requests as it shares the database connection.
+     */
+    public void index() throws IOException, SQLException, InterruptedException {
+        File indexed_dir = new File(INDEXED_DIRECTORY);
+        File rejected_dir = new File(REJECTED_DIRECTORY);
+        if (!indexed_dir.isDirectory() && !indexed_dir.mkdirs()) {
+            throw new IOException("Can not create directory " + INDEXED_DIRECTORY);
+        }
+        if (!rejected_dir.isDirectory() && !rejected_dir.mkdirs()) {
+            throw new IOException("Can not create directory " + REJECTED_DIRECTORY);
+        }
+        completePendingBatch(new File(indexed_dir, PENDING_FILE));
+        hashCatalogMaps();
+
+        File[] map_files = new File("maps").listFiles(new MapFileFilter());
+        if (map_files == null || map_files.length == 0) {
+            Log.info(TAG, "No map to index");
+            return;
+        }
+        Arrays.sort(map_files);
+        int total = map_files.length;
+        int thread_count = Math.max(1, getContext().getConfiguration().getMapIndexThreads());
+        int batch_size = Math.max(1, getContext().getConfiguration().getMapIndexBatchSize());
+        Log.info(TAG, String.format("Indexing %d maps with %d workers", total, thread_count));
+
+        ExecutorService workers = Executors.newFixedThreadPool(thread_count);
+        LinkedBlockingQueue<IndexedMap> results = new LinkedBlockingQueue<IndexedMap>();
         for (File map_file : map_files) {
+            workers.submit(new MapParsingTask(map_file, results));
+        }
+        workers.shutdown();
+
+        ObjectMap<String, Integer> rejection_counts = new ObjectMap<String, Integer>();
+        Array<IndexedMap> batch = new Array<IndexedMap>();
+        FileWriter rejection_log = new FileWriter(new File(rejected_dir, REJECTED_LOG), true);
+        int processed = 0;
+        int indexed = 0;
+        int rejected = 0;
+        long start_time = System.currentTimeMillis();
+        long report_time = start_time;
+        try {
+            while (processed < total) {
+                IndexedMap map = results.take();
+                processed++;
+                if (map.getRejection() == null) {
+                    batch.add(map);
+                } else {
+                    rejected++;
+                    Integer count = rejection_counts.get(map.getRejection());
+                    rejection_counts.put(map.getRejection(), count == null ? 1 : count + 1);
+                    reject(map, rejected_dir, rejection_log);
+                }
+                if (batch.size >= batch_size || (processed == total && batch.size > 0)) {
+                    indexed += insertBatch(batch, new File(indexed_dir, PENDING_FILE));
+                    batch.clear();
+                }
+                long current_time = System.currentTimeMillis();
+                if (current_time - report_time >= INDEX_REPORT_INTERVAL || processed == total) {
+                    report_time = current_time;
+                    long elapsed = Math.max(1, current_time - start_time);
+                    Log.info(TAG, String.format("Indexed %d/%d maps, %d rejected, %.1f maps/s",
+                            indexed, total, rejected, processed * 1000.0 / elapsed));
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            rejection_log.close();
+        }
+        for (ObjectMap.Entry<String, Integer> entry : rejection_counts.entries()) {
+            Log.info(TAG, String.format("Rejected %d maps: %s", entry.value, entry.key));
+        }
+        if (rejected > 0) {
+            Log.info(TAG, String.format("Rejected files are listed in %s/%s", REJECTED_DIRECTORY, REJECTED_LOG));
+        }
+    }
+
+    //hash the maps indexed before the catalog stored content hashes
+    private void hashCatalogMaps() throws SQLException {
+        IntArray map_ids = getContext().getDatabaseManager().getUnhashedMapIDs();
+        int hashed = 0;
+        for (int i = 0; i < map_ids.size; i++) {
+            int map_id = map_ids.get(i);
             try {
-                FileInputStream fis = new FileInputStream(map_file);
-                DataInputStream dis = new DataInputStream(fis);
-                Map map = MapFactory.createMap(dis);
-
-                dis.close();
-                fis.close();
-
-                int id = getContext().getDatabaseManager().addMap(
-                        getCapacity(map), map_file.getName(), map.getAuthor().trim().toLowerCase(), MapFactory.isSymmetric(map));
-                boolean success = map_file.renameTo(new File("maps-temp/m" + id));
-                if (!success) {
-                    Log.error(TAG, "Failed renaming map file: " + map_file.getName());
+                String hash = MapFactory.getContentHash(getMap(map_id));
+                if (getContext().getDatabaseManager().changeMapHash(map_id, hash)) {
+                    hashed++;
                 }
-            } catch (Exception ignored) {
-                ignored.printStackTrace();
+            } catch (IOException ex) {
+                Log.error(TAG, String.format("Failed hashing map [%d]", map_id), ex);
+            } catch (AEIIException ex) {
+                Log.error(TAG, String.format("Failed hashing map [%d]", map_id), ex);
             }
         }
+        if (map_ids.size > 0) {
+            Log.info(TAG, String.format("Hashed %d of %d catalog maps", hashed, map_ids.size));
+        }
+    }
+
+    private int insertBatch(final Array<IndexedMap> batch, final File pending_file) throws IOException, SQLException {
+        try {
+            getContext().getDatabaseManager().addMaps(batch, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writePendingBatch(pending_file, batch);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            });
+        } catch (IllegalStateException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+        for (IndexedMap map : batch) {
+            moveIndexedMap(map.getFile(), map.getMapID());
+        }
+        if (!pending_file.delete()) {
+            Log.error(TAG, "Failed deleting " + pending_file.getPath());
+        }
+        return batch.size;
+    }
+
+    private void writePendingBatch(File pending_file, Array<IndexedMap> batch) throws IOException {
+        File temp_file = new File(pending_file.getPath() + ".tmp");
+        FileWriter writer = new FileWriter(temp_file);
+        try {
+            for (IndexedMap map : batch) {
+                writer.write(map.getMapID() + "\t" + map.getFile().getName() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!temp_file.renameTo(pending_file)) {
+            throw new IOException("Failed renaming " + temp_file.getPath());
+        }
+    }
+
+    //the batch was written before its commit, so only the maps found in the database are moved
+    private void completePendingBatch(File pending_file) throws IOException, SQLException {
+        if (pending_file.exists()) {
+            BufferedReader reader = new BufferedReader(new FileReader(pending_file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf('\t');
+                    if (separator > 0) {
+                        int map_id = Integer.parseInt(line.substring(0, separator));
+                        File map_file = new File("maps", line.substring(separator + 1));
+                        if (map_file.exists() && getContext().getDatabaseManager().isMapExisting(map_id)) {
+                            moveIndexedMap(map_file, map_id);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (!pending_file.delete()) {
+                throw new IOException("Failed deleting " + pending_file.getPath());
+            }
+            Log.info(TAG, "Completed the pending batch of the previous indexing");
+        }
+    }
+
+    private void moveIndexedMap(File map_file, int map_id) {
+        if (!map_file.renameTo(new File(INDEXED_DIRECTORY + "/m" + map_id))) {
+            Log.error(TAG, "Failed renaming map file: " + map_file.getName());
+        }
+    }
+
+    private void reject(IndexedMap map, File rejected_dir, FileWriter rejection_log) throws IOException {
+        rejection_log.write(map.getFile().getName() + "\t" + map.getRejection() + "\n");
+        if (!map.getFile().renameTo(new File(rejected_dir, map.getFile().getName()))) {
+            Log.error(TAG, "Failed moving rejected map file: " + map.getFile().getName());
+        }
+    }
+
+    private IndexedMap parseIndexedMap(File map_file) {
+        IndexedMap indexed_map = new IndexedMap(map_file);
+        try {
+            Map map = readMap(map_file);
+            int capacity = getCapacity(map);
+            String author = map.getAuthor() == null ? "" : map.getAuthor().trim().toLowerCase();
+            if (author.length() == 0) {
+                indexed_map.setRejection("no author");
+            } else if (capacity < 2) {
+                indexed_map.setRejection("less than two teams");
+            } else {
+                indexed_map.setMap(capacity, map_file.getName(), author,
+                        MapFactory.isSymmetric(map), MapFactory.getContentHash(map));
+            }
+        } catch (IOException ex) {
+            indexed_map.setRejection("unreadable file");
+        } catch (AEIIException ex) {
+            indexed_map.setRejection("broken map");
+        } catch (RuntimeException ex) {
+            indexed_map.setRejection("broken map");
+        }
+        return indexed_map;
     }
 
     private void writeMap(File map_file, Map map) throws IOException {
@@ -71,52 +291,118 @@ public class MapManager {
         return map;
     }
 
+    private ReadWriteLock getMapLock(int map_id) {
+        ReadWriteLock lock = map_locks.get(map_id);
+        if (lock == null) {
+            ReadWriteLock new_lock = new ReentrantReadWriteLock();
+            lock = map_locks.putIfAbsent(map_id, new_lock);
+            if (lock == null) {
+                lock = new_lock;
+            }
+        }
+        return lock;
+    }
+
+    public MapCache getMapCache() {
+        return map_cache;
+    }
+
     public Map getMap(int map_id) throws IOException, AEIIException {
-        synchronized (CHANGE_LOCK) {
+        Lock lock = getMapLock(map_id).readLock();
+        lock.lock();
+        try {
             File map_file = new File("maps/m" + map_id);
             return readMap(map_file);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getSerializedMap(int map_id) throws IOException, AEIIException {
+        String payload = map_cache.get(map_id);
+        if (payload == null) {
+            Lock lock = getMapLock(map_id).readLock();
+            lock.lock();
+            try {
+                File map_file = new File("maps/m" + map_id);
+                payload = readMap(map_file).toJson().toString();
+                //cache while holding the read lock so that a concurrent update can not be overwritten
+                map_cache.put(map_id, payload);
+            } finally {
+                lock.unlock();
+            }
+        }
+        reportCacheStatistics();
+        return payload;
+    }
+
+    private void reportCacheStatistics() {
+        if (lookup_count.incrementAndGet() % CACHE_REPORT_INTERVAL == 0) {
+            Log.info(TAG, "Map cache: " + map_cache.toString());
         }
     }
 
     public void addMap(Map map, String map_name) throws IOException, SQLException, MapExistingException {
-        synchronized (CHANGE_LOCK) {
+        synchronized (ADD_LOCK) {
             String filename = map_name + ".aem";
             if (getContext().getDatabaseManager().isMapExisting(filename, map.getAuthor())) {
                 throw new MapExistingException();
             } else {
-                int map_id = getContext().getDatabaseManager().addMap(
-                        getCapacity(map), filename, map.getAuthor().trim().toLowerCase(), MapFactory.isSymmetric(map));
-                File map_file = new File("maps/m" + map_id);
-                writeMap(map_file, map);
+                int map_id = getContext().getDatabaseManager().addMap(getCapacity(map), filename,
+                        map.getAuthor().trim().toLowerCase(), MapFactory.isSymmetric(map), MapFactory.getContentHash(map));
+                Lock lock = getMapLock(map_id).writeLock();
+                lock.lock();
+                try {
+                    File map_file = new File("maps/m" + map_id);
+                    writeMap(map_file, map);
+                    map_cache.invalidate(map_id);
+                } finally {
+                    lock.unlock();
+                }
             }
         }
     }
 
     public boolean removeMap(int map_id) throws SQLException {
-        synchronized (CHANGE_LOCK) {
+        ReadWriteLock map_lock = getMapLock(map_id);
+        Lock lock = map_lock.writeLock();
+        lock.lock();
+        try {
             File map_file = new File("maps/m" + map_id);
-            return getContext().getDatabaseManager().removeMap(map_id) && map_file.delete();
+            map_cache.invalidate(map_id);
+            if (getContext().getDatabaseManager().removeMap(map_id) && map_file.delete()) {
+                //map ids are never reused, the threads still waiting for the lock find no file
+                map_locks.remove(map_id, map_lock);
+                return true;
+            } else {
+                return false;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public boolean updateMap(int map_id, String author, String filename) throws IOException, AEIIException {
-        synchronized (CHANGE_LOCK) {
+        Lock lock = getMapLock(map_id).writeLock();
+        lock.lock();
+        try {
             File map_file = new File("maps/m" + map_id);
-            try {
-                if (author != null) {
-                    Map map = readMap(map_file);
-                    map.setAuthor(author);
-                    writeMap(map_file, map);
-                    author = author.trim().toLowerCase();
-                    getContext().getDatabaseManager().changeMapAuthor(map_id, author);
-                }
-                if (filename != null) {
-                    getContext().getDatabaseManager().changeMapFilename(map_id, filename);
-                }
-                return true;
-            } catch (SQLException ex) {
-                return false;
+            if (author != null) {
+                Map map = readMap(map_file);
+                map.setAuthor(author);
+                writeMap(map_file, map);
+                map_cache.invalidate(map_id);
+                author = author.trim().toLowerCase();
+                getContext().getDatabaseManager().changeMapAuthor(map_id, author, MapFactory.getContentHash(map));
             }
+            if (filename != null) {
+                getContext().getDatabaseManager().changeMapFilename(map_id, filename);
+            }
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -154,6 +440,98 @@ public class MapManager {
         return player_count;
     }
 
+    public static class IndexedMap {
+
+        private final File file;
+
+        private int map_id;
+        private int capacity;
+        private String filename;
+        private String author;
+        private boolean symmetric;
+        private String hash;
+        private String rejection;
+
+        public IndexedMap(File file) {
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public void setMap(int capacity, String filename, String author, boolean symmetric, String hash) {
+            this.capacity = capacity;
+            this.filename = filename;
+            this.author = author;
+            this.symmetric = symmetric;
+            this.hash = hash;
+        }
+
+        public void setMapID(int map_id) {
+            this.map_id = map_id;
+        }
+
+        public int getMapID() {
+            return map_id;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public boolean isSymmetric() {
+            return symmetric;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public void setRejection(String rejection) {
+            this.rejection = rejection;
+        }
+
+        public String getRejection() {
+            return rejection;
+        }
+
+    }
+
+    private class MapParsingTask implements Runnable {
+
+        private final File map_file;
+        private final LinkedBlockingQueue<IndexedMap> results;
+
+        public MapParsingTask(File map_file, LinkedBlockingQueue<IndexedMap> results) {
+            this.map_file = map_file;
+            this.results = results;
+        }
+
+        //the indexing thread waits for one result per file, so a file that breaks the parser is still answered
+        @Override
+        public void run() {
+            IndexedMap indexed_map;
+            try {
+                indexed_map = parseIndexedMap(map_file);
+            } catch (Throwable ex) {
+                Log.error(TAG, String.format("Failed parsing %s", map_file.getName()), ex);
+                indexed_map = new IndexedMap(map_file);
+                indexed_map.setRejection("broken map");
+            }
+            results.add(indexed_map);
+        }
+
+    }
+
     private class MapFileFilter implements FileFilter {
 
         @Override
@@ -0,0 +1,351 @@
+package net.toyknight.aeii.server.managers;
+
+import com.badlogic.gdx.utils.ObjectMap;
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.entity.GameCore;
+import net.toyknight.aeii.network.PacketCodec;
+import net.toyknight.aeii.server.ServerContext;
+import net.toyknight.aeii.server.entities.Player;
+import net.toyknight.aeii.server.entities.Room;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records every online match on the server. A match file starts with a header frame holding the room, the
+ * players and the initial game, followed by one frame per executed event, every frame being a length prefixed
+ * binary packet. The frames are buffered and appended as gzip members, which concatenate into one gzip stream,
+ * whenever enough of them are buffered, periodically and when the match ends. A line describing each finished
+ * match is appended to the index file. All the I/O is done by a single writer so rooms never wait for it, and
+ * when the writer falls too far behind, the matches being recorded are cut short instead of queueing more.
+ *
+ * @author agent 10/19/2026.
+ */
+public class MatchRecorder {
+
+    private static final String TAG = "MATCH RECORDER";
+
+    private static final String INDEX_FILE = "index.log";
+
+    private static final int MEMBER_SIZE = 65536;
+
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+
+    private final ServerContext context;
+
+    private final File directory;
+
+    //rooms whose match is being recorded
+    private final Set<Long> recording_rooms = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final AtomicLong recorded_count = new AtomicLong();
+
+    private final AtomicLong truncated_count = new AtomicLong();
+
+    //only touched by the writer
+    private final ObjectMap<Long, MatchFile> match_files = new ObjectMap<Long, MatchFile>();
+
+    public MatchRecorder(ServerContext context) {
+        this.context = context;
+        this.directory = new File(context.getConfiguration().getRecordDirectory());
+    }
+
+    public ServerContext getContext() {
+        return context;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public void start() {
+        long interval = getContext().getConfiguration().getRecordFlushInterval();
+        if (interval > 0) {
+            executor.scheduleAtFixedRate(new FlushingTask(), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public int getRecordingCount() {
+        return recording_rooms.size();
+    }
+
+    public long getRecordedCount() {
+        return recorded_count.get();
+    }
+
+    public long getTruncatedCount() {
+        return truncated_count.get();
+    }
+
+    private boolean isOverloaded() {
+        return executor.getQueue().size() >= getContext().getConfiguration().getRecordQueueSize();
+    }
+
+    /**
+     * Start recording the match of a room whose game has just started or has been recovered.
+     *
+     * @param room      the room
+     * @param recovered whether the game is continued from the journal
+     */
+    public void onMatchStarted(Room room, boolean recovered) {
+        if (isOverloaded()) {
+            Log.info(TAG, String.format("Room [%d] is not recorded, the writer is behind", room.getRoomID()));
+            return;
+        }
+        JSONObject header = new JSONObject();
+        header.put("room_id", room.getRoomID());
+        header.put("room_name", room.getRoomName());
+        header.put("map_name", room.getMapName());
+        header.put("v_string", getContext().getVerificationString());
+        header.put("start_time", System.currentTimeMillis());
+        header.put("recovered", recovered);
+        //the file must be opened before the room thread submits the first event
+        synchronized (room.GAME_LOCK) {
+            header.put("sequence", room.getEventSequence());
+            header.put("players", createPlayers(room));
+            recording_rooms.add(room.getRoomID());
+            executor.submit(new OpeningTask(room.getRoomID(), header, room.getGameCopy()));
+        }
+    }
+
+    /**
+     * Must be called by the event executor of the room while it holds the game lock.
+     *
+     * @param room  the room the event is executed in
+     * @param event the executed event
+     */
+    public void onGameEventExecuted(Room room, JSONObject event) {
+        if (recording_rooms.contains(room.getRoomID())) {
+            //a record missing an event can not be replayed past it, so the match is closed right before it
+            if (isOverloaded() && recording_rooms.remove(room.getRoomID())) {
+                JSONObject result = createResult(room);
+                result.put("truncated", true);
+                executor.submit(new ClosingTask(room.getRoomID(), result));
+                truncated_count.incrementAndGet();
+                Log.info(TAG, String.format(
+                        "Record of room [%d] is cut short, the writer is behind", room.getRoomID()));
+                return;
+            }
+            executor.submit(new AppendingTask(room.getRoomID(), event));
+            if (room.isGameOver() && recording_rooms.remove(room.getRoomID())) {
+                executor.submit(new ClosingTask(room.getRoomID(), createResult(room)));
+            }
+        }
+    }
+
+    public void onRoomRemoved(Room room) {
+        if (recording_rooms.remove(room.getRoomID())) {
+            JSONObject result;
+            synchronized (room.GAME_LOCK) {
+                result = createResult(room);
+            }
+            executor.submit(new ClosingTask(room.getRoomID(), result));
+        }
+    }
+
+    private JSONArray createPlayers(Room room) {
+        JSONArray players = new JSONArray();
+        for (int team = 0; team < 4; team++) {
+            int id = room.getAllocation(team);
+            Player player = id == -1 ? null : getContext().getPlayerManager().getSessionPlayer(id);
+            if (player != null) {
+                JSONObject seat = new JSONObject();
+                seat.put("team", team);
+                seat.put("username", player.getUsername());
+                seat.put("alliance", room.getAlliance(team));
+                players.put(seat);
+            }
+        }
+        return players;
+    }
+
+    private JSONObject createResult(Room room) {
+        GameCore game = room.getGame();
+        JSONObject result = new JSONObject();
+        result.put("finished", game.isGameOver());
+        result.put("turns", game.getCurrentTurn());
+        result.put("events", room.getEventSequence());
+        int winner_alliance = -1;
+        if (game.isGameOver()) {
+            for (int team = 0; team < 4; team++) {
+                if (game.isTeamAlive(team)) {
+                    winner_alliance = game.getAlliance(team);
+                    break;
+                }
+            }
+        }
+        result.put("winner_alliance", winner_alliance);
+        return result;
+    }
+
+    private void write(MatchFile match_file, JSONObject frame) throws IOException {
+        byte[] data = PacketCodec.encode(frame);
+        match_file.output.writeInt(data.length);
+        match_file.output.write(data);
+        match_file.frame_count++;
+        if (match_file.buffer.size() >= MEMBER_SIZE) {
+            flush(match_file);
+        }
+    }
+
+    //every flush appends a complete gzip member, so a crash loses at most the buffered frames
+    private void flush(MatchFile match_file) throws IOException {
+        if (match_file.buffer.size() > 0) {
+            FileOutputStream stream = new FileOutputStream(match_file.file, true);
+            try {
+                GZIPOutputStream member = new GZIPOutputStream(stream, MEMBER_SIZE);
+                match_file.buffer.writeTo(member);
+                member.finish();
+            } finally {
+                stream.close();
+            }
+            match_file.buffer.reset();
+        }
+    }
+
+    private void appendIndex(JSONObject entry) throws IOException {
+        FileWriter writer = new FileWriter(new File(directory, INDEX_FILE), true);
+        try {
+            writer.write(entry.toString());
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static class MatchFile {
+
+        private final File file;
+        private final JSONObject header;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(buffer);
+
+        private int frame_count;
+
+        public MatchFile(File file, JSONObject header) {
+            this.file = file;
+            this.header = header;
+        }
+
+    }
+
+    private class OpeningTask implements Runnable {
+
+        private final long room_id;
+        private final JSONObject header;
+        private final GameCore game;
+
+        public OpeningTask(long room_id, JSONObject header, GameCore game) {
+            this.room_id = room_id;
+            this.header = header;
+            this.game = game;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException(String.format("Can not create record directory %s", directory.getPath()));
+                }
+                String filename = String.format("%d-%d.rec.gz", header.getLong("start_time"), room_id);
+                MatchFile match_file = new MatchFile(new File(directory, filename), header);
+                JSONObject frame = new JSONObject(header, JSONObject.getNames(header));
+                frame.put("game", game.toJson());
+                write(match_file, frame);
+                match_files.put(room_id, match_file);
+            } catch (Exception ex) {
+                Log.error(TAG, String.format("Error recording room [%d]", room_id), ex);
+            }
+        }
+
+    }
+
+    private class AppendingTask implements Runnable {
+
+        private final long room_id;
+        private final JSONObject event;
+
+        public AppendingTask(long room_id, JSONObject event) {
+            this.room_id = room_id;
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            MatchFile match_file = match_files.get(room_id);
+            if (match_file != null) {
+                try {
+                    write(match_file, event);
+                } catch (Exception ex) {
+                    match_files.remove(room_id);
+                    Log.error(TAG, String.format("Error recording room [%d]", room_id), ex);
+                }
+            }
+        }
+
+    }
+
+    private class ClosingTask implements Runnable {
+
+        private final long room_id;
+        private final JSONObject result;
+
+        public ClosingTask(long room_id, JSONObject result) {
+            this.room_id = room_id;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            MatchFile match_file = match_files.remove(room_id);
+            if (match_file != null) {
+                try {
+                    flush(match_file);
+                    long end_time = System.currentTimeMillis();
+                    JSONObject entry = new JSONObject(match_file.header, JSONObject.getNames(match_file.header));
+                    entry.put("file", match_file.file.getName());
+                    entry.put("size", match_file.file.length());
+                    entry.put("frames", match_file.frame_count);
+                    entry.put("end_time", end_time);
+                    entry.put("duration", end_time - match_file.header.getLong("start_time"));
+                    entry.put("result", result);
+                    appendIndex(entry);
+                    recorded_count.incrementAndGet();
+                } catch (Exception ex) {
+                    Log.error(TAG, String.format("Error finishing the record of room [%d]", room_id), ex);
+                }
+            }
+        }
+
+    }
+
+    private class FlushingTask implements Runnable {
+
+        @Override
+        public void run() {
+            for (ObjectMap.Entry<Long, MatchFile> entry : match_files.entries()) {
+                try {
+                    flush(entry.value);
+                } catch (IOException ex) {
+                    Log.error(TAG, String.format("Error flushing the record of room [%d]", entry.key), ex);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,328 @@
+package net.toyknight.aeii.server.managers;
+
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.manager.ValidationCache;
+import net.toyknight.aeii.server.ServerContext;
+import net.toyknight.aeii.server.entities.Player;
+import net.toyknight.aeii.server.entities.Room;
+import net.toyknight.aeii.server.utils.LatencyHistogram;
+import net.toyknight.aeii.server.utils.OutboundQueue;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects request latencies, room, connection, database and thread pool statistics. The report is
+ * appended to the metrics file periodically and can be requested by an administrator.
+ *
+ * @author agent 10/19/2026.
+ */
+public class MetricsManager {
+
+    private static final String TAG = "METRICS";
+
+    private final ServerContext context;
+
+    private final long start_time = System.currentTimeMillis();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    public MetricsManager(ServerContext context) {
+        this.context = context;
+    }
+
+    public ServerContext getContext() {
+        return context;
+    }
+
+    public void start() {
+        long interval = getContext().getConfiguration().getMetricsInterval();
+        if (interval > 0) {
+            getContext().scheduleTask(new MetricsExportingTask(), interval, interval);
+        }
+    }
+
+    public void recordLatency(String name, long nanos) {
+        getHistogram(name).record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    public void increaseCounter(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    public long getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public void onPlayerDisconnected(Player player) {
+        increaseCounter("outbound.closed_bytes", player.getChannel().getSentBytes());
+        increaseCounter("outbound.closed_packets", player.getChannel().getSentPackets());
+        increaseCounter("outbound.coalesced", player.getOutboundQueue().getCoalescedCount());
+        increaseCounter("outbound.dropped", player.getOutboundQueue().getDroppedCount());
+        if (player.getOutboundQueue().isOverflowed()) {
+            increaseCounter("outbound.overflowed", 1);
+        }
+    }
+
+    public void onRoomRemoved(Room room) {
+        ValidationCache cache = room.getManager().getValidationCache();
+        increaseCounter("validation.closed_count", cache.getValidationCount());
+        increaseCounter("validation.closed_hits", cache.getHitCount());
+        increaseCounter("validation.closed_time", cache.getValidationTime());
+    }
+
+    public JSONObject createReport() {
+        JSONObject report = new JSONObject();
+        report.put("time", System.currentTimeMillis());
+        report.put("uptime", System.currentTimeMillis() - start_time);
+        report.put("latency", createLatencyReport());
+        report.put("players", createPlayerReport());
+        report.put("rooms", createRoomReport());
+        report.put("events", createEventReport());
+        if (getContext().getConfiguration().isEventValidationEnabled()) {
+            report.put("validation", createValidationReport());
+        }
+        JSONObject executors = new JSONObject();
+        executors.put("notification", createExecutorReport(getContext().getExecutor()));
+        executors.put("request", createExecutorReport(getContext().getRequestHandler().getExecutor()));
+        if (getContext().getConfiguration().isRecordEnabled()) {
+            executors.put("recorder", createExecutorReport(getContext().getMatchRecorder().getExecutor()));
+            JSONObject records = new JSONObject();
+            records.put("recording", getContext().getMatchRecorder().getRecordingCount());
+            records.put("recorded", getContext().getMatchRecorder().getRecordedCount());
+            records.put("truncated", getContext().getMatchRecorder().getTruncatedCount());
+            report.put("records", records);
+        }
+        report.put("executors", executors);
+        report.put("runtime", createRuntimeReport());
+        report.put("timers", getContext().getTimer().getPendingCount());
+        if (getContext().getConfiguration().isJournalEnabled()) {
+            report.put("journal", createJournalReport());
+        }
+        if (getContext().getConfiguration().isMapManagerEnabled()) {
+            report.put("map_cache", getContext().getMapManager().getMapCache().toString());
+        }
+        return report;
+    }
+
+    private JSONObject createLatencyReport() {
+        JSONObject report = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+            report.put(entry.getKey(), entry.getValue().toJson());
+        }
+        return report;
+    }
+
+    private JSONObject createPlayerReport() {
+        long sent_bytes = getCounter("outbound.closed_bytes");
+        long sent_packets = getCounter("outbound.closed_packets");
+        long coalesced = getCounter("outbound.coalesced");
+        long dropped = getCounter("outbound.dropped");
+        long queued_packets = 0;
+        long queued_bytes = 0;
+        int max_queued_packets = 0;
+        int authenticated = 0;
+        JSONArray connections = new JSONArray();
+        for (Player player : getContext().getPlayerManager().getPlayers()) {
+            if (player.isAuthenticated()) {
+                authenticated++;
+            }
+            long bytes = player.getChannel().getSentBytes();
+            long packets = player.getChannel().getSentPackets();
+            sent_bytes += bytes;
+            sent_packets += packets;
+            OutboundQueue queue = player.getOutboundQueue();
+            coalesced += queue.getCoalescedCount();
+            dropped += queue.getDroppedCount();
+            queued_packets += queue.getQueuedPackets();
+            queued_bytes += queue.getQueuedBytes();
+            max_queued_packets = Math.max(max_queued_packets, queue.getQueuedPackets());
+            JSONObject connection = new JSONObject();
+            connection.put("id", player.getID());
+            connection.put("username", player.getUsername());
+            connection.put("sent_bytes", bytes);
+            connection.put("sent_packets", packets);
+            connection.put("queued_packets", queue.getQueuedPackets());
+            connection.put("queued_bytes", queue.getQueuedBytes());
+            connections.put(connection);
+        }
+        JSONObject report = new JSONObject();
+        report.put("connected", connections.length());
+        report.put("authenticated", authenticated);
+        report.put("idle", getContext().getPlayerManager().getIdlePlayers().size());
+        report.put("suspended", getContext().getPlayerManager().getSuspendedSessionCount());
+        report.put("sent_bytes", sent_bytes);
+        report.put("sent_packets", sent_packets);
+        JSONObject outbound = new JSONObject();
+        outbound.put("queued_packets", queued_packets);
+        outbound.put("queued_bytes", queued_bytes);
+        outbound.put("max_queued_packets", max_queued_packets);
+        outbound.put("coalesced", coalesced);
+        outbound.put("dropped", dropped);
+        outbound.put("overflowed", getCounter("outbound.overflowed"));
+        report.put("outbound", outbound);
+        report.put("connections", connections);
+        return report;
+    }
+
+    private JSONObject createRoomReport() {
+        LatencyHistogram event_latency = new LatencyHistogram();
+        int started = 0;
+        int mailbox_depth = 0;
+        JSONArray rooms = new JSONArray();
+        for (Room room : getContext().getRoomManager().getRooms()) {
+            if (!room.isOpen()) {
+                started++;
+            }
+            mailbox_depth += room.getMailboxDepth();
+            event_latency.merge(room.getEventLatency());
+            JSONObject snapshot = new JSONObject();
+            snapshot.put("room_id", room.getRoomID());
+            snapshot.put("players", room.getPlayers().size);
+            snapshot.put("events", room.getEventSequence());
+            snapshot.put("mailbox_depth", room.getMailboxDepth());
+            snapshot.put("event_latency", room.getEventLatency().toJson());
+            rooms.put(snapshot);
+        }
+        JSONObject report = new JSONObject();
+        report.put("count", rooms.length());
+        report.put("started", started);
+        report.put("open", getContext().getRoomManager().getOpenRooms().size());
+        report.put("mailbox_depth", mailbox_depth);
+        report.put("event_latency", event_latency.toJson());
+        report.put("rooms", rooms);
+        return report;
+    }
+
+    private JSONObject createEventReport() {
+        JSONObject report = new JSONObject();
+        report.put("batches", getCounter("events.batches"));
+        report.put("accepted", getCounter("events.accepted"));
+        report.put("duplicated", getCounter("events.duplicated"));
+        report.put("out_of_order", getCounter("events.out_of_order"));
+        return report;
+    }
+
+    private JSONObject createValidationReport() {
+        long count = getCounter("validation.closed_count");
+        long hits = getCounter("validation.closed_hits");
+        long time = getCounter("validation.closed_time");
+        for (Room room : getContext().getRoomManager().getRooms()) {
+            ValidationCache cache = room.getManager().getValidationCache();
+            count += cache.getValidationCount();
+            hits += cache.getHitCount();
+            time += cache.getValidationTime();
+        }
+        JSONObject report = new JSONObject();
+        report.put("count", count);
+        report.put("hits", hits);
+        report.put("time", time);
+        report.put("mean", count > 0 ? time / count : 0);
+        return report;
+    }
+
+    private JSONObject createExecutorReport(ThreadPoolExecutor executor) {
+        JSONObject report = new JSONObject();
+        report.put("pool_size", executor.getPoolSize());
+        report.put("max_pool_size", executor.getMaximumPoolSize());
+        report.put("active", executor.getActiveCount());
+        report.put("largest_pool_size", executor.getLargestPoolSize());
+        report.put("queued", executor.getQueue().size());
+        report.put("completed", executor.getCompletedTaskCount());
+        return report;
+    }
+
+    private JSONObject createJournalReport() {
+        JournalManager journal = getContext().getJournalManager();
+        JSONObject report = new JSONObject();
+        report.put("rooms", journal.getRoomCount());
+        report.put("queued", journal.getQueuedRecords());
+        report.put("records", journal.getRecordCount());
+        report.put("batches", journal.getBatchCount());
+        report.put("checkpoints", journal.getCheckpointCount());
+        report.put("segments", journal.getSegmentCount());
+        report.put("failed", journal.isFailed());
+        return report;
+    }
+
+    private JSONObject createRuntimeReport() {
+        Runtime runtime = Runtime.getRuntime();
+        JSONObject report = new JSONObject();
+        report.put("heap_used", runtime.totalMemory() - runtime.freeMemory());
+        report.put("heap_max", runtime.maxMemory());
+        report.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        report.put("load_average", ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage());
+        return report;
+    }
+
+    public void exportReport() {
+        JSONObject report = createReport();
+        String filename = getContext().getConfiguration().getMetricsFile();
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(filename, true);
+            writer.write(report.toString());
+            writer.write('\n');
+        } catch (IOException ex) {
+            Log.error(TAG, String.format("Error writing metrics to %s", filename), ex);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        JSONObject players = report.getJSONObject("players");
+        JSONObject rooms = report.getJSONObject("rooms");
+        Log.info(TAG, String.format("%d players, %d rooms, %d queued events, %d bytes sent",
+                players.getInt("connected"), rooms.getInt("count"),
+                rooms.getInt("mailbox_depth"), players.getLong("sent_bytes")));
+    }
+
+    private class MetricsExportingTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                exportReport();
+            } catch (Exception ex) {
+                Log.error(TAG, "Error exporting metrics", ex);
+            }
+        }
+
+    }
+
+}
@@ -2,6 +2,8 @@ package net.toyknight.aeii.server.managers;
 
 import static net.toyknight.aeii.network.NetworkConstants.*;
 
+import net.toyknight.aeii.network.PacketChannel;
+import net.toyknight.aeii.network.PacketCodec;
 import net.toyknight.aeii.server.ServerContext;
 import net.toyknight.aeii.server.entities.Player;
 import net.toyknight.aeii.server.entities.Room;
@@ -72,6 +74,23 @@ public class NotificationSender {
         }
     }
 
+    public void notifyPlayerResuming(Room room, int previous_id, int player_id, String username) {
+        int host_id = room.getHostID();
+        for (int id : room.getPlayers()) {
+            if (id != player_id) {
+                JSONObject leaving_notification = PacketBuilder.create(NOTIFICATION, PLAYER_LEAVING);
+                leaving_notification.put("player_id", previous_id);
+                leaving_notification.put("username", username);
+                leaving_notification.put("host_id", host_id);
+                submitNotification(id, leaving_notification);
+                JSONObject joining_notification = PacketBuilder.create(NOTIFICATION, PLAYER_JOINING);
+                joining_notification.put("player_id", player_id);
+                joining_notification.put("username", username);
+                submitNotification(id, joining_notification);
+            }
+        }
+    }
+
     public void notifyGameStarting(Room room) {
         int host_id = room.getHostID();
         for (int player_id : room.getPlayers()) {
@@ -92,13 +111,17 @@ public class NotificationSender {
     }
 
     public void notifyLobbyMessage(String username, String message) {
-        for (Player player : getContext().getPlayerManager().getPlayers()) {
-            if (player.isAuthenticated() && player.getRoomID() < 0) {
-                JSONObject notification = PacketBuilder.create(NOTIFICATION, MESSAGE);
-                notification.put("username", username);
-                notification.put("message", message);
-                submitNotification(player, notification);
+        JSONObject notification = PacketBuilder.create(NOTIFICATION, MESSAGE);
+        notification.put("username", username);
+        notification.put("message", message);
+        //encode once per protocol instead of once per player
+        Object[] frames = new Object[PacketCodec.PROTOCOL_COMPRESSED + 1];
+        for (Player player : getContext().getPlayerManager().getIdlePlayers()) {
+            int protocol = player.getProtocol();
+            if (frames[protocol] == null) {
+                frames[protocol] = PacketChannel.encode(notification, protocol);
             }
+            submitLobbyNotification(player, frames[protocol], MESSAGE);
         }
     }
 
@@ -119,34 +142,38 @@ public class NotificationSender {
 
     public void submitNotification(Player player, JSONObject notification) {
         if (player != null) {
-            getContext().submitTask(new NotificationTask(player, notification));
+            player.sendPacket(notification);
         }
     }
 
-    public void syncGameEvent(int player_id, JSONObject event) {
-        Player player = getContext().getPlayerManager().getPlayer(player_id);
+    /**
+     * Send an encoded lobby chat message or room list change, which is dropped first when the player falls behind.
+     * A dropped room list change is detected by the version gap and the list is fetched again.
+     *
+     * @param player    the receiving player
+     * @param frame     the encoded notification
+     * @param operation the operation of the notification
+     */
+    public void submitLobbyNotification(Player player, Object frame, int operation) {
         if (player != null) {
-            JSONObject notification = PacketBuilder.create(NOTIFICATION, GAME_EVENT);
-            notification.put("game_event", event);
-            player.sendTCP(notification.toString());
+            player.sendDroppable(frame, NOTIFICATION, operation);
         }
     }
 
-    private class NotificationTask implements Runnable {
-
-        private final Player player;
-        private final JSONObject notification;
-
-        public NotificationTask(Player player, JSONObject notification) {
-            this.player = player;
-            this.notification = notification;
-        }
+    public void notifyGameEventAcknowledged(Player player, long sequence) {
+        JSONObject notification = PacketBuilder.create(NOTIFICATION, GAME_EVENT_ACK);
+        notification.put("sequence", sequence);
+        player.sendPacket(notification);
+    }
 
-        @Override
-        public void run() {
-            player.sendTCP(notification.toString());
+    public void syncGameEvent(int player_id, JSONObject event, long sequence) {
+        Player player = getContext().getPlayerManager().getPlayer(player_id);
+        if (player != null) {
+            JSONObject notification = PacketBuilder.create(NOTIFICATION, GAME_EVENT);
+            notification.put("game_event", event);
+            notification.put("sequence", sequence);
+            player.sendPacket(notification);
         }
-
     }
 
 }
@@ -1,15 +1,19 @@
 package net.toyknight.aeii.server.managers;
 
-import com.badlogic.gdx.utils.ObjectMap;
-import com.badlogic.gdx.utils.ObjectSet;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.minlog.Log;
 import net.toyknight.aeii.network.NetworkConstants;
 import net.toyknight.aeii.server.ServerContext;
 import net.toyknight.aeii.server.entities.Player;
+import net.toyknight.aeii.server.entities.Room;
 import net.toyknight.aeii.server.utils.PacketBuilder;
 import org.json.JSONObject;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * @author toyknight 8/16/2016.
  */
@@ -19,9 +23,11 @@ public class PlayerManager {
 
     private final ServerContext context;
 
-    private final Object PLAYER_LOCK = new Object();
+    private final ConcurrentHashMap<Integer, Player> players = new ConcurrentHashMap<Integer, Player>();
+
+    private final Set<Player> idle_players = Collections.newSetFromMap(new ConcurrentHashMap<Player, Boolean>());
 
-    private final ObjectMap<Integer, Player> players = new ObjectMap<Integer, Player>();
+    private final ConcurrentHashMap<String, Player> suspended_sessions = new ConcurrentHashMap<String, Player>();
 
     public PlayerManager(ServerContext context) {
         this.context = context;
@@ -32,77 +38,230 @@ public class PlayerManager {
     }
 
     public void addPlayer(Connection connection) {
-        synchronized (PLAYER_LOCK) {
-            players.put(connection.getID(), new Player(connection));
-        }
+        players.put(connection.getID(), new Player(connection, getContext().getConfiguration()));
     }
 
     public Player removePlayer(int id) {
-        synchronized (PLAYER_LOCK) {
-            return players.remove(id);
+        Player player = players.remove(id);
+        if (player != null) {
+            idle_players.remove(player);
         }
+        return player;
     }
 
     public Player getPlayer(int id) {
-        synchronized (PLAYER_LOCK) {
-            return players.get(id, null);
+        return players.get(id);
+    }
+
+    /**
+     * @param id the id of the player
+     * @return the connected or suspended player, or null if there is no such session
+     */
+    public Player getSessionPlayer(int id) {
+        Player player = players.get(id);
+        if (player == null) {
+            for (Player suspended : suspended_sessions.values()) {
+                if (suspended.getID() == id) {
+                    return suspended;
+                }
+            }
+        }
+        return player;
+    }
+
+    /**
+     * The returned view is not copied, iterating it may or may not see concurrent changes.
+     *
+     * @return all the connected players
+     */
+    public Collection<Player> getPlayers() {
+        return Collections.unmodifiableCollection(players.values());
+    }
+
+    /**
+     * The returned view is not copied, iterating it may or may not see concurrent changes.
+     *
+     * @return the authenticated players that are not in any room
+     */
+    public Set<Player> getIdlePlayers() {
+        return Collections.unmodifiableSet(idle_players);
+    }
+
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    /**
+     * Update the secondary indexes after the player is authenticated or enters or leaves a room.
+     *
+     * @param player the player whose state changed
+     */
+    public void onPlayerStateChanged(Player player) {
+        if (player.isAuthenticated() && player.getRoomID() < 0 && players.get(player.getID()) == player) {
+            idle_players.add(player);
+            //the player may have been removed in between
+            if (players.get(player.getID()) != player) {
+                idle_players.remove(player);
+            }
+        } else {
+            idle_players.remove(player);
         }
     }
 
-    public ObjectSet<Player> getPlayers() {
-        synchronized (PLAYER_LOCK) {
-            ObjectSet<Player> player_set = new ObjectSet<Player>();
+    /**
+     * Take over the session of a player whose connection was lost.
+     *
+     * @param token the session token issued to the previous connection
+     * @param id    the id of the new connection
+     * @return the previous player, or null if the session has expired
+     */
+    public Player resumeSession(String token, int id) {
+        Player previous = suspended_sessions.remove(token);
+        if (previous == null) {
+            //the client may notice the broken connection before the server does
             for (Player player : players.values()) {
-                player_set.add(player);
+                if (player.getID() != id && token.equals(player.getSessionToken())
+                        && players.remove(player.getID(), player)) {
+                    idle_players.remove(player);
+                    player.getConnection().close();
+                    return player;
+                }
             }
-            return player_set;
         }
+        return previous;
+    }
+
+    public int getSuspendedSessionCount() {
+        return suspended_sessions.size();
     }
 
     public void disconnectPlayer(int player_id, String message, long delay) {
         Player player = getPlayer(player_id);
         if (player != null) {
-            getContext().submitTask(new DisconnectingTask(player, message, delay));
+            //cheaters are not allowed to resume their seats
+            player.setSessionToken(null);
+            JSONObject notification = PacketBuilder.create(NetworkConstants.NOTIFICATION, NetworkConstants.MESSAGE);
+            notification.put("username", "Server");
+            notification.put("message", message);
+            player.sendPacket(notification);
+            getContext().scheduleTask(new DisconnectingTask(player), delay);
         }
     }
 
     public void onPlayerConnected(Connection connection) {
         addPlayer(connection);
+        long interval = getContext().getConfiguration().getHeartbeatInterval();
+        Player player = getPlayer(connection.getID());
+        if (player != null && interval > 0) {
+            player.setConnectionTimer(getContext().scheduleTask(new ConnectionCheckingTask(player), interval));
+        }
     }
 
     public void onPlayerDisconnected(Connection connection) {
         Player player = removePlayer(connection.getID());
+        if (player != null) {
+            if (player.getConnectionTimer() != null) {
+                player.getConnectionTimer().cancel();
+            }
+            getContext().getMetricsManager().onPlayerDisconnected(player);
+        }
         if (player != null && player.getRoomID() >= 0) {
             Log.info(TAG, String.format("%s disconnected", player.toString()));
-            getContext().getRoomManager().onPlayerLeaveRoom(player);
+            if (canSuspend(player)) {
+                suspendSession(player);
+            } else {
+                getContext().getRoomManager().onPlayerLeaveRoom(player);
+            }
         }
     }
 
-    private class DisconnectingTask implements Runnable {
+    /**
+     * Keep the seat of a recovered room for the player who held it until the session expires.
+     *
+     * @param player the seat created from the journal
+     */
+    public void restoreSession(Player player) {
+        suspendSession(player);
+    }
+
+    private boolean canSuspend(Player player) {
+        Room room = getContext().getRoomManager().getRoom(player.getRoomID());
+        return player.getSessionToken() != null && room != null && !room.isOpen() && !room.isGameOver();
+    }
+
+    private void suspendSession(Player player) {
+        suspended_sessions.put(player.getSessionToken(), player);
+        long timeout = getContext().getConfiguration().getSessionTimeout();
+        getContext().scheduleTask(new SessionExpiringTask(player), timeout);
+        Log.info(TAG, String.format("%s is kept in room [%d] for %d ms", player.toString(), player.getRoomID(), timeout));
+    }
+
+    private class SessionExpiringTask implements Runnable {
 
         private final Player player;
-        private final String message;
-        private final long delay;
 
-        public DisconnectingTask(Player player, String message, long delay) {
+        public SessionExpiringTask(Player player) {
             this.player = player;
-            this.message = message;
-            this.delay = delay;
         }
 
         @Override
         public void run() {
-            JSONObject notification = PacketBuilder.create(NetworkConstants.NOTIFICATION, NetworkConstants.MESSAGE);
-            notification.put("username", "Server");
-            notification.put("message", message);
-            player.sendTCP(notification.toString());
-            try {
-                Thread.sleep(delay);
-            } catch (InterruptedException ignored) {
+            String token = player.getSessionToken();
+            if (token != null && suspended_sessions.remove(token, player)) {
+                Log.info(TAG, String.format("Session of %s expired", player.toString()));
+                getContext().getRoomManager().onPlayerLeaveRoom(player);
             }
+        }
+
+    }
+
+    private class DisconnectingTask implements Runnable {
+
+        private final Player player;
+
+        public DisconnectingTask(Player player) {
+            this.player = player;
+        }
+
+        @Override
+        public void run() {
             player.getConnection().close();
         }
 
     }
 
+    private class ConnectionCheckingTask implements Runnable {
+
+        private final Player player;
+
+        public ConnectionCheckingTask(Player player) {
+            this.player = player;
+        }
+
+        @Override
+        public void run() {
+            if (getPlayer(player.getID()) != player) {
+                return;
+            }
+            long time = System.currentTimeMillis();
+            long heartbeat_timeout = getContext().getConfiguration().getHeartbeatTimeout();
+            long idle_timeout = getContext().getConfiguration().getLobbyIdleTimeout();
+            long interval = getContext().getConfiguration().getHeartbeatInterval();
+            if (heartbeat_timeout > 0 && time - player.getLastReceiveTime() >= heartbeat_timeout) {
+                Log.info(TAG, String.format("%s stopped responding", player.toString()));
+                player.getConnection().close();
+            } else if (idle_timeout > 0 && player.getRoomID() < 0 && time - player.getLastRequestTime() >= idle_timeout) {
+                Log.info(TAG, String.format("%s idled in the lobby for %d ms", player.toString(), idle_timeout));
+                disconnectPlayer(player.getID(), "/idle", 1000);
+            } else {
+                //a silent client is pinged, the reply refreshes its receive time
+                if (time - player.getLastReceiveTime() >= interval) {
+                    player.getConnection().updateReturnTripTime();
+                }
+                player.setConnectionTimer(getContext().scheduleTask(this, interval));
+            }
+        }
+
+    }
+
 }
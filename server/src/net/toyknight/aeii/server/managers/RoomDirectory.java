@@ -0,0 +1,180 @@
+package net.toyknight.aeii.server.managers;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.network.NetworkConstants;
+import net.toyknight.aeii.network.PacketChannel;
+import net.toyknight.aeii.network.PacketCodec;
+import net.toyknight.aeii.server.ServerContext;
+import net.toyknight.aeii.server.entities.Player;
+import net.toyknight.aeii.server.entities.Room;
+import net.toyknight.aeii.server.utils.PacketBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Versioned room list of the lobby. The version is bumped whenever a room is created, removed, started or its
+ * players change. The encoded list is built at most once per version and protocol, and the changes are pushed
+ * to the subscribed lobby players in batches.
+ *
+ * @author agent 10/19/2026.
+ */
+public class RoomDirectory {
+
+    private static final String TAG = "ROOM DIRECTORY";
+
+    private final Object DIRECTORY_LOCK = new Object();
+
+    private final ServerContext context;
+
+    private final Array<Long> changed_rooms = new Array<Long>();
+
+    private long version = 1;
+
+    private long pushed_version = 1;
+
+    private volatile Listing listing;
+
+    public RoomDirectory(ServerContext context) {
+        this.context = context;
+    }
+
+    public ServerContext getContext() {
+        return context;
+    }
+
+    public void start() {
+        long interval = getContext().getConfiguration().getRoomListInterval();
+        if (interval > 0) {
+            getContext().scheduleTask(new ChangePushingTask(), interval, interval);
+        }
+    }
+
+    public long getVersion() {
+        synchronized (DIRECTORY_LOCK) {
+            return version;
+        }
+    }
+
+    /**
+     * Must be called after the change is made so that the next listing is guaranteed to contain it.
+     *
+     * @param room_id the id of the created, removed or updated room
+     */
+    public void onRoomChanged(long room_id) {
+        synchronized (DIRECTORY_LOCK) {
+            version++;
+            if (!changed_rooms.contains(room_id, false)) {
+                changed_rooms.add(room_id);
+            }
+        }
+    }
+
+    /**
+     * Get the room list response encoded for the given protocol.
+     *
+     * @param protocol the protocol of the requesting player
+     * @return the encoded response
+     */
+    public Object getListingFrame(int protocol) {
+        Listing current = listing;
+        long current_version = getVersion();
+        if (current == null || current.version != current_version) {
+            //the rooms may change while listing, a newer state only makes the following diffs redundant
+            JSONArray rooms = new JSONArray();
+            for (Room room : getContext().getRoomManager().getRooms()) {
+                rooms.put(room.createSnapshot().toJson());
+            }
+            //shared by every request, so the client matches it by its operation instead of a request id
+            JSONObject response = PacketBuilder.create(NetworkConstants.RESPONSE, NetworkConstants.LIST_ROOMS);
+            response.put("rooms", rooms);
+            response.put("version", current_version);
+            current = new Listing(current_version, response);
+            listing = current;
+        }
+        return current.getFrame(protocol);
+    }
+
+    public void pushChanges() {
+        long previous_version;
+        long current_version;
+        Array<Long> changes;
+        synchronized (DIRECTORY_LOCK) {
+            if (version == pushed_version) {
+                return;
+            }
+            previous_version = pushed_version;
+            current_version = version;
+            changes = new Array<Long>(changed_rooms);
+            changed_rooms.clear();
+            pushed_version = version;
+        }
+        JSONArray rooms = new JSONArray();
+        JSONArray removed = new JSONArray();
+        for (long room_id : changes) {
+            Room room = getContext().getRoomManager().getRoom(room_id);
+            if (room == null) {
+                removed.put(room_id);
+            } else {
+                rooms.put(room.createSnapshot().toJson());
+            }
+        }
+        JSONObject notification =
+                PacketBuilder.create(NetworkConstants.NOTIFICATION, NetworkConstants.ROOM_LIST_UPDATING);
+        notification.put("previous_version", previous_version);
+        notification.put("version", current_version);
+        notification.put("rooms", rooms);
+        notification.put("removed", removed);
+        Object[] frames = new Object[PacketCodec.PROTOCOL_COMPRESSED + 1];
+        for (Player player : getContext().getPlayerManager().getIdlePlayers()) {
+            if (player.isRoomListSubscribed()) {
+                int protocol = player.getProtocol();
+                if (frames[protocol] == null) {
+                    frames[protocol] = PacketChannel.encode(notification, protocol);
+                }
+                getContext().getNotificationSender().submitLobbyNotification(
+                        player, frames[protocol], NetworkConstants.ROOM_LIST_UPDATING);
+            }
+        }
+    }
+
+    private class Listing {
+
+        private final Object FRAME_LOCK = new Object();
+
+        private final long version;
+
+        private final JSONObject response;
+
+        private final Object[] frames = new Object[PacketCodec.PROTOCOL_COMPRESSED + 1];
+
+        public Listing(long version, JSONObject response) {
+            this.version = version;
+            this.response = response;
+        }
+
+        public Object getFrame(int protocol) {
+            synchronized (FRAME_LOCK) {
+                if (frames[protocol] == null) {
+                    frames[protocol] = PacketChannel.encode(response, protocol);
+                }
+                return frames[protocol];
+            }
+        }
+
+    }
+
+    private class ChangePushingTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                pushChanges();
+            } catch (Exception ex) {
+                Log.error(TAG, "Error pushing room list changes", ex);
+            }
+        }
+
+    }
+
+}
@@ -1,15 +1,14 @@
 package net.toyknight.aeii.server.managers;
 
 import com.badlogic.gdx.utils.Array;
-import com.badlogic.gdx.utils.ObjectMap;
 import com.badlogic.gdx.utils.ObjectSet;
 import com.esotericsoftware.minlog.Log;
 import net.toyknight.aeii.entity.GameCore;
 import net.toyknight.aeii.entity.Map;
 import net.toyknight.aeii.entity.Unit;
 import net.toyknight.aeii.network.entity.PlayerSnapshot;
+import net.toyknight.aeii.network.entity.ResumeSetting;
 import net.toyknight.aeii.network.entity.RoomSetting;
-import net.toyknight.aeii.network.entity.RoomSnapshot;
 import net.toyknight.aeii.server.ServerContext;
 import net.toyknight.aeii.server.entities.Player;
 import net.toyknight.aeii.server.entities.Room;
@@ -18,31 +17,53 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
+ * Players enter and leave rooms from the request thread, the network thread and the timer tasks. The room of a
+ * player changes only while holding the room lock of the player, and the seats of a room only while holding the
+ * seat lock of the room. The locks are taken in the order game lock, room lock, seat lock, so the game lock of a
+ * room is never taken while holding either of the others. Resuming a room takes all three.
+ *
  * @author toyknight 8/14/2016.
  */
 public class RoomManager implements RoomListener {
 
     public static final String TAG = "ROOM MANAGER";
 
-    private final Object ROOM_LOCK = new Object();
+    private final ConcurrentHashMap<Long, Room> rooms = new ConcurrentHashMap<Long, Room>();
+
+    private final Set<Room> open_rooms = Collections.newSetFromMap(new ConcurrentHashMap<Room, Boolean>());
+
+    private final AtomicLong current_room_id = new AtomicLong(0);
 
-    private final ObjectMap<Long, Room> rooms = new ObjectMap<Long, Room>();
+    private final Random random = new Random();
 
     private final ServerContext context;
 
-    private long current_room_id = 0;
+    private final RoomDirectory room_directory;
 
     public RoomManager(ServerContext context) {
         this.context = context;
+        this.room_directory = new RoomDirectory(context);
     }
 
     public ServerContext getContext() {
         return context;
     }
 
+    public RoomDirectory getRoomDirectory() {
+        return room_directory;
+    }
+
     public boolean canJoin(Room room) {
-        return room != null && !room.isGameOver() && room.getRemaining() > 0 && room.getHostID() != -1;
+        return room != null && !room.isDisposed()
+                && !room.isGameOver() && room.getRemaining() > 0 && room.getHostID() != -1;
     }
 
     public boolean canStart(Room room, int player_id) {
@@ -50,14 +71,70 @@ public class RoomManager implements RoomListener {
     }
 
     public Room getRoom(long room_id) {
-        synchronized (ROOM_LOCK) {
-            return rooms.get(room_id, null);
+        return rooms.get(room_id);
+    }
+
+    /**
+     * The returned view is not copied, iterating it may or may not see concurrent changes.
+     *
+     * @return all the rooms
+     */
+    public Collection<Room> getRooms() {
+        return Collections.unmodifiableCollection(rooms.values());
+    }
+
+    /**
+     * The returned view is not copied, iterating it may or may not see concurrent changes.
+     *
+     * @return the rooms whose game has not started yet
+     */
+    public Set<Room> getOpenRooms() {
+        return Collections.unmodifiableSet(open_rooms);
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    private void addRoom(Room room) {
+        rooms.put(room.getRoomID(), room);
+        open_rooms.add(room);
+        getRoomDirectory().onRoomChanged(room.getRoomID());
+    }
+
+    /**
+     * Register a started room rebuilt from the journal. Must be called before the server accepts connections.
+     *
+     * @param room the recovered room
+     */
+    public void addRecoveredRoom(Room room) {
+        room.setListener(this);
+        rooms.put(room.getRoomID(), room);
+        if (current_room_id.get() < room.getRoomID()) {
+            current_room_id.set(room.getRoomID());
         }
+        getRoomDirectory().onRoomChanged(room.getRoomID());
+        if (getContext().getConfiguration().isRecordEnabled()) {
+            getContext().getMatchRecorder().onMatchStarted(room, true);
+        }
+        updateTurnTimer(room);
     }
 
     public void removeRoom(long room_id) {
-        synchronized (ROOM_LOCK) {
-            rooms.remove(room_id);
+        Room room = rooms.remove(room_id);
+        if (room != null) {
+            open_rooms.remove(room);
+            synchronized (room.GAME_LOCK) {
+                room.cancelTurnTimer();
+            }
+            getRoomDirectory().onRoomChanged(room_id);
+            if (getContext().getConfiguration().isJournalEnabled()) {
+                getContext().getJournalManager().onRoomRemoved(room_id);
+            }
+            if (getContext().getConfiguration().isRecordEnabled()) {
+                getContext().getMatchRecorder().onRoomRemoved(room);
+            }
+            getContext().getMetricsManager().onRoomRemoved(room);
         }
         Log.info(TAG, String.format("Room [%d] is disposed", room_id));
     }
@@ -71,43 +148,52 @@ public class RoomManager implements RoomListener {
             int unit_capacity,
             int start_gold,
             Player host) {
-        synchronized (ROOM_LOCK) {
-            if (host.getRoomID() < 0) {
-                Room room = new Room(++current_room_id, username + "'s game", map, start_gold);
-                room.setListener(this);
-                room.setPassword(password);
-                room.setMapName(map_name);
-                room.setPlayerCapacity(player_capacity);
-                room.setUnitCapacity(unit_capacity);
-                room.setHostPlayer(host.getID());
-                room.addPlayer(host.getID());
-                host.setRoomID(room.getRoomID());
-                rooms.put(room.getRoomID(), room);
-                return createRoomSetting(room);
-            } else {
-                return null;
-            }
+        if (host.getRoomID() < 0) {
+            Room room = new Room(current_room_id.incrementAndGet(), username + "'s game", map, start_gold);
+            room.setListener(this);
+            room.setEventLogCapacity(getContext().getConfiguration().getEventLogSize());
+            room.setEventValidationEnabled(getContext().getConfiguration().isEventValidationEnabled());
+            room.setPassword(password);
+            room.setMapName(map_name);
+            room.setPlayerCapacity(player_capacity);
+            room.setUnitCapacity(unit_capacity);
+            //the room arranges the seed, the clients take it from the room setting
+            room.getGame().setRandomSeed(random.nextLong());
+            return seatHost(room, host) ? createRoomSetting(room) : null;
+        } else {
+            return null;
         }
     }
 
     public RoomSetting createRoom(
             GameCore game, String username, String map_name, String password, int player_capacity, Player host) {
-        synchronized (ROOM_LOCK) {
+        if (host.getRoomID() < 0) {
+            Room room = new Room(current_room_id.incrementAndGet(), username + "'s game", game);
+            room.setListener(this);
+            room.setEventLogCapacity(getContext().getConfiguration().getEventLogSize());
+            room.setEventValidationEnabled(getContext().getConfiguration().isEventValidationEnabled());
+            room.setPassword(password);
+            room.setMapName(map_name);
+            room.setPlayerCapacity(player_capacity);
+            return seatHost(room, host) ? createRoomSetting(room) : null;
+        } else {
+            return null;
+        }
+    }
+
+    private boolean seatHost(Room room, Player host) {
+        synchronized (host.ROOM_LOCK) {
             if (host.getRoomID() < 0) {
-                Room room = new Room(++current_room_id, username + "'s game", game);
-                room.setListener(this);
-                room.setPassword(password);
-                room.setMapName(map_name);
-                room.setPlayerCapacity(player_capacity);
                 room.setHostPlayer(host.getID());
                 room.addPlayer(host.getID());
                 host.setRoomID(room.getRoomID());
-                rooms.put(room.getRoomID(), room);
-                return createRoomSetting(room);
+                addRoom(room);
             } else {
-                return null;
+                return false;
             }
         }
+        getContext().getPlayerManager().onPlayerStateChanged(host);
+        return true;
     }
 
     public boolean tryStartGame(Player player) {
@@ -116,6 +202,15 @@ public class RoomManager implements RoomListener {
             Room room = getRoom(room_id);
             if (canStart(room, player.getID())) {
                 room.startGame();
+                open_rooms.remove(room);
+                getRoomDirectory().onRoomChanged(room_id);
+                if (getContext().getConfiguration().isJournalEnabled()) {
+                    getContext().getJournalManager().onRoomStarted(room);
+                }
+                if (getContext().getConfiguration().isRecordEnabled()) {
+                    getContext().getMatchRecorder().onMatchStarted(room, false);
+                }
+                updateTurnTimer(room);
                 getContext().getNotificationSender().notifyGameStarting(room);
                 return true;
             } else {
@@ -126,28 +221,96 @@ public class RoomManager implements RoomListener {
         }
     }
 
-    public void submitGameEvents(Player player, JSONArray events) throws JSONException {
-        Room room = getRoom(player.getRoomID());
-        if (room != null && player.getID() == room.getCurrentPlayerID()) {
+    /**
+     * Restart the turn timer of the room if the turn has passed to another team.
+     *
+     * @param room the started room
+     */
+    public void updateTurnTimer(Room room) {
+        long timeout = getContext().getConfiguration().getTurnTimeout();
+        if (timeout > 0) {
             synchronized (room.GAME_LOCK) {
-                for (int i = 0; i < events.length(); i++) {
-                    JSONObject event = events.getJSONObject(i);
-                    room.submitGameEvent(event, player.getID());
+                if (room.isGameOver() || room.isDisposed()) {
+                    room.cancelTurnTimer();
+                } else {
+                    long turn_key = room.getTurnKey();
+                    if (turn_key != room.getTurnTimerKey()) {
+                        TurnTimeoutTask task = new TurnTimeoutTask(room, turn_key);
+                        room.setTurnTimer(getContext().scheduleTask(task, timeout), turn_key);
+                    }
                 }
             }
         }
     }
 
-    public Array<RoomSnapshot> getRoomSnapshots() {
-        synchronized (ROOM_LOCK) {
-            Array<RoomSnapshot> snapshots = new Array<RoomSnapshot>();
-            for (Room room : rooms.values()) {
-                snapshots.add(room.createSnapshot());
+    /**
+     * Submit the game events of a player in a room, and acknowledge them if they are numbered. The events of a
+     * player whose turn is over are acknowledged and dropped. A player whose events follow a missing one resumes
+     * the room from a snapshot.
+     *
+     * @param player         the player
+     * @param events         the events
+     * @param first_sequence the sequence number of the first event, or -1 if the events are not numbered
+     */
+    public void submitGameEvents(Player player, JSONArray events, long first_sequence) throws JSONException {
+        Room room = getRoom(player.getRoomID());
+        if (room != null) {
+            long submitted;
+            boolean continuous;
+            synchronized (room.GAME_LOCK) {
+                boolean executable = player.getID() == room.getCurrentPlayerID();
+                continuous = acceptGameEvents(room, player, player.getID(), events, first_sequence, executable);
+                submitted = player.getSubmittedSequence();
+            }
+            if (first_sequence >= 0) {
+                getContext().getNotificationSender().notifyGameEventAcknowledged(player, submitted);
+            }
+            if (!continuous) {
+                requireResync(room, player, "a missing event");
             }
-            return snapshots;
         }
     }
 
+    /**
+     * The events accepted before are skipped. The new events are numbered as submitted whether they are executed
+     * or not, so that the events after them are not taken for missing ones.
+     *
+     * @return false if some of the new events follow a missing event
+     */
+    private boolean acceptGameEvents(Room room, Player player, int submitter, JSONArray events, long first_sequence,
+                                     boolean executable) throws JSONException {
+        int duplicated = 0;
+        int accepted = 0;
+        int dropped = 0;
+        boolean continuous = true;
+        for (int i = 0; i < events.length(); i++) {
+            if (first_sequence >= 0) {
+                long sequence = first_sequence + i;
+                if (sequence <= player.getSubmittedSequence()) {
+                    duplicated++;
+                    continue;
+                }
+                if (sequence > player.getSubmittedSequence() + 1) {
+                    getContext().getMetricsManager().increaseCounter("events.out_of_order", events.length() - i);
+                    continuous = false;
+                    break;
+                }
+                player.setSubmittedSequence(sequence);
+            }
+            if (executable) {
+                room.submitGameEvent(events.getJSONObject(i), submitter);
+                accepted++;
+            } else {
+                dropped++;
+            }
+        }
+        getContext().getMetricsManager().increaseCounter("events.batches", 1);
+        getContext().getMetricsManager().increaseCounter("events.accepted", accepted);
+        getContext().getMetricsManager().increaseCounter("events.duplicated", duplicated);
+        getContext().getMetricsManager().increaseCounter("events.dropped", dropped);
+        return continuous;
+    }
+
     public RoomSetting createRoomSetting(Room room) {
         RoomSetting room_setting = new RoomSetting();
         room_setting.room_id = room.getRoomID();
@@ -158,8 +321,10 @@ public class RoomManager implements RoomListener {
         room_setting.max_population = room.getUnitCapacity();
         ObjectSet<Integer> players = room.getPlayers();
         room_setting.players = new Array<PlayerSnapshot>();
-        room_setting.game = room.getGameCopy();
         synchronized (room.GAME_LOCK) {
+            room_setting.game = room.getGameCopy();
+            room_setting.event_sequence = room.getEventSequence();
+            room_setting.random_seed = room.getGame().getRandomSeed();
             room_setting.manager_state = room.getManager().getState();
             Unit selected_unit = room.getManager().getSelectedUnit();
             room_setting.selected_unit_x = selected_unit == null ? -1 : selected_unit.getX();
@@ -191,49 +356,180 @@ public class RoomManager implements RoomListener {
 
     public RoomSetting onPlayerJoinRoom(Player player, long room_id, String password) {
         Room room = getRoom(room_id);
-        if (canJoin(room) && player.getRoomID() < 0 && room.checkPassword(password)) {
-            room.addPlayer(player.getID());
-            player.setRoomID(room_id);
-            getContext().getNotificationSender().notifyPlayerJoining(room, player.getID(), player.getUsername());
-            return createRoomSetting(room);
+        if (room == null || !room.checkPassword(password)) {
+            return null;
+        }
+        synchronized (player.ROOM_LOCK) {
+            synchronized (room.SEAT_LOCK) {
+                if (canJoin(room) && player.getRoomID() < 0) {
+                    room.addPlayer(player.getID());
+                    player.setRoomID(room_id);
+                } else {
+                    return null;
+                }
+            }
+        }
+        getContext().getPlayerManager().onPlayerStateChanged(player);
+        getRoomDirectory().onRoomChanged(room_id);
+        getContext().getNotificationSender().notifyPlayerJoining(room, player.getID(), player.getUsername());
+        return createRoomSetting(room);
+    }
+
+    /**
+     * Seat a reconnected player in the room of its lost connection.
+     *
+     * @param player         the reconnected player
+     * @param previous       the player of the lost connection
+     * @param sequence       the sequence number of the last event known by the client
+     * @param events         the events of the client not acknowledged yet, may be null
+     * @param first_sequence the sequence number of the first of these events
+     * @return what the client has missed, or null if the room is gone
+     */
+    public ResumeSetting onPlayerResumeRoom(
+            Player player, Player previous, long sequence, JSONArray events, long first_sequence) {
+        Room room = getRoom(previous.getRoomID());
+        if (room != null && player.getRoomID() < 0) {
+            ResumeSetting resume_setting = new ResumeSetting();
+            synchronized (room.GAME_LOCK) {
+                //taken inside the game lock, so that no event is executed while the seat changes hands
+                synchronized (player.ROOM_LOCK) {
+                    synchronized (room.SEAT_LOCK) {
+                        if (room.isDisposed() || player.getRoomID() >= 0
+                                || !room.replacePlayer(previous.getID(), player.getID())) {
+                            return null;
+                        }
+                        player.setRoomID(room.getRoomID());
+                    }
+                }
+                player.setSubmittedSequence(previous.getSubmittedSequence());
+                getContext().getPlayerManager().onPlayerStateChanged(player);
+                boolean resync_required = previous.isResyncRequired();
+                if (events != null && first_sequence >= 0 && !resync_required) {
+                    //submitted on behalf of the lost connection, so the reconnected client is notified of them
+                    boolean executable = player.getID() == room.getCurrentPlayerID();
+                    long submitted = player.getSubmittedSequence();
+                    boolean continuous = acceptGameEvents(
+                            room, player, previous.getID(), events, first_sequence, executable);
+                    //new events dropped after the turn was over are covered by the snapshot
+                    resync_required = !continuous || !executable && player.getSubmittedSequence() > submitted;
+                }
+                resume_setting.submitted = player.getSubmittedSequence();
+                resume_setting.sequence = room.getEventSequence();
+                //the game of a client whose events were dropped differs from the one of the room
+                resume_setting.events = resync_required ? null : room.getEventsSince(sequence);
+                if (resume_setting.events == null) {
+                    resume_setting.room_setting = createRoomSetting(room);
+                }
+            }
+            if (getContext().getConfiguration().isJournalEnabled()) {
+                getContext().getJournalManager().onSeatsChanged(room);
+            }
+            Log.info(TAG, String.format("%s resumes room [%d] from event %d of %d",
+                    player.toString(), room.getRoomID(), sequence, resume_setting.sequence));
+            getContext().getNotificationSender().notifyPlayerResuming(
+                    room, previous.getID(), player.getID(), player.getUsername());
+            getContext().getNotificationSender().notifyAllocationUpdating(room, player.getID());
+            return resume_setting;
         } else {
             return null;
         }
     }
 
     public void onPlayerLeaveRoom(Player player) {
-        long room_id = player.getRoomID();
-        if (room_id >= 0) {
-            Room room = getRoom(room_id);
-            if (room != null) {
-                room.removePlayer(player.getID());
+        Room room;
+        long room_id;
+        int freed_teams;
+        boolean empty;
+        synchronized (player.ROOM_LOCK) {
+            room_id = player.getRoomID();
+            room = room_id >= 0 ? getRoom(room_id) : null;
+            if (room == null) {
+                return;
+            }
+            synchronized (room.SEAT_LOCK) {
+                freed_teams = room.removePlayer(player.getID());
                 player.setRoomID(-1);
-                Log.info(TAG, String.format("%s leaves room [%d]", player.toString(), room_id));
-                if (room.getPlayerCapacity() == room.getRemaining()) {
+                empty = room.getPlayerCapacity() == room.getRemaining();
+                if (empty) {
+                    //no one joins a disposed room
                     room.dispose();
-                    removeRoom(room_id);
-                } else {
-                    getContext().getNotificationSender().
-                            notifyPlayerLeaving(room, player.getID(), player.getUsername(), room.getHostID());
-                    getContext().getNotificationSender().notifyAllocationUpdating(room, -1);
                 }
             }
         }
+        room.clearPlayerTypes(freed_teams);
+        getContext().getPlayerManager().onPlayerStateChanged(player);
+        Log.info(TAG, String.format("%s leaves room [%d]", player.toString(), room_id));
+        if (empty) {
+            removeRoom(room_id);
+        } else {
+            getRoomDirectory().onRoomChanged(room_id);
+            if (getContext().getConfiguration().isJournalEnabled()) {
+                getContext().getJournalManager().onSeatsChanged(room);
+            }
+            getContext().getNotificationSender().
+                    notifyPlayerLeaving(room, player.getID(), player.getUsername(), room.getHostID());
+            getContext().getNotificationSender().notifyAllocationUpdating(room, -1);
+        }
     }
 
     @Override
-    public void onGameEventExecuted(Room room, JSONObject event, int submitter) {
+    public void onGameEventExecuted(Room room, JSONObject event, long sequence, int submitter) {
+        if (getContext().getConfiguration().isJournalEnabled()) {
+            getContext().getJournalManager().onGameEventExecuted(room, event, sequence);
+        }
+        if (getContext().getConfiguration().isRecordEnabled()) {
+            getContext().getMatchRecorder().onGameEventExecuted(room, event);
+        }
+        updateTurnTimer(room);
         for (int player_id : room.getPlayers()) {
             if (player_id != submitter) {
-                getContext().getNotificationSender().syncGameEvent(player_id, event);
+                getContext().getNotificationSender().syncGameEvent(player_id, event, sequence);
             }
         }
     }
 
+    @Override
+    public void onStaleGameEvent(Room room, int player_id) {
+        Player player = getContext().getPlayerManager().getPlayer(player_id);
+        if (player != null) {
+            requireResync(room, player, "its turn timed out");
+        }
+    }
+
+    private void requireResync(Room room, Player player, String reason) {
+        if (!player.isResyncRequired()) {
+            player.setResyncRequired(true);
+            Log.info(TAG, String.format("Events of %s dropped after %s in room [%d]",
+                    player.toString(), reason, room.getRoomID()));
+            //the client reconnects and resumes the room from a snapshot
+            player.getConnection().close();
+        }
+    }
+
     @Override
     public void onCheatingDetected(Room room, int player_id, Throwable cause) {
         getContext().getPlayerManager().disconnectPlayer(player_id, "/cheating", 5000);
         Log.info(TAG, String.format("Cheating detected in room [%d] by player [%d]", room.getRoomID(), player_id));
     }
 
+    private class TurnTimeoutTask implements Runnable {
+
+        private final Room room;
+        private final long turn_key;
+
+        public TurnTimeoutTask(Room room, long turn_key) {
+            this.room = room;
+            this.turn_key = turn_key;
+        }
+
+        @Override
+        public void run() {
+            if (getRoom(room.getRoomID()) == room) {
+                Log.info(TAG, String.format("Turn timed out in room [%d]", room.getRoomID()));
+                room.submitTurnEnding(turn_key);
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,96 @@
+package net.toyknight.aeii.server.utils;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power of two buckets in microseconds.
+ *
+ * @author agent 10/19/2026.
+ */
+public class LatencyHistogram {
+
+    //bucket i counts the samples below 2^i microseconds
+    private static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total_time = new AtomicLong();
+
+    private final AtomicLong max_time = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        total_time.addAndGet(micros);
+        long max = max_time.get();
+        while (micros > max && !max_time.compareAndSet(max, micros)) {
+            max = max_time.get();
+        }
+    }
+
+    public void merge(LatencyHistogram histogram) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.addAndGet(i, histogram.buckets.get(i));
+        }
+        count.addAndGet(histogram.getCount());
+        total_time.addAndGet(histogram.total_time.get());
+        long max = max_time.get();
+        while (histogram.getMax() > max && !max_time.compareAndSet(max, histogram.getMax())) {
+            max = max_time.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMean() {
+        long count = getCount();
+        return count > 0 ? total_time.get() / count : 0;
+    }
+
+    public long getMax() {
+        return max_time.get();
+    }
+
+    /**
+     * Get the upper bound of the bucket that holds the given percentile.
+     *
+     * @param percentile between 0 and 1
+     * @return the latency in microseconds
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(1L << i, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("count", getCount());
+        json.put("mean_us", getMean());
+        json.put("p50_us", getPercentile(0.5));
+        json.put("p90_us", getPercentile(0.9));
+        json.put("p99_us", getPercentile(0.99));
+        json.put("max_us", getMax());
+        return json;
+    }
+
+}
@@ -0,0 +1,89 @@
+package net.toyknight.aeii.server.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of serialized maps, keyed by map id.
+ *
+ * @author agent 10/19/2026.
+ */
+public class MapCache {
+
+    private final Object CACHE_LOCK = new Object();
+
+    private final LinkedHashMap<Integer, String> cache;
+
+    private long hit_count;
+
+    private long miss_count;
+
+    public MapCache(final int capacity) {
+        this.cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public String get(int map_id) {
+        synchronized (CACHE_LOCK) {
+            String payload = cache.get(map_id);
+            if (payload == null) {
+                miss_count++;
+            } else {
+                hit_count++;
+            }
+            return payload;
+        }
+    }
+
+    public void put(int map_id, String payload) {
+        synchronized (CACHE_LOCK) {
+            cache.put(map_id, payload);
+        }
+    }
+
+    public void invalidate(int map_id) {
+        synchronized (CACHE_LOCK) {
+            cache.remove(map_id);
+        }
+    }
+
+    public int size() {
+        synchronized (CACHE_LOCK) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (CACHE_LOCK) {
+            return hit_count;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (CACHE_LOCK) {
+            return miss_count;
+        }
+    }
+
+    public float getHitRate() {
+        synchronized (CACHE_LOCK) {
+            long total = hit_count + miss_count;
+            return total > 0 ? (float) hit_count / total : 0f;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (CACHE_LOCK) {
+            long total = hit_count + miss_count;
+            float hit_rate = total > 0 ? (float) hit_count / total : 0f;
+            return String.format(
+                    "%d cached, %d hits, %d misses, hit rate %.1f%%", cache.size(), hit_count, miss_count, hit_rate * 100);
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package net.toyknight.aeii.server.utils;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.minlog.Log;
+import net.toyknight.aeii.network.NetworkConstants;
+import net.toyknight.aeii.network.PacketChannel;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of the packets waiting to be written to one connection. Packets are written by the offering
+ * thread as long as the write buffer has room, the rest is drained by the network thread once the buffer
+ * empties, so no sender ever waits for a slow client. An allocation update replaces the one queued right
+ * before it, lobby traffic is dropped first when the queue is full, and a client that still falls too far
+ * behind is disconnected.
+ *
+ * @author agent 10/19/2026.
+ */
+public class OutboundQueue {
+
+    private static final String TAG = "OUTBOUND";
+
+    //room for the length and class prefixes written ahead of every frame
+    private static final int FRAME_OVERHEAD = 16;
+
+    private final Object QUEUE_LOCK = new Object();
+
+    private final PacketChannel channel;
+
+    private final int capacity;
+
+    private final int byte_capacity;
+
+    private final long timeout;
+
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+    private final AtomicLong coalesced_count = new AtomicLong();
+
+    private final AtomicLong dropped_count = new AtomicLong();
+
+    private volatile int queued_packets;
+
+    private volatile int queued_bytes;
+
+    private volatile boolean overflowed;
+
+    /**
+     * @param channel       the channel of the connection
+     * @param capacity      the maximum number of queued packets
+     * @param byte_capacity the maximum number of queued bytes
+     * @param timeout       the longest time in ms a packet may wait
+     */
+    public OutboundQueue(PacketChannel channel, int capacity, int byte_capacity, long timeout) {
+        this.channel = channel;
+        this.capacity = capacity;
+        this.byte_capacity = byte_capacity;
+        this.timeout = timeout;
+    }
+
+    public PacketChannel getChannel() {
+        return channel;
+    }
+
+    public void offer(JSONObject packet) {
+        int operation = packet.has("operation") ? packet.getInt("operation") : -1;
+        offer(PacketChannel.encode(packet, getChannel().getProtocol()), packet.getInt("type"), operation, false);
+    }
+
+    /**
+     * Queue a packet encoded with the protocol of the channel.
+     *
+     * @param frame     the encoded packet
+     * @param type      the type of the packet
+     * @param operation the operation of the packet, or -1 if there is none
+     * @param droppable whether the packet is lobby traffic that may be dropped when the queue is full
+     */
+    public void offer(Object frame, int type, int operation, boolean droppable) {
+        if (overflowed) {
+            return;
+        }
+        Entry entry = new Entry(getChannel().split(frame), type, operation, droppable);
+        String reason = null;
+        synchronized (QUEUE_LOCK) {
+            if (entry.isCoalescible()) {
+                coalesce(entry);
+            }
+            entries.add(entry);
+            queued_bytes += entry.size;
+            if (entries.size() > capacity || queued_bytes > byte_capacity) {
+                drop();
+            }
+            if (entries.size() > capacity || queued_bytes > byte_capacity) {
+                reason = String.format("%d packets (%d bytes) queued", entries.size(), queued_bytes);
+            } else if (!entries.isEmpty() && System.currentTimeMillis() - entries.getFirst().enqueue_time > timeout) {
+                reason = String.format("a packet waited over %d ms", timeout);
+            } else {
+                write();
+            }
+            queued_packets = entries.size();
+        }
+        if (reason != null) {
+            overflow(reason);
+        }
+    }
+
+    /**
+     * Write as many queued frames as the write buffer can take. Called by the network thread whenever the write
+     * buffer of the connection is nearly empty.
+     */
+    public void drain() {
+        if (queued_packets > 0 && !overflowed) {
+            synchronized (QUEUE_LOCK) {
+                write();
+                queued_packets = entries.size();
+            }
+        }
+    }
+
+    public int getQueuedPackets() {
+        return queued_packets;
+    }
+
+    public int getQueuedBytes() {
+        return queued_bytes;
+    }
+
+    public long getCoalescedCount() {
+        return coalesced_count.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped_count.get();
+    }
+
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    private void write() {
+        while (!entries.isEmpty()) {
+            Entry head = entries.getFirst();
+            if (!hasRoom(head.frame_sizes[head.written])) {
+                return;
+            }
+            getChannel().sendFrame(head.frames.get(head.written));
+            head.written++;
+            if (head.written == head.frames.size) {
+                entries.removeFirst();
+                queued_bytes -= head.size;
+            }
+        }
+    }
+
+    private boolean hasRoom(int size) {
+        int buffered = getChannel().getConnection().getTcpWriteBufferSize();
+        return buffered == 0 || buffered + size + FRAME_OVERHEAD <= PacketChannel.BUFFER_SIZE;
+    }
+
+    //only the last queued packet is replaced, so the allocation keeps its order with joining and leaving
+    private void coalesce(Entry entry) {
+        if (!entries.isEmpty()) {
+            Entry queued = entries.getLast();
+            if (queued.written == 0 && queued.type == entry.type && queued.operation == entry.operation) {
+                entries.removeLast();
+                queued_bytes -= queued.size;
+                coalesced_count.incrementAndGet();
+            }
+        }
+    }
+
+    private void drop() {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext() && (entries.size() > capacity || queued_bytes > byte_capacity)) {
+            Entry queued = iterator.next();
+            if (queued.written == 0 && queued.droppable) {
+                iterator.remove();
+                queued_bytes -= queued.size;
+                dropped_count.incrementAndGet();
+            }
+        }
+    }
+
+    private void overflow(String reason) {
+        synchronized (QUEUE_LOCK) {
+            if (overflowed) {
+                return;
+            }
+            overflowed = true;
+            entries.clear();
+            queued_packets = 0;
+            queued_bytes = 0;
+        }
+        Log.info(TAG, String.format("Connection [%d] falls behind, %s", getChannel().getConnection().getID(), reason));
+        getChannel().getConnection().close();
+    }
+
+    private static int getSize(Object frame) {
+        if (frame instanceof byte[]) {
+            return ((byte[]) frame).length;
+        }
+        String content = frame.toString();
+        int size = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            size += c < 0x80 ? 1 : (c < 0x800 ? 2 : 3);
+        }
+        return size;
+    }
+
+    private static class Entry {
+
+        private final Array<Object> frames;
+        private final int[] frame_sizes;
+        private final int type;
+        private final int operation;
+        private final boolean droppable;
+        private final int size;
+        private final long enqueue_time;
+
+        private int written;
+
+        public Entry(Array<Object> frames, int type, int operation, boolean droppable) {
+            this.frames = frames;
+            this.type = type;
+            this.operation = operation;
+            this.droppable = droppable;
+            this.enqueue_time = System.currentTimeMillis();
+            this.frame_sizes = new int[frames.size];
+            int size = 0;
+            for (int i = 0; i < frames.size; i++) {
+                frame_sizes[i] = getSize(frames.get(i));
+                size += frame_sizes[i];
+            }
+            this.size = size;
+        }
+
+        public boolean isCoalescible() {
+            return type == NetworkConstants.NOTIFICATION && operation == NetworkConstants.ALLOCATION_UPDATING;
+        }
+
+    }
+
+}
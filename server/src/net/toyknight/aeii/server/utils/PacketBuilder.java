@@ -1,5 +1,6 @@
 package net.toyknight.aeii.server.utils;
 
+import net.toyknight.aeii.network.NetworkConstants;
 import org.json.JSONObject;
 
 /**
@@ -20,4 +21,31 @@ public class PacketBuilder {
         return packet;
     }
 
+    /**
+     * Create the response to a request, carrying the id of the request if the client sent one.
+     *
+     * @param request the request
+     * @return the response
+     */
+    public static JSONObject createResponse(JSONObject request) {
+        JSONObject response = create(NetworkConstants.RESPONSE);
+        if (request.has("request_id")) {
+            response.put("request_id", request.getInt("request_id"));
+        }
+        return response;
+    }
+
+    /**
+     * Create the response to a request that is refused before it is handled, such as the request of a player who
+     * is not authenticated. The client completes the request without a response.
+     *
+     * @param request the request
+     * @return the response
+     */
+    public static JSONObject createRejection(JSONObject request) {
+        JSONObject response = createResponse(request);
+        response.put("rejected", true);
+        return response;
+    }
+
 }
@@ -0,0 +1,28 @@
+package net.toyknight.aeii.server.utils;
+
+import org.json.JSONString;
+
+/**
+ * Wraps an already serialized JSON value so that it can be put into a packet without being parsed again.
+ *
+ * @author agent 10/19/2026.
+ */
+public class SerializedJSON implements JSONString {
+
+    private final String content;
+
+    public SerializedJSON(String content) {
+        this.content = content;
+    }
+
+    @Override
+    public String toJSONString() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return content;
+    }
+
+}
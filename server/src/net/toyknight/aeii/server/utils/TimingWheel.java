@@ -0,0 +1,273 @@
+package net.toyknight.aeii.server.utils;
+
+import com.esotericsoftware.minlog.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel. Timeouts are hashed into the bucket of the tick they expire in, so scheduling and
+ * cancelling take constant time however many timeouts are pending. A single worker thread advances the wheel
+ * once per tick and hands the expired tasks over to an executor, so a slow task never holds back the other
+ * timeouts. Timeouts may fire up to one tick late.
+ *
+ * @author agent 10/19/2026.
+ */
+public class TimingWheel {
+
+    private static final String TAG = "TIMING WHEEL";
+
+    //the most timeouts moved into the wheel per tick, the rest wait for the next tick
+    private static final int MAX_TRANSFER = 100000;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final Executor executor;
+
+    private final long tick_duration;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final ConcurrentLinkedQueue<Timeout> scheduled_timeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    private final ConcurrentLinkedQueue<Timeout> cancelled_timeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    private final AtomicLong pending_count = new AtomicLong();
+
+    private final long start_time;
+
+    private volatile boolean stopped;
+
+    //only touched by the worker
+    private long tick;
+
+    /**
+     * @param executor      the executor the expired tasks run on
+     * @param tick_duration the duration of a tick in ms
+     * @param wheel_size    the number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(Executor executor, long tick_duration, int wheel_size) {
+        this.executor = executor;
+        this.tick_duration = tick_duration;
+        int size = 1;
+        while (size < wheel_size) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.start_time = System.currentTimeMillis();
+    }
+
+    public void start() {
+        Thread worker = new Thread(new WheelTurningTask(), "timing-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public long getPendingCount() {
+        return pending_count.get();
+    }
+
+    /**
+     * @param task  the task to run
+     * @param delay the delay in ms
+     * @return the timeout that can be cancelled before it expires
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() - start_time + Math.max(0, delay));
+        pending_count.incrementAndGet();
+        scheduled_timeouts.add(timeout);
+        return timeout;
+    }
+
+    private void turn() {
+        long deadline = (tick + 1) * tick_duration;
+        long sleep_time = deadline - (System.currentTimeMillis() - start_time);
+        if (sleep_time > 0) {
+            try {
+                Thread.sleep(sleep_time);
+            } catch (InterruptedException ignored) {
+            }
+            return;
+        }
+        removeCancelledTimeouts();
+        transferScheduledTimeouts();
+        wheel[(int) (tick & mask)].expire(tick);
+        tick++;
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelled_timeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                pending_count.decrementAndGet();
+            }
+        }
+    }
+
+    private void transferScheduledTimeouts() {
+        for (int i = 0; i < MAX_TRANSFER; i++) {
+            Timeout timeout = scheduled_timeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() == STATE_CANCELLED) {
+                pending_count.decrementAndGet();
+                continue;
+            }
+            //a timeout due in the past fires on the current tick
+            long expiring_tick = Math.max(timeout.deadline / tick_duration, tick);
+            timeout.expiring_tick = expiring_tick;
+            wheel[(int) (expiring_tick & mask)].add(timeout);
+        }
+    }
+
+    private void execute(Timeout timeout) {
+        pending_count.decrementAndGet();
+        try {
+            executor.execute(new TimeoutTask(timeout.task));
+        } catch (RejectedExecutionException ex) {
+            Log.error(TAG, "Error submitting timeout task", ex);
+        }
+    }
+
+    public class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+        //only touched by the worker
+        private long expiring_tick;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true if the task will not run, false if it has already expired and been handed to the executor
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                cancelled_timeouts.add(this);
+                return true;
+            } else {
+                return state.get() == STATE_CANCELLED;
+            }
+        }
+
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+
+    }
+
+    private class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        public void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        public void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        //timeouts further away than a full turn of the wheel stay for the later rounds
+        public void expire(long current_tick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.expiring_tick <= current_tick) {
+                    remove(timeout);
+                    if (timeout.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                        execute(timeout);
+                    } else {
+                        pending_count.decrementAndGet();
+                    }
+                }
+                timeout = next;
+            }
+        }
+
+    }
+
+    private static class TimeoutTask implements Runnable {
+
+        private final Runnable task;
+
+        public TimeoutTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Exception ex) {
+                Log.error(TAG, "Error running timeout task", ex);
+            }
+        }
+
+    }
+
+    private class WheelTurningTask implements Runnable {
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    turn();
+                } catch (Exception ex) {
+                    Log.error(TAG, "Error turning the wheel", ex);
+                }
+            }
+        }
+
+    }
+
+}